@@ -0,0 +1,51 @@
+"""
+Times BooleanRetriever.query_and / query_or on the queries of the Java
+BooleanBenchmark (practicalex-2/src/jmh/.../BooleanBenchmark.java), so the
+linear scan can be compared to the bitmap engine and to Lucene.
+
+Usage: python boolean_benchmark.py [number_of_records] [repetitions]
+"""
+import sys, timeit
+from movies import MovieCollection
+from features import FeatureExtractor
+from boolean import BooleanRetriever
+
+# Same terms as BooleanBenchmark.TERMS
+QUERIES = [
+    {"star", "wars"}, {"love", "war"}, {"detective", "murder"}, {"high", "school"},
+    {"alien", "invasion"}, {"vampire", "zombie", "werewolf"}, {"christmas", "family"},
+    {"the", "of", "a"},
+]
+
+
+def time_per_query(function, repetitions: int) -> float:
+    """Average microseconds per query over all queries."""
+    def run():
+        for query in QUERIES:
+            function(query)
+    seconds = min(timeit.repeat(run, number=repetitions, repeat=3))
+    return seconds / (repetitions * len(QUERIES)) * 1e6
+
+
+def main():
+    number_of_records = int(sys.argv[1]) if len(sys.argv) > 1 else 3000
+    repetitions = int(sys.argv[2]) if len(sys.argv) > 2 else 20
+
+    # No stemming or stopwords, to match the terms of the StandardAnalyzer
+    collection = MovieCollection(number_of_records)
+    pipeline = FeatureExtractor(stemming=False, stopwords=False)
+    features_set = {movie.imdb_id: pipeline.set_of_words(movie.to_text())
+                    for movie in collection.movies}
+    index = BooleanRetriever(features_set)
+
+    print(f"{index.n_docs} documents")
+    print("query\tand_matches\tor_matches")
+    for query in QUERIES:
+        print(f"{' '.join(sorted(query))}\t{len(index.query_and(query))}\t{len(index.query_or(query))}")
+
+    print(f"query_and: {time_per_query(index.query_and, repetitions):.1f} us/query")
+    print(f"query_or: {time_per_query(index.query_or, repetitions):.1f} us/query")
+
+
+if __name__ == "__main__":
+    main()
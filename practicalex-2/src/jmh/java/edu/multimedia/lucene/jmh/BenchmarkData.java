@@ -0,0 +1,95 @@
+package edu.multimedia.lucene.jmh;
+
+import edu.multimedia.lucene.benchmark.SyntheticCorpusGenerator;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.util.JsonlReader;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Corpora and indexes shared by the benchmarks.
+ * The dataset location can be set with {@code -Dmovies.data=<file>}.
+ *
+ * Corpus names: "sample" is the bundled dataset; "xN" is a synthetic corpus
+ * N times its size (see {@link SyntheticCorpusGenerator}).
+ */
+final class BenchmarkData {
+    static final String DATA_PATH = System.getProperty("movies.data", "data/movie_dataset.jsonl");
+
+    private BenchmarkData() {
+    }
+
+    static Path datasetPath() {
+        return Paths.get(DATA_PATH);
+    }
+
+    /**
+     * Loads the movies of a corpus.
+     */
+    static List<Movie> corpus(String name) throws IOException {
+        List<Movie> sample = new JsonlReader().readMovies(datasetPath());
+        if (name.equals("sample")) {
+            return sample;
+        }
+        return generator(sample).corpus(sample.size() * factor(name));
+    }
+
+    /**
+     * Gets a JSONL file with the movies of a corpus: the dataset itself for
+     * "sample", otherwise a new temporary file.
+     */
+    static Path corpusFile(String name) throws IOException {
+        if (name.equals("sample")) {
+            return datasetPath();
+        }
+        List<Movie> sample = new JsonlReader().readMovies(datasetPath());
+        Path file = Files.createTempFile("movies-jmh-" + name + "-", ".jsonl");
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            generator(sample).write((long) sample.size() * factor(name), writer);
+        }
+        return file;
+    }
+
+    private static int factor(String name) {
+        if (!name.startsWith("x")) {
+            throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+        return Integer.parseInt(name.substring(1));
+    }
+
+    private static SyntheticCorpusGenerator generator(List<Movie> sample) {
+        return new SyntheticCorpusGenerator(sample, SyntheticCorpusGenerator.DEFAULT_SEED);
+    }
+
+    /**
+     * Builds an index of a corpus in a new temporary directory.
+     */
+    static Path buildIndex(String corpus) throws IOException {
+        Path indexPath = Files.createTempDirectory("movies-jmh-" + corpus + "-");
+        MovieIndexer indexer = new MovieIndexer(indexPath);
+        try {
+            indexer.createIndex(corpus(corpus));
+        } finally {
+            indexer.close();
+        }
+        return indexPath;
+    }
+
+    /**
+     * Deletes a file or directory created by {@link #corpusFile} or {@link #buildIndex}.
+     */
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
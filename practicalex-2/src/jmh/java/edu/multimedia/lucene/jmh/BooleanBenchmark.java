@@ -0,0 +1,316 @@
+package edu.multimedia.lucene.jmh;
+
+import edu.multimedia.lucene.bitmap.BitmapIndex;
+import edu.multimedia.lucene.bitmap.RoaringBitmap;
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.SearchResult;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.FixedBitSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pure boolean keyword filters (no scoring needed) answered four ways:
+ * <ul>
+ *   <li>{@code bitmap*}: {@link BitmapIndex}, all matches as a bitmap</li>
+ *   <li>{@code lucene*}: the same query parsed like {@link MovieSearcher} does,
+ *       all matches collected into a bit set without scoring</li>
+ *   <li>{@code movieSearcher}: {@link MovieSearcher#basicSearch}, the path
+ *       these filters take today (scored top 50 with stored fields)</li>
+ *   <li>{@code scan*}: a linear scan over each movie's set of terms, the Java
+ *       port of {@code BooleanRetriever} in benchmark/boolean.py (whose own
+ *       timings come from benchmark/boolean_benchmark.py)</li>
+ * </ul>
+ * Setup checks that the bitmap and Lucene answers have the same size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class BooleanBenchmark {
+    private static final int MAX_RESULTS = 50;
+    private static final String[] FIELDS = {
+        MovieIndexer.FIELD_TITLE,
+        MovieIndexer.FIELD_CAST,
+        MovieIndexer.FIELD_OVERVIEW,
+        MovieIndexer.FIELD_TAGLINE,
+        MovieIndexer.FIELD_GENRES
+    };
+
+    /** Terms of the AND and OR queries (the same as in boolean_benchmark.py). */
+    static final String[][] TERMS = {
+        {"star", "wars"}, {"love", "war"}, {"detective", "murder"}, {"high", "school"},
+        {"alien", "invasion"}, {"vampire", "zombie", "werewolf"}, {"christmas", "family"},
+        {"the", "of", "a"}
+    };
+
+    private static final String[] NOT_QUERIES = {
+        "space AND NOT alien", "love AND (paris OR london) AND NOT war",
+        "drama AND NOT (comedy OR romance)", "murder AND NOT detective",
+        "family AND NOT christmas", "war AND NOT (world OR star)",
+        "the AND NOT a", "school AND NOT high"
+    };
+
+    /**
+     * The corpus in every representation, shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({"sample", "x10"})
+        public String corpus;
+
+        BitmapIndex bitmapIndex;
+        List<Set<String>> termSets;
+        Path indexPath;
+        Directory directory;
+        DirectoryReader reader;
+        IndexSearcher searcher;
+        MovieSearcher movieSearcher;
+        String[] andQueries;
+        String[] orQueries;
+        Query[] luceneAnd;
+        Query[] luceneOr;
+        Query[] luceneNot;
+
+        @Setup
+        public void open() throws IOException, ParseException {
+            List<Movie> movies = BenchmarkData.corpus(corpus);
+            bitmapIndex = new BitmapIndex(movies);
+            termSets = termSets(movies);
+
+            indexPath = BenchmarkData.buildIndex(corpus);
+            directory = FSDirectory.open(indexPath);
+            reader = DirectoryReader.open(directory);
+            searcher = new IndexSearcher(reader);
+            searcher.setQueryCache(null);
+            movieSearcher = new MovieSearcher(indexPath, DirectoryConfig.fromSystemProperties());
+            movieSearcher.setSnippetsEnabled(false);
+
+            andQueries = new String[TERMS.length];
+            orQueries = new String[TERMS.length];
+            for (int i = 0; i < TERMS.length; i++) {
+                andQueries[i] = String.join(" AND ", TERMS[i]);
+                orQueries[i] = String.join(" OR ", TERMS[i]);
+            }
+            luceneAnd = parse(andQueries);
+            luceneOr = parse(orQueries);
+            luceneNot = parse(NOT_QUERIES);
+
+            verify(andQueries, luceneAnd);
+            verify(orQueries, luceneOr);
+            verify(NOT_QUERIES, luceneNot);
+            System.out.println(String.format("Bitmap index: %d movies, %d terms, %.1f MB",
+                bitmapIndex.size(), bitmapIndex.getTermCount(), bitmapIndex.getSizeInBytes() / 1e6));
+        }
+
+        private Query[] parse(String[] queries) throws ParseException {
+            MultiFieldQueryParser parser = new MultiFieldQueryParser(FIELDS, new StandardAnalyzer());
+            Query[] parsed = new Query[queries.length];
+            for (int i = 0; i < queries.length; i++) {
+                parsed[i] = parser.parse(queries[i]);
+            }
+            return parsed;
+        }
+
+        private void verify(String[] queries, Query[] parsed) throws IOException {
+            for (int i = 0; i < queries.length; i++) {
+                int bitmapCount = bitmapIndex.search(queries[i]).cardinality();
+                int luceneCount = collect(searcher, parsed[i]).cardinality();
+                if (bitmapCount != luceneCount) {
+                    throw new IllegalStateException("\"" + queries[i] + "\": " + bitmapCount
+                        + " bitmap matches but " + luceneCount + " Lucene matches");
+                }
+            }
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            movieSearcher.close();
+            reader.close();
+            directory.close();
+            BenchmarkData.delete(indexPath);
+        }
+    }
+
+    /**
+     * Position of a benchmark thread in the query list.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            next = 0;
+        }
+
+        int next() {
+            int current = next;
+            next = (next + 1) % TERMS.length;
+            return current;
+        }
+    }
+
+    @Benchmark
+    public RoaringBitmap bitmapAnd(Corpus corpus, Cursor cursor) {
+        return corpus.bitmapIndex.search(corpus.andQueries[cursor.next()]);
+    }
+
+    @Benchmark
+    public RoaringBitmap bitmapOr(Corpus corpus, Cursor cursor) {
+        return corpus.bitmapIndex.search(corpus.orQueries[cursor.next()]);
+    }
+
+    @Benchmark
+    public RoaringBitmap bitmapNot(Corpus corpus, Cursor cursor) {
+        return corpus.bitmapIndex.search(NOT_QUERIES[cursor.next()]);
+    }
+
+    /**
+     * Bitmap intersection alone, without query parsing and analysis.
+     */
+    @Benchmark
+    public RoaringBitmap bitmapAndTerms(Corpus corpus, Cursor cursor) {
+        return corpus.bitmapIndex.queryAnd(Arrays.asList(TERMS[cursor.next()]));
+    }
+
+    @Benchmark
+    public FixedBitSet luceneAnd(Corpus corpus, Cursor cursor) throws IOException {
+        return collect(corpus.searcher, corpus.luceneAnd[cursor.next()]);
+    }
+
+    @Benchmark
+    public FixedBitSet luceneOr(Corpus corpus, Cursor cursor) throws IOException {
+        return collect(corpus.searcher, corpus.luceneOr[cursor.next()]);
+    }
+
+    @Benchmark
+    public FixedBitSet luceneNot(Corpus corpus, Cursor cursor) throws IOException {
+        return collect(corpus.searcher, corpus.luceneNot[cursor.next()]);
+    }
+
+    @Benchmark
+    public List<SearchResult> movieSearcherAnd(Corpus corpus, Cursor cursor)
+            throws ParseException, IOException {
+        return corpus.movieSearcher.basicSearch(corpus.andQueries[cursor.next()], MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<Integer> scanAnd(Corpus corpus, Cursor cursor) {
+        List<String> query = Arrays.asList(TERMS[cursor.next()]);
+        List<Integer> matches = new ArrayList<>();
+        for (int doc = 0; doc < corpus.termSets.size(); doc++) {
+            if (corpus.termSets.get(doc).containsAll(query)) {
+                matches.add(doc);
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public List<Integer> scanOr(Corpus corpus, Cursor cursor) {
+        String[] query = TERMS[cursor.next()];
+        List<Integer> matches = new ArrayList<>();
+        for (int doc = 0; doc < corpus.termSets.size(); doc++) {
+            Set<String> terms = corpus.termSets.get(doc);
+            for (String term : query) {
+                if (terms.contains(term)) {
+                    matches.add(doc);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Collects all matches of a query without scoring.
+     */
+    static FixedBitSet collect(IndexSearcher searcher, Query query) throws IOException {
+        FixedBitSet matches = new FixedBitSet(searcher.getIndexReader().maxDoc());
+        searcher.search(query, new SimpleCollector() {
+            private int docBase;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) {
+                docBase = context.docBase;
+            }
+
+            @Override
+            public void collect(int doc) {
+                matches.set(docBase + doc);
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * Builds the set of terms of every movie, as the Python benchmark does.
+     */
+    private static List<Set<String>> termSets(List<Movie> movies) throws IOException {
+        StandardAnalyzer analyzer = new StandardAnalyzer();
+        List<Set<String>> termSets = new ArrayList<>(movies.size());
+        for (Movie movie : movies) {
+            String text = String.join(" ", nullToEmpty(movie.getTitle()),
+                nullToEmpty(movie.getOverview()), nullToEmpty(movie.getTagline()),
+                nullToEmpty(movie.getCast()),
+                movie.getGenres() != null ? String.join(" ", movie.getGenres()) : "");
+            Set<String> terms = new HashSet<>();
+            try (TokenStream stream = analyzer.tokenStream("", text)) {
+                CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+                stream.reset();
+                while (stream.incrementToken()) {
+                    terms.add(term.toString());
+                }
+                stream.end();
+            }
+            termSets.add(terms);
+        }
+        return termSets;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,72 @@
+package edu.multimedia.lucene.jmh;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.util.JsonlReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion hot paths: JSONL parsing and index building (into the heap, so
+ * the disk does not dominate the numbers).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class IngestionBenchmark {
+    @Param({"sample", "x10"})
+    public String corpus;
+
+    private Path corpusFile;
+    private List<Movie> movies;
+
+    @Setup
+    public void loadCorpus() throws IOException {
+        corpusFile = BenchmarkData.corpusFile(corpus);
+        movies = new JsonlReader().readMovies(corpusFile);
+    }
+
+    @TearDown
+    public void deleteCorpus() throws IOException {
+        if (!corpusFile.equals(BenchmarkData.datasetPath())) {
+            BenchmarkData.delete(corpusFile);
+        }
+    }
+
+    @Benchmark
+    public List<Movie> readMovies() throws IOException {
+        return new JsonlReader().readMovies(corpusFile);
+    }
+
+    @Benchmark
+    public long indexCorpus() throws IOException {
+        try (ByteBuffersDirectory directory = new ByteBuffersDirectory()) {
+            MovieIndexer indexer = new MovieIndexer(directory);
+            try {
+                indexer.createIndex(movies);
+            } finally {
+                indexer.close();
+            }
+            return directory.listAll().length;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package edu.multimedia.lucene.jmh;
+
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.search.EnhancedSearcher;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.SearchResult;
+import edu.multimedia.lucene.search.SearchResults;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query hot paths of {@link MovieSearcher} and {@link EnhancedSearcher}.
+ * Every invocation takes the next query of a fixed mix, so the numbers are
+ * not those of a single, perfectly cached query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class SearchBenchmark {
+    private static final int MAX_RESULTS = 50;
+
+    private static final String[] QUERIES = {
+        "star wars", "love", "war", "alien invasion", "detective murder",
+        "christmas family", "space", "vampire", "high school", "the dark knight"
+    };
+
+    private static final String[] FUZZY_QUERIES = {
+        "star? wars?", "lov?", "wa?", "alien? invasio?", "detectiv? murde?",
+        "christma? famil?", "spac?", "vampir?", "hig? schoo?", "dar? knigh?"
+    };
+
+    /**
+     * Index and searchers shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Index {
+        @Param({"sample", "x10"})
+        public String corpus;
+
+        Path indexPath;
+        MovieSearcher movieSearcher;
+        EnhancedSearcher enhancedSearcher;
+        Directory directory;
+        DirectoryReader reader;
+        IndexSearcher searcher;
+        /** Top hits of every query, for materialization. */
+        ScoreDoc[][] topDocs;
+        /** Results of every query, for facet computation. */
+        List<List<SearchResult>> results;
+
+        @Setup
+        public void open() throws IOException, ParseException {
+            indexPath = BenchmarkData.buildIndex(corpus);
+            DirectoryConfig config = DirectoryConfig.fromSystemProperties();
+            movieSearcher = new MovieSearcher(indexPath, config);
+            movieSearcher.setSnippetsEnabled(false);
+            enhancedSearcher = new EnhancedSearcher(indexPath, config);
+
+            directory = FSDirectory.open(indexPath);
+            reader = DirectoryReader.open(directory);
+            searcher = new IndexSearcher(reader);
+            QueryParser parser = new QueryParser(MovieIndexer.FIELD_OVERVIEW, new StandardAnalyzer());
+            topDocs = new ScoreDoc[QUERIES.length][];
+            results = new ArrayList<>();
+            for (int i = 0; i < QUERIES.length; i++) {
+                topDocs[i] = searcher.search(parser.parse(QUERIES[i]), MAX_RESULTS).scoreDocs;
+                results.add(enhancedSearcher.performSearch(QUERIES[i], MAX_RESULTS).getResults());
+            }
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            movieSearcher.close();
+            enhancedSearcher.close();
+            reader.close();
+            directory.close();
+            BenchmarkData.delete(indexPath);
+        }
+    }
+
+    /**
+     * Position of a benchmark thread in the query mix.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            next = 0;
+        }
+
+        int next() {
+            int current = next;
+            next = (next + 1) % QUERIES.length;
+            return current;
+        }
+    }
+
+    @Benchmark
+    public List<SearchResult> basicSearch(Index index, Cursor cursor)
+            throws ParseException, IOException {
+        return index.movieSearcher.basicSearch(QUERIES[cursor.next()], MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<SearchResult> enhancedSearch(Index index, Cursor cursor)
+            throws ParseException, IOException {
+        return index.movieSearcher.enhancedSearch(QUERIES[cursor.next()], 6.0, null, 1990, null, MAX_RESULTS);
+    }
+
+    @Benchmark
+    public SearchResults performSearch(Index index, Cursor cursor)
+            throws ParseException, IOException {
+        return index.enhancedSearcher.performSearch(QUERIES[cursor.next()], MAX_RESULTS);
+    }
+
+    @Benchmark
+    public SearchResults performSearchFuzzy(Index index, Cursor cursor)
+            throws ParseException, IOException {
+        return index.enhancedSearcher.performSearch(FUZZY_QUERIES[cursor.next()], MAX_RESULTS);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getFacets(Index index, Cursor cursor) throws IOException {
+        return index.enhancedSearcher.getFacets(index.results.get(cursor.next()));
+    }
+
+    /**
+     * Loading the stored fields of the top hits and wrapping them, which every
+     * search method does after collecting.
+     */
+    @Benchmark
+    public List<SearchResult> materializeResults(Index index, Cursor cursor) throws IOException {
+        ScoreDoc[] hits = index.topDocs[cursor.next()];
+        StoredFields storedFields = index.searcher.storedFields();
+        List<SearchResult> results = new ArrayList<>(hits.length);
+        for (ScoreDoc hit : hits) {
+            results.add(new SearchResult(storedFields.document(hit.doc), hit.score));
+        }
+        return results;
+    }
+}
@@ -1,14 +1,21 @@
 package edu.multimedia.lucene;
 
+import edu.multimedia.lucene.index.DatasetFingerprint;
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.IndexSettings;
 import edu.multimedia.lucene.index.MovieIndexer;
 import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.search.MovieRecommender;
 import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.QueryLog;
+import edu.multimedia.lucene.search.SlowQueryLog;
 import edu.multimedia.lucene.search.SearchResult;
 import edu.multimedia.lucene.search.EnhancedSearcher;
 import edu.multimedia.lucene.search.SearchResults;
 import edu.multimedia.lucene.util.JsonlReader;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -26,6 +33,9 @@ public class MovieSearchApp {
     
     private MovieSearcher searcher;
     private EnhancedSearcher enhancedSearcher;
+    private MovieRecommender recommender;
+    private QueryLog queryLog;
+    private SlowQueryLog slowQueryLog;
     private final Path indexPath;
     private final Path dataPath;
     private final Scanner scanner;
@@ -37,6 +47,12 @@ public class MovieSearchApp {
     }
 
     public static void main(String[] args) {
+        // Subcommands (index, search, batch, bench, export) run non-interactively
+        if (args.length > 0 && MovieSearchCli.isCommand(args[0])) {
+            MovieSearchCli.main(args);
+            return;
+        }
+        
         String dataPath = args.length > 0 ? args[0] : DEFAULT_DATA_PATH;
         String indexPath = args.length > 1 ? args[1] : DEFAULT_INDEX_PATH;
         
@@ -53,6 +69,12 @@ public class MovieSearchApp {
         System.out.println("==========================================");
         System.out.println();
 
+        try {
+            openExistingIndex();
+        } catch (Exception e) {
+            System.err.println("Could not open existing index: " + e.getMessage());
+        }
+
         boolean running = true;
         while (running) {
             printMenu();
@@ -73,6 +95,12 @@ public class MovieSearchApp {
                         advancedSearch();
                         break;
                     case 5:
+                        hybridSearch();
+                        break;
+                    case 6:
+                        similarMovies();
+                        break;
+                    case 7:
                         running = false;
                         System.out.println("Goodbye!");
                         break;
@@ -102,10 +130,50 @@ public class MovieSearchApp {
         System.out.println("2. Basic Keyword Search");
         System.out.println("3. Enhanced Search (with filters)");
         System.out.println("4. Advanced Search (fuzzy, expansion, facets, pagination)");
-        System.out.println("5. Exit");
+        System.out.println("5. Hybrid Search (keywords + semantic similarity)");
+        System.out.println("6. Similar Movies (by IMDB ID)");
+        System.out.println("7. Exit");
         System.out.println();
     }
 
+    /**
+     * Opens the index left by a previous run if it was built from the current
+     * dataset with the current index settings; rebuilds it (with the same
+     * record limit) if the dataset or the settings changed.
+     */
+    private void openExistingIndex() throws IOException {
+        long start = System.nanoTime();
+        DatasetFingerprint indexed = DatasetFingerprint.fromIndex(indexPath);
+        if (indexed == null) {
+            System.out.println("No valid index found at " + indexPath 
+                + ". Please build the index first (option 1).");
+            return;
+        }
+        
+        if (!Files.exists(dataPath)) {
+            System.out.println("Dataset " + dataPath + " not found; using existing index as is.");
+        } else {
+            IndexSettings settings = IndexSettings.fromSystemProperties(1);
+            IndexSettings indexedSettings = IndexSettings.fromIndex(indexPath);
+            if (!settings.equals(indexedSettings)) {
+                System.out.println("Index settings changed since the index was built (" + indexedSettings
+                    + ", now " + settings + "); rebuilding...");
+                buildIndex(indexed.getMaxRecords());
+                return;
+            }
+            DatasetFingerprint current = DatasetFingerprint.compute(dataPath, indexed.getMaxRecords(), indexed);
+            if (!current.sameSource(indexed)) {
+                System.out.println("Dataset changed since the index was built; rebuilding...");
+                buildIndex(indexed.getMaxRecords());
+                return;
+            }
+        }
+        
+        openSearchers();
+        System.out.println(String.format("Opened existing index (%d documents) in %.1f ms.", 
+            indexed.getDocuments(), (System.nanoTime() - start) / 1_000_000.0));
+    }
+
     /**
      * Builds or rebuilds the Lucene index from the JSONL file.
      */
@@ -118,15 +186,23 @@ public class MovieSearchApp {
             maxRecords = DEFAULT_MAX_RECORDS;
         }
         
+        buildIndex(maxRecords);
+    }
+
+    /**
+     * Builds the index from the first {@code maxRecords} movies and reopens the searchers.
+     */
+    private void buildIndex(int maxRecords) throws IOException {
         System.out.println("Reading movies from: " + dataPath);
         JsonlReader reader = new JsonlReader();
         List<Movie> movies = reader.readMovies(dataPath, maxRecords);
+        DatasetFingerprint fingerprint = DatasetFingerprint.compute(dataPath, maxRecords);
         
         System.out.println("Found " + movies.size() + " movies.");
         System.out.println("Creating index at: " + indexPath);
         
         MovieIndexer indexer = new MovieIndexer(indexPath);
-        indexer.createIndex(movies);
+        indexer.createIndex(movies, fingerprint);
         indexer.close();
         
         // Close existing searcher if it exists
@@ -144,6 +220,13 @@ public class MovieSearchApp {
                 // Ignore
             }
         }
+        if (recommender != null) {
+            try {
+                recommender.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
         
         // Small delay to ensure file locks are released (Windows issue)
         try {
@@ -152,13 +235,29 @@ public class MovieSearchApp {
             // Ignore
         }
         
-        // Create new searcher with fresh index
-        searcher = new MovieSearcher(indexPath);
-        enhancedSearcher = new EnhancedSearcher(indexPath);
-        
+        openSearchers();
         System.out.println("Index built successfully!");
     }
 
+    /**
+     * Opens the searchers over the index, warmed up with recent queries.
+     */
+    private void openSearchers() throws IOException {
+        if (queryLog == null) {
+            queryLog = QueryLog.forIndex(indexPath);
+            slowQueryLog = SlowQueryLog.forIndex(indexPath);
+        }
+        DirectoryConfig directoryConfig = DirectoryConfig.fromSystemProperties();
+        searcher = new MovieSearcher(indexPath, directoryConfig, queryLog);
+        enhancedSearcher = new EnhancedSearcher(indexPath, directoryConfig, queryLog);
+        recommender = new MovieRecommender(indexPath);
+        if (slowQueryLog != null) {
+            searcher.setSlowQueryLog(slowQueryLog);
+            enhancedSearcher.setSlowQueryLog(slowQueryLog);
+        }
+        System.out.println(searcher.getWarmer());
+    }
+
     /**
      * Performs a basic keyword search.
      */
@@ -252,6 +351,56 @@ public class MovieSearchApp {
         displayPaginatedResults(searchResults, enhancedSearcher);
     }
 
+    /**
+     * Performs hybrid search that fuses keyword (BM25) and dense-vector (kNN) rankings.
+     */
+    private void hybridSearch() throws Exception {
+        if (enhancedSearcher == null) {
+            System.out.println("Index not found. Please build the index first (option 1).");
+            return;
+        }
+        
+        System.out.println("\n--- Hybrid Search ---");
+        System.out.println("Describe what you are looking for, e.g. 'movies about a heist in space'");
+        System.out.println();
+        String query = getStringInput("Enter search query: ");
+        
+        int maxResults = 50; // Get more results for pagination
+        long start = System.nanoTime();
+        SearchResults searchResults = enhancedSearcher.performHybridSearch(query, maxResults);
+        double elapsedMillis = (System.nanoTime() - start) / 1_000_000.0;
+        
+        System.out.println(String.format("\nFound %d fused results in %.1f ms.", 
+            searchResults.getResults().size(), elapsedMillis));
+        
+        displayPaginatedResults(searchResults, enhancedSearcher);
+    }
+
+    /**
+     * Recommends movies similar to a given movie ("more like this").
+     */
+    private void similarMovies() throws Exception {
+        if (recommender == null) {
+            System.out.println("Index not found. Please build the index first (option 1).");
+            return;
+        }
+        
+        System.out.println("\n--- Similar Movies ---");
+        String imdbId = getStringInput("Enter IMDB ID (e.g. tt0114709): ");
+        int maxResults = getIntInput("Maximum number of results (default 10): ");
+        if (maxResults <= 0) {
+            maxResults = 10;
+        }
+        
+        long start = System.nanoTime();
+        List<SearchResult> results = recommender.recommend(imdbId, maxResults);
+        double elapsedMillis = (System.nanoTime() - start) / 1_000_000.0;
+        
+        displayResults(results);
+        System.out.println(String.format("\n(%.1f ms, query cache hits: %d, misses: %d)", 
+            elapsedMillis, recommender.getCacheHits(), recommender.getCacheMisses()));
+    }
+
     /**
      * Displays paginated results with faceted search options.
      */
@@ -408,6 +557,14 @@ public class MovieSearchApp {
      * Closes resources.
      */
     private void close() {
+        // Queued slow queries are rewritten against the searchers' readers
+        if (slowQueryLog != null) {
+            try {
+                slowQueryLog.close();
+            } catch (IOException e) {
+                System.err.println("Error closing slow query log: " + e.getMessage());
+            }
+        }
         if (searcher != null) {
             try {
                 searcher.close();
@@ -422,6 +579,20 @@ public class MovieSearchApp {
                 System.err.println("Error closing enhanced searcher: " + e.getMessage());
             }
         }
+        if (recommender != null) {
+            try {
+                recommender.close();
+            } catch (IOException e) {
+                System.err.println("Error closing recommender: " + e.getMessage());
+            }
+        }
+        if (queryLog != null) {
+            try {
+                queryLog.close();
+            } catch (IOException e) {
+                System.err.println("Error closing query log: " + e.getMessage());
+            }
+        }
         scanner.close();
     }
 }
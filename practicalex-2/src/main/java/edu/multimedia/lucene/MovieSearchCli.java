@@ -0,0 +1,498 @@
+package edu.multimedia.lucene;
+
+import com.google.gson.stream.JsonWriter;
+import edu.multimedia.lucene.index.DatasetFingerprint;
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.IndexSettings;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.ShardedIndexer;
+import edu.multimedia.lucene.index.StorageProfile;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.search.EnhancedSearcher;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.SearchResult;
+import edu.multimedia.lucene.search.SearchResults;
+import edu.multimedia.lucene.search.ShardedSearcher;
+import edu.multimedia.lucene.util.JsonlReader;
+import edu.multimedia.lucene.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-interactive command line interface for scripted runs (cron, perf jobs).
+ * Results go to standard output as JSON (one object per line); progress and
+ * diagnostics go to standard error. The exit status is 0 on success, 1 on
+ * errors and 2 on invalid usage.
+ *
+ * <pre>
+ * index  [--data file] [--index dir] [--max-records n] [--compression speed|size]
+ *        [--overview stored|external] [--shards n] [--force]
+ * search [--index dir] [--mode m] [--n n] [--min-rating r] [--max-rating r]
+ *        [--min-year y] [--max-year y] &lt;query&gt;
+ * batch  [--index dir] [--mode m] [--n n] &lt;queryFile&gt;
+ * bench  [--index dir] [--mode m] [--n n] [--rounds r] [--threads t] &lt;queryFile&gt;
+ * export [--index dir] [--fields f1,f2] [--out file] &lt;query&gt;
+ * </pre>
+ * Modes: basic (default), filtered, advanced, hybrid. Query files contain
+ * one query per line; blank lines and lines starting with '#' are skipped.
+ * A sharded index (built with --shards n, n &gt; 1) supports the basic mode only
+ * and cannot be exported.
+ */
+public class MovieSearchCli {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String DEFAULT_DATA_PATH = "data/movie_dataset.jsonl";
+    private static final String DEFAULT_INDEX_PATH = "index";
+    private static final int DEFAULT_MAX_RESULTS = 10;
+    private static final int DEFAULT_BENCH_ROUNDS = 5;
+
+    private static final List<String> COMMANDS = Arrays.asList("index", "search", "batch", "bench", "export");
+
+    /**
+     * Thrown for invalid command lines.
+     */
+    static class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    private final PrintStream out;
+    private final Map<String, String> options = new HashMap<>();
+    private final List<String> arguments = new ArrayList<>();
+    private MovieSearcher searcher;
+    private EnhancedSearcher enhancedSearcher;
+    private ShardedSearcher shardedSearcher;
+
+    private MovieSearchCli(PrintStream out) {
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        // Keep standard output for results; library progress messages go to standard error
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        System.exit(new MovieSearchCli(stdout).run(args));
+    }
+
+    /**
+     * Checks whether the first argument is a CLI command.
+     */
+    public static boolean isCommand(String argument) {
+        return COMMANDS.contains(argument);
+    }
+
+    private int run(String[] args) {
+        try {
+            if (args.length == 0 || !isCommand(args[0])) {
+                throw new UsageException(args.length == 0 ? "Missing command" : "Unknown command: " + args[0]);
+            }
+            parseArguments(args);
+            switch (args[0]) {
+                case "index":
+                    index();
+                    break;
+                case "search":
+                    search();
+                    break;
+                case "batch":
+                    batch();
+                    break;
+                case "bench":
+                    bench();
+                    break;
+                default:
+                    export();
+                    break;
+            }
+            out.flush();
+            return EXIT_OK;
+        } catch (UsageException e) {
+            System.err.println("Usage error: " + e.getMessage());
+            System.err.println("Commands: " + String.join(", ", COMMANDS)
+                + " (see MovieSearchCli documentation for options)");
+            return EXIT_USAGE;
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_ERROR;
+        } finally {
+            close();
+        }
+    }
+
+    private void parseArguments(String[] args) throws UsageException {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--force")) {
+                options.put("force", "true");
+            } else if (args[i].startsWith("--")) {
+                if (i + 1 >= args.length) {
+                    throw new UsageException("Missing value for " + args[i]);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+    }
+
+    /**
+     * Builds the index unless it is already up to date with the dataset.
+     */
+    private void index() throws Exception {
+        Path dataPath = Paths.get(option("data", DEFAULT_DATA_PATH));
+        Path indexPath = indexPath();
+        int maxRecords = intOption("max-records", 0);
+        int shards = intOption("shards", ShardedIndexer.shardCountFromSystemProperties());
+        if (shards < 1) {
+            throw new UsageException("Invalid --shards: " + shards);
+        }
+        // A sharded index is validated through its first shard
+        Path checkedPath = shards > 1 ? ShardedIndexer.shardPath(indexPath, 0) : indexPath;
+
+        StorageProfile profile = StorageProfile.parse(
+            option("compression", System.getProperty(StorageProfile.PROPERTY_COMPRESSION, "speed")),
+            option("overview", System.getProperty(StorageProfile.PROPERTY_OVERVIEW, "stored")));
+
+        IndexSettings settings = new IndexSettings(
+            Boolean.getBoolean(MovieIndexer.PROPERTY_SUBFIELDS), profile, shards);
+
+        long start = System.nanoTime();
+        DatasetFingerprint indexed = DatasetFingerprint.fromIndex(checkedPath);
+        DatasetFingerprint fingerprint = DatasetFingerprint.compute(dataPath, maxRecords, indexed);
+        boolean rebuilt = options.containsKey("force") || !fingerprint.sameSource(indexed)
+            || !settings.equals(IndexSettings.fromIndex(checkedPath))
+            || ShardedIndexer.listShards(indexPath).size() != (shards > 1 ? shards : 0);
+        if (rebuilt) {
+            // Streamed from the file: the dataset may not fit on the heap
+            Iterable<Movie> movies = new JsonlReader().streamMovies(dataPath, maxRecords);
+            if (shards > 1) {
+                new ShardedIndexer(indexPath, shards, profile).createIndex(movies, fingerprint);
+            } else {
+                ShardedIndexer.deleteShards(indexPath);
+                MovieIndexer indexer = new MovieIndexer(indexPath, profile);
+                try {
+                    indexer.createIndex(movies, fingerprint);
+                } finally {
+                    indexer.close();
+                }
+            }
+        }
+        int documents = 0;
+        if (shards > 1) {
+            for (Path shard : ShardedIndexer.listShards(indexPath)) {
+                documents += DatasetFingerprint.fromIndex(shard).getDocuments();
+            }
+        } else {
+            documents = DatasetFingerprint.fromIndex(indexPath).getDocuments();
+        }
+
+        JsonWriter json = jsonWriter();
+        json.beginObject();
+        json.name("command").value("index");
+        json.name("index").value(indexPath.toString());
+        json.name("rebuilt").value(rebuilt);
+        json.name("documents").value(documents);
+        json.name("storageProfile").value(profile.toString());
+        json.name("shards").value(shards);
+        json.name("tookMillis").value(elapsedMillis(start));
+        json.endObject();
+        endLine(json);
+    }
+
+    private void search() throws Exception {
+        if (arguments.size() != 1) {
+            throw new UsageException("search expects exactly one query");
+        }
+        JsonWriter json = jsonWriter();
+        writeSearch(json, arguments.get(0));
+        endLine(json);
+    }
+
+    /**
+     * Runs every query of a file and prints one result object per query.
+     */
+    private void batch() throws Exception {
+        List<String> queries = readQueries();
+        JsonWriter json = jsonWriter();
+        for (String query : queries) {
+            writeSearch(json, query);
+            endLine(json);
+        }
+    }
+
+    /**
+     * Replays a query file for a number of rounds (after one warm-up round)
+     * and prints throughput and latency percentiles.
+     */
+    private void bench() throws Exception {
+        List<String> queries = readQueries();
+        int rounds = intOption("rounds", DEFAULT_BENCH_ROUNDS);
+        int threads = intOption("threads", 1);
+        int maxResults = intOption("n", DEFAULT_MAX_RESULTS);
+        String mode = option("mode", "basic");
+        if (rounds < 1) {
+            throw new UsageException("Invalid --rounds: " + rounds);
+        }
+        if (threads < 1) {
+            throw new UsageException("Invalid --threads: " + threads);
+        }
+
+        for (String query : queries) {
+            execute(mode, query, maxResults); // Warm-up round
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicInteger next = new AtomicInteger();
+        int requests = rounds * queries.size();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                        long queryStart = System.nanoTime();
+                        execute(mode, queries.get(i % queries.size()), maxResults);
+                        latencies.record(System.nanoTime() - queryStart);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        double totalMillis = elapsedMillis(start);
+
+        JsonWriter json = jsonWriter();
+        json.beginObject();
+        json.name("command").value("bench");
+        json.name("mode").value(mode);
+        json.name("queries").value(queries.size());
+        json.name("rounds").value(rounds);
+        json.name("threads").value(threads);
+        json.name("requests").value(requests);
+        json.name("totalMillis").value(totalMillis);
+        json.name("qps").value(requests / (totalMillis / 1000.0));
+        json.name("p50Millis").value(latencies.percentile(0.50) / 1e6);
+        json.name("p99Millis").value(latencies.percentile(0.99) / 1e6);
+        json.name("maxMillis").value(latencies.getMax() / 1e6);
+        json.endObject();
+        endLine(json);
+    }
+
+    /**
+     * Streams all matches of a query as NDJSON to standard output or a file.
+     */
+    private void export() throws Exception {
+        if (arguments.size() != 1) {
+            throw new UsageException("export expects exactly one query");
+        }
+        if (isSharded()) {
+            throw new UsageException("export is not supported on a sharded index");
+        }
+        List<String> fields = options.containsKey("fields")
+            ? Arrays.asList(options.get("fields").split("\\s*,\\s*"))
+            : null;
+
+        long start = System.nanoTime();
+        long count;
+        if (options.containsKey("out")) {
+            try (OutputStream file = Files.newOutputStream(Paths.get(options.get("out")))) {
+                count = searcher().export(arguments.get(0), fields, file);
+            }
+        } else {
+            count = searcher().export(arguments.get(0), fields, out);
+        }
+        System.err.println(String.format("Exported %d movies in %.1f ms.", count, elapsedMillis(start)));
+    }
+
+    /**
+     * Runs a query and writes it with its results and timing.
+     */
+    private void writeSearch(JsonWriter json, String query) throws Exception {
+        String mode = option("mode", "basic");
+        long start = System.nanoTime();
+        SearchResults results = execute(mode, query, intOption("n", DEFAULT_MAX_RESULTS));
+        double tookMillis = elapsedMillis(start);
+
+        json.beginObject();
+        json.name("query").value(query);
+        json.name("mode").value(mode);
+        json.name("count").value(results.getResults().size());
+        if (results.getTotalHits() >= 0) {
+            json.name("totalHits").value(results.getTotalHits());
+        }
+        json.name("tookMillis").value(tookMillis);
+        json.name("results").beginArray();
+        for (SearchResult result : results.getResults()) {
+            result.writeTo(json);
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    /**
+     * Runs a query through the searcher path of the given mode.
+     *
+     * @return The results (total hits -1 if the mode does not count them)
+     */
+    private SearchResults execute(String mode, String query, int maxResults) throws Exception {
+        if (isSharded()) {
+            if (!mode.equals("basic")) {
+                throw new UsageException("Mode " + mode + " is not supported on a sharded index (basic only)");
+            }
+            return new SearchResults(shardedSearcher().basicSearch(query, maxResults), -1);
+        }
+        switch (mode) {
+            case "basic": {
+                List<SearchResult> results = searcher().basicSearch(query, maxResults);
+                return new SearchResults(results, -1);
+            }
+            case "filtered": {
+                List<SearchResult> results = searcher().enhancedSearch(query,
+                    doubleOption("min-rating"), doubleOption("max-rating"),
+                    integerOption("min-year"), integerOption("max-year"), maxResults);
+                return new SearchResults(results, -1);
+            }
+            case "advanced":
+                return enhancedSearcher().performSearch(query, maxResults);
+            case "hybrid":
+                return enhancedSearcher().performHybridSearch(query, maxResults);
+            default:
+                throw new UsageException("Unknown mode: " + mode + " (basic, filtered, advanced, hybrid)");
+        }
+    }
+
+    private synchronized MovieSearcher searcher() throws IOException {
+        if (searcher == null) {
+            searcher = new MovieSearcher(indexPath(), DirectoryConfig.fromSystemProperties());
+        }
+        return searcher;
+    }
+
+    private synchronized ShardedSearcher shardedSearcher() throws IOException {
+        if (shardedSearcher == null) {
+            shardedSearcher = new ShardedSearcher(indexPath(), DirectoryConfig.fromSystemProperties());
+        }
+        return shardedSearcher;
+    }
+
+    private synchronized boolean isSharded() throws IOException {
+        return shardedSearcher != null || !ShardedIndexer.listShards(indexPath()).isEmpty();
+    }
+
+    private synchronized EnhancedSearcher enhancedSearcher() throws IOException {
+        if (enhancedSearcher == null) {
+            enhancedSearcher = new EnhancedSearcher(indexPath(), DirectoryConfig.fromSystemProperties());
+        }
+        return enhancedSearcher;
+    }
+
+    private Path indexPath() {
+        return Paths.get(option("index", DEFAULT_INDEX_PATH));
+    }
+
+    private List<String> readQueries() throws UsageException, IOException {
+        if (arguments.size() != 1) {
+            throw new UsageException("Expected exactly one query file");
+        }
+        List<String> queries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(arguments.get(0)), StandardCharsets.UTF_8)) {
+            String query = line.trim();
+            if (!query.isEmpty() && !query.startsWith("#")) {
+                queries.add(query);
+            }
+        }
+        if (queries.isEmpty()) {
+            throw new UsageException("Query file contains no queries: " + arguments.get(0));
+        }
+        return queries;
+    }
+
+    private JsonWriter jsonWriter() {
+        JsonWriter json = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        json.setLenient(true); // One top-level object per line
+        return json;
+    }
+
+    private void endLine(JsonWriter json) throws IOException {
+        json.flush();
+        out.println();
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) throws UsageException {
+        Integer value = integerOption(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private Integer integerOption(String name) throws UsageException {
+        String value = options.get(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new UsageException("Invalid --" + name + ": " + value);
+        }
+    }
+
+    private Double doubleOption(String name) throws UsageException {
+        String value = options.get(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new UsageException("Invalid --" + name + ": " + value);
+        }
+    }
+
+    private static double elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000.0;
+    }
+
+    private void close() {
+        try {
+            if (searcher != null) {
+                searcher.close();
+            }
+            if (enhancedSearcher != null) {
+                enhancedSearcher.close();
+            }
+            if (shardedSearcher != null) {
+                shardedSearcher.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing index: " + e.getMessage());
+        }
+    }
+}
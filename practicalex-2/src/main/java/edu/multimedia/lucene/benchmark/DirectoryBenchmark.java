@@ -0,0 +1,97 @@
+package edu.multimedia.lucene.benchmark;
+
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.search.MovieSearcher;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares first-query and steady-state latency of the directory implementations.
+ * Each configuration runs in a fresh JVM so the first query really is the first
+ * one against that directory (for truly cold numbers, drop the OS page cache
+ * between runs, e.g. {@code echo 3 > /proc/sys/vm/drop_caches} as root).
+ *
+ * Usage: DirectoryBenchmark [indexPath] [type[:preload]]
+ * Without a configuration, all standard configurations are run one after another.
+ */
+public class DirectoryBenchmark {
+    private static final String[] CONFIGURATIONS = {
+        "auto", "nio", "mmap:none", "mmap", "mmap:all", "heap"
+    };
+    private static final String[] QUERIES = {
+        "star wars", "love", "war", "tom hanks", "murder mystery", "comedy family",
+        "space", "detective", "christmas", "vampire", "high school", "robert de niro"
+    };
+    private static final int STEADY_STATE_ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        String indexPath = args.length > 0 ? args[0] : "index";
+        if (args.length > 1) {
+            run(Paths.get(indexPath), args[1]);
+            return;
+        }
+
+        // Run every configuration in its own JVM
+        String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+        for (String configuration : CONFIGURATIONS) {
+            Process process = new ProcessBuilder(javaBin, "-cp", classpath,
+                DirectoryBenchmark.class.getName(), indexPath, configuration)
+                .redirectErrorStream(true)
+                .start();
+            try (BufferedReader output = new BufferedReader(
+                    new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    System.out.println(line);
+                }
+            }
+            if (process.waitFor() != 0) {
+                System.err.println("Configuration " + configuration + " failed.");
+            }
+        }
+    }
+
+    private static void run(Path indexPath, String configuration) throws Exception {
+        String[] parts = configuration.split(":", 2);
+        DirectoryConfig config = DirectoryConfig.parse(parts[0], parts.length > 1 ? parts[1] : null);
+
+        long openStart = System.nanoTime();
+        MovieSearcher searcher = new MovieSearcher(indexPath, config);
+        double openMillis = (System.nanoTime() - openStart) / 1_000_000.0;
+        searcher.setSnippetsEnabled(false);
+
+        try {
+            long start = System.nanoTime();
+            searcher.basicSearch(QUERIES[0], 10);
+            double firstQueryMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+            List<Long> latencies = new ArrayList<>();
+            for (int round = 0; round < STEADY_STATE_ROUNDS; round++) {
+                for (String query : QUERIES) {
+                    start = System.nanoTime();
+                    searcher.basicSearch(query, 10);
+                    latencies.add(System.nanoTime() - start);
+                }
+            }
+            // Steady state: second half of the rounds (after JIT warm-up)
+            List<Long> steady = latencies.subList(latencies.size() / 2, latencies.size());
+            Collections.sort(steady);
+
+            System.out.println(searcher.getDirectoryReport());
+            System.out.println(String.format(
+                "  open %.1f ms | first query %.2f ms | steady p50 %.3f ms, p99 %.3f ms",
+                openMillis, firstQueryMillis,
+                steady.get(steady.size() / 2) / 1_000_000.0,
+                steady.get((int) (steady.size() * 0.99)) / 1_000_000.0));
+        } finally {
+            searcher.close();
+        }
+    }
+}
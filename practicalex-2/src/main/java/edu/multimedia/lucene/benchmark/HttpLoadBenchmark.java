@@ -0,0 +1,115 @@
+package edu.multimedia.lucene.benchmark;
+
+import edu.multimedia.lucene.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator for the search server: each client thread sends
+ * requests back to back over a keep-alive connection (the JDK reuses the
+ * connection as long as every response body is read completely) and records
+ * the latency of each request.
+ *
+ * Usage: HttpLoadBenchmark [baseUrl] [clients] [seconds] [endpoint]
+ * e.g. HttpLoadBenchmark http://localhost:8080 16 30 /search
+ */
+public class HttpLoadBenchmark {
+    private static final String[] QUERIES = {
+        "star wars", "love", "war", "tom hanks", "murder mystery", "comedy family",
+        "space", "detective", "christmas", "vampire", "high school", "robert de niro"
+    };
+    private static final int WARMUP_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        String endpoint = args.length > 3 ? args[3] : "/search";
+
+        System.out.println("Warming up for " + WARMUP_SECONDS + " s...");
+        run(baseUrl + endpoint, clients, WARMUP_SECONDS);
+
+        System.out.println("Running " + clients + " clients against " + baseUrl + endpoint
+            + " for " + seconds + " s...");
+        run(baseUrl + endpoint, clients, seconds).print(seconds);
+    }
+
+    private static Result run(String url, int clients, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int client = 0; client < clients; client++) {
+            int offset = client;
+            Thread thread = new Thread(() -> {
+                byte[] buffer = new byte[8192];
+                for (int i = offset; System.nanoTime() < deadline; i++) {
+                    String query = QUERIES[i % QUERIES.length];
+                    long start = System.nanoTime();
+                    try {
+                        if (get(url + "?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8), buffer) != 200) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies.record(System.nanoTime() - start);
+                }
+            }, "load-client-" + client);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new Result(latencies, errors.get());
+    }
+
+    /**
+     * Sends a GET request and reads the response body completely, so the
+     * connection can be reused.
+     */
+    private static int get(String url, byte[] buffer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                while (in.read(buffer) != -1) {
+                    // Drain the body
+                }
+            }
+        }
+        return status;
+    }
+
+    private static class Result {
+        private final LatencyHistogram latencies;
+        private final long errors;
+
+        Result(LatencyHistogram latencies, long errors) {
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        void print(int seconds) {
+            if (latencies.getCount() == 0) {
+                System.out.println("No requests completed.");
+                return;
+            }
+            System.out.println(String.format(
+                "%d requests (%d errors) | %.0f req/s | p50 %.2f ms | p99 %.2f ms | max %.2f ms",
+                latencies.getCount(), errors, latencies.getCount() / (double) seconds,
+                latencies.percentile(0.50) / 1e6, latencies.percentile(0.99) / 1e6,
+                latencies.getMax() / 1e6));
+        }
+    }
+}
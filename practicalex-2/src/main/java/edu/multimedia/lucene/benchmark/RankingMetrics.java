@@ -0,0 +1,114 @@
+package edu.multimedia.lucene.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranking quality metrics for one query, as selected in
+ * {@code benchmark/03_Evaluation_Metrics_Selection.md}.
+ *
+ * Judgments use the graded scale of the relevance assessment
+ * (0 = not relevant, 1 = partially relevant, 2 = highly relevant).
+ * nDCG uses the grades directly; the binary metrics (P@k, recall, AP)
+ * count a movie as relevant from {@link #RELEVANT_GRADE} up.
+ * Unjudged movies count as not relevant.
+ */
+public final class RankingMetrics {
+    public static final int RELEVANT_GRADE = 2;
+
+    private RankingMetrics() {
+    }
+
+    /**
+     * Gets the number of relevant movies among the judgments.
+     */
+    public static int relevantCount(Map<String, Integer> judgments) {
+        int count = 0;
+        for (int grade : judgments.values()) {
+            if (grade >= RELEVANT_GRADE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Precision of the top k results (missing results count as not relevant).
+     */
+    public static double precisionAt(List<String> ranking, Map<String, Integer> judgments, int k) {
+        int relevant = 0;
+        for (int i = 0; i < Math.min(k, ranking.size()); i++) {
+            if (isRelevant(ranking.get(i), judgments)) {
+                relevant++;
+            }
+        }
+        return relevant / (double) k;
+    }
+
+    /**
+     * Fraction of the relevant movies found anywhere in the ranking.
+     */
+    public static double recall(List<String> ranking, Map<String, Integer> judgments) {
+        int total = relevantCount(judgments);
+        if (total == 0) {
+            return 0.0;
+        }
+        int found = 0;
+        for (String id : ranking) {
+            if (isRelevant(id, judgments)) {
+                found++;
+            }
+        }
+        return found / (double) total;
+    }
+
+    /**
+     * Average of the precision at the rank of every relevant movie found,
+     * divided by all relevant movies (so the ones not found count as zero).
+     */
+    public static double averagePrecision(List<String> ranking, Map<String, Integer> judgments) {
+        int total = relevantCount(judgments);
+        if (total == 0) {
+            return 0.0;
+        }
+        int found = 0;
+        double sum = 0.0;
+        for (int i = 0; i < ranking.size(); i++) {
+            if (isRelevant(ranking.get(i), judgments)) {
+                found++;
+                sum += found / (double) (i + 1);
+            }
+        }
+        return sum / total;
+    }
+
+    /**
+     * Normalized discounted cumulative gain of the top k results:
+     * DCG = sum of grade / log2(position + 1), divided by the DCG of the
+     * ideal ordering of all judgments.
+     */
+    public static double ndcgAt(List<String> ranking, Map<String, Integer> judgments, int k) {
+        double dcg = 0.0;
+        for (int i = 0; i < Math.min(k, ranking.size()); i++) {
+            dcg += judgments.getOrDefault(ranking.get(i), 0) / log2(i + 2);
+        }
+
+        List<Integer> ideal = new ArrayList<>(judgments.values());
+        ideal.sort(Collections.reverseOrder());
+        double idealDcg = 0.0;
+        for (int i = 0; i < Math.min(k, ideal.size()); i++) {
+            idealDcg += ideal.get(i) / log2(i + 2);
+        }
+        return idealDcg > 0 ? dcg / idealDcg : 0.0;
+    }
+
+    private static boolean isRelevant(String id, Map<String, Integer> judgments) {
+        return judgments.getOrDefault(id, 0) >= RELEVANT_GRADE;
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+}
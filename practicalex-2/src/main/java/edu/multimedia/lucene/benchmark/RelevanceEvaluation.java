@@ -0,0 +1,264 @@
+package edu.multimedia.lucene.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.search.EnhancedSearcher;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.SearchResult;
+import edu.multimedia.lucene.util.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the Lucene searchers against the generated benchmark queries and
+ * their relevance judgments, reporting quality (P@10, recall, MAP, nDCG@10)
+ * and speed (latency percentiles, throughput) in one report.
+ * The queries of each system run concurrently on a fixed thread pool, after
+ * one unmeasured warm-up pass.
+ *
+ * Queries file (JSONL), one query per line; "type", "difficulty" and inline
+ * "judgments" are optional:
+ * <pre>{"id": "q01", "type": "keyword", "difficulty": "easy", "query": "star wars",
+ *  "judgments": {"tt0076759": 2}}</pre>
+ * Judgments file (JSONL), one assessment per line, in the 0-2 scale:
+ * <pre>{"query_id": "q01", "imdb_id": "tt0076759", "relevance": 2}</pre>
+ *
+ * Usage: RelevanceEvaluation queries.jsonl [judgments.jsonl|-] [indexPath] [threads] [systems]
+ * where systems is a comma-separated list of basic, enhanced and hybrid.
+ */
+public class RelevanceEvaluation {
+    private static final int K = 10;
+    /** Results retrieved per query, for recall and MAP. */
+    private static final int DEPTH = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: RelevanceEvaluation queries.jsonl [judgments.jsonl|-] "
+                + "[indexPath] [threads] [systems]");
+            System.exit(2);
+        }
+        Path queriesPath = Paths.get(args[0]);
+        String judgmentsPath = args.length > 1 ? args[1] : "-";
+        Path indexPath = Paths.get(args.length > 2 ? args[2] : "index");
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+            : Runtime.getRuntime().availableProcessors();
+        String[] systems = (args.length > 4 ? args[4] : "basic,enhanced").split(",");
+
+        List<EvaluationQuery> queries = loadQueries(queriesPath);
+        if (!judgmentsPath.equals("-")) {
+            loadJudgments(Paths.get(judgmentsPath), queries);
+        }
+        List<EvaluationQuery> judged = new ArrayList<>();
+        for (EvaluationQuery query : queries) {
+            if (RankingMetrics.relevantCount(query.judgments) > 0) {
+                judged.add(query);
+            }
+        }
+        System.out.println("Loaded " + queries.size() + " queries, " + judged.size()
+            + " with at least one relevant movie (the others are skipped).");
+        if (judged.isEmpty()) {
+            return;
+        }
+
+        DirectoryConfig config = DirectoryConfig.fromSystemProperties();
+        MovieSearcher movieSearcher = new MovieSearcher(indexPath, config);
+        movieSearcher.setSnippetsEnabled(false);
+        EnhancedSearcher enhancedSearcher = new EnhancedSearcher(indexPath, config);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (String system : systems) {
+                Ranker ranker = ranker(system.trim(), movieSearcher, enhancedSearcher);
+                run(ranker, judged, executor); // Warm-up
+                long start = System.nanoTime();
+                List<QueryRun> runs = run(ranker, judged, executor);
+                double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                report(system.trim(), threads, runs, seconds);
+            }
+        } finally {
+            executor.shutdown();
+            movieSearcher.close();
+            enhancedSearcher.close();
+        }
+    }
+
+    /**
+     * Ranked IMDB IDs of a query.
+     */
+    private interface Ranker {
+        List<String> rank(String queryText) throws Exception;
+    }
+
+    private static Ranker ranker(String system, MovieSearcher movieSearcher,
+                                 EnhancedSearcher enhancedSearcher) {
+        switch (system) {
+            case "basic":
+                return queryText -> ids(movieSearcher.basicSearch(queryText, DEPTH));
+            case "enhanced":
+                return queryText -> ids(enhancedSearcher.performSearch(queryText, DEPTH).getResults());
+            case "hybrid":
+                return queryText -> ids(enhancedSearcher.performHybridSearch(queryText, DEPTH).getResults());
+            default:
+                throw new IllegalArgumentException("Unknown system: " + system);
+        }
+    }
+
+    private static List<String> ids(List<SearchResult> results) {
+        List<String> ids = new ArrayList<>(results.size());
+        for (SearchResult result : results) {
+            ids.add(result.getImdbId());
+        }
+        return ids;
+    }
+
+    private static List<QueryRun> run(Ranker ranker, List<EvaluationQuery> queries,
+                                      ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        List<Future<QueryRun>> futures = new ArrayList<>();
+        for (EvaluationQuery query : queries) {
+            futures.add(executor.submit(() -> {
+                long start = System.nanoTime();
+                List<String> ranking;
+                try {
+                    ranking = ranker.rank(query.text);
+                } catch (Exception e) {
+                    System.err.println("Query " + query.id + " failed: " + e.getMessage());
+                    ranking = Collections.emptyList();
+                }
+                return new QueryRun(query, ranking, System.nanoTime() - start);
+            }));
+        }
+        List<QueryRun> runs = new ArrayList<>(futures.size());
+        for (Future<QueryRun> future : futures) {
+            runs.add(future.get());
+        }
+        return runs;
+    }
+
+    private static void report(String system, int threads, List<QueryRun> runs, double seconds) {
+        System.out.println();
+        System.out.println("System " + system + " (" + runs.size() + " queries, " + threads + " threads)");
+        System.out.println("  all          " + quality(runs));
+
+        // Breakdown by difficulty, if the queries have one
+        Map<String, List<QueryRun>> byDifficulty = new LinkedHashMap<>();
+        for (QueryRun run : runs) {
+            if (run.query.difficulty != null) {
+                byDifficulty.computeIfAbsent(run.query.difficulty, d -> new ArrayList<>()).add(run);
+            }
+        }
+        for (Map.Entry<String, List<QueryRun>> entry : byDifficulty.entrySet()) {
+            System.out.println(String.format("  %-12s %s", entry.getKey(), quality(entry.getValue())));
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (QueryRun run : runs) {
+            latencies.record(run.latencyNanos);
+        }
+        System.out.println(String.format(
+            "  latency p50 %.2f ms | p90 %.2f ms | p99 %.2f ms | max %.2f ms | %.0f queries/s",
+            latencies.percentile(0.50) / 1e6, latencies.percentile(0.90) / 1e6,
+            latencies.percentile(0.99) / 1e6, latencies.getMax() / 1e6, runs.size() / seconds));
+    }
+
+    private static String quality(List<QueryRun> runs) {
+        double precision = 0, recall = 0, averagePrecision = 0, ndcg = 0;
+        for (QueryRun run : runs) {
+            Map<String, Integer> judgments = run.query.judgments;
+            precision += RankingMetrics.precisionAt(run.ranking, judgments, K);
+            recall += RankingMetrics.recall(run.ranking, judgments);
+            averagePrecision += RankingMetrics.averagePrecision(run.ranking, judgments);
+            ndcg += RankingMetrics.ndcgAt(run.ranking, judgments, K);
+        }
+        int n = runs.size();
+        return String.format("(%3d) P@%d %.3f | recall@%d %.3f | MAP %.3f | nDCG@%d %.3f",
+            n, K, precision / n, DEPTH, recall / n, averagePrecision / n, K, ndcg / n);
+    }
+
+    private static List<EvaluationQuery> loadQueries(Path path) throws IOException {
+        List<EvaluationQuery> queries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                EvaluationQuery query = new EvaluationQuery(
+                    json.has("id") ? json.get("id").getAsString() : "q" + (queries.size() + 1),
+                    json.get("query").getAsString(),
+                    json.has("difficulty") ? json.get("difficulty").getAsString() : null);
+                if (json.has("judgments")) {
+                    for (Map.Entry<String, JsonElement> judgment
+                            : json.getAsJsonObject("judgments").entrySet()) {
+                        query.judgments.put(judgment.getKey(), judgment.getValue().getAsInt());
+                    }
+                }
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    private static void loadJudgments(Path path, List<EvaluationQuery> queries) throws IOException {
+        Map<String, EvaluationQuery> byId = new HashMap<>();
+        for (EvaluationQuery query : queries) {
+            byId.put(query.id, query);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                EvaluationQuery query = byId.get(json.get("query_id").getAsString());
+                if (query != null) {
+                    query.judgments.put(json.get("imdb_id").getAsString(), json.get("relevance").getAsInt());
+                }
+            }
+        }
+    }
+
+    private static class EvaluationQuery {
+        final String id;
+        final String text;
+        final String difficulty;
+        /** IMDB ID to relevance grade (0-2). */
+        final Map<String, Integer> judgments = new HashMap<>();
+
+        EvaluationQuery(String id, String text, String difficulty) {
+            this.id = id;
+            this.text = text;
+            this.difficulty = difficulty;
+        }
+    }
+
+    private static class QueryRun {
+        final EvaluationQuery query;
+        final List<String> ranking;
+        final long latencyNanos;
+
+        QueryRun(EvaluationQuery query, List<String> ranking, long latencyNanos) {
+            this.query = query;
+            this.ranking = ranking;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+}
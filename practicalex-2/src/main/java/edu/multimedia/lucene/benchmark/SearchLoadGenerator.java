@@ -0,0 +1,384 @@
+package edu.multimedia.lucene.benchmark;
+
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.search.EnhancedSearcher;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.SearchResult;
+import edu.multimedia.lucene.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process load generator for the searchers, replaying a mix of basic,
+ * filtered, fuzzy and faceted queries, to find the throughput at which
+ * latency breaks its SLO.
+ *
+ * <ul>
+ *   <li>open loop ({@code --mode open}): requests are scheduled at a fixed
+ *       arrival rate, independently of how fast earlier ones complete, and
+ *       latency is measured from the scheduled start. When the searcher falls
+ *       behind, the queueing delay is included, so the numbers do not suffer
+ *       from coordinated omission.</li>
+ *   <li>closed loop ({@code --mode closed}): a fixed number of clients send
+ *       requests back to back (paced at rate / clients if a rate is given).
+ *       Latencies are corrected for coordinated omission by back-filling the
+ *       requests a stalled client did not send, using the pacing interval,
+ *       or the warm-up median without a rate.</li>
+ * </ul>
+ * Several comma-separated rates run one after another, each with its own
+ * report; {@code --csv} appends one line per run for comparing configurations.
+ *
+ * Usage: SearchLoadGenerator [--index dir] [--mode open|closed] [--rate qps[,qps...]]
+ *        [--threads n] [--clients n] [--seconds s] [--warmup s]
+ *        [--mix basic=40,filtered=30,fuzzy=15,faceted=15] [--slo-ms p99]
+ *        [--label name] [--csv file] [--seed n]
+ */
+public class SearchLoadGenerator {
+    private static final String[] QUERIES = {
+        "star wars", "love", "war", "tom hanks", "murder mystery", "comedy family",
+        "space", "detective", "christmas", "vampire", "high school", "robert de niro"
+    };
+    private static final int MAX_RESULTS = 10;
+    private static final int FACETED_RESULTS = 50;
+    private static final int MIX_SCHEDULE_LENGTH = 1000;
+    private static final String CSV_HEADER =
+        "label,mode,rate,threads,seconds,requests,errors,qps,p50_ms,p99_ms,p999_ms,max_ms,service_p99_ms";
+
+    public enum QueryType { BASIC, FILTERED, FUZZY, FACETED }
+
+    private final MovieSearcher movieSearcher;
+    private final EnhancedSearcher enhancedSearcher;
+    private final QueryType[] mixSchedule;
+
+    public SearchLoadGenerator(MovieSearcher movieSearcher, EnhancedSearcher enhancedSearcher,
+                               Map<QueryType, Integer> mix, long seed) {
+        this.movieSearcher = movieSearcher;
+        this.enhancedSearcher = enhancedSearcher;
+        this.mixSchedule = buildMixSchedule(mix, seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unexpected argument: " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        int cpus = Runtime.getRuntime().availableProcessors();
+        Path indexPath = Paths.get(options.getOrDefault("index", "index"));
+        boolean open = options.getOrDefault("mode", "open").equals("open");
+        String rates = options.getOrDefault("rate", open ? "100" : "0");
+        int threads = Integer.parseInt(options.getOrDefault(open ? "threads" : "clients",
+            String.valueOf(open ? Math.max(16, 4 * cpus) : cpus)));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        double sloMillis = Double.parseDouble(options.getOrDefault("slo-ms", "0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        Map<QueryType, Integer> mix = parseMix(options.getOrDefault("mix",
+            "basic=40,filtered=30,fuzzy=15,faceted=15"));
+        DirectoryConfig config = DirectoryConfig.fromSystemProperties();
+        String label = options.getOrDefault("label", config.toString());
+        Path csv = options.containsKey("csv") ? Paths.get(options.get("csv")) : null;
+
+        // The searchers print hints ("Did you mean ...") to stdout: keep them out of the report
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        MovieSearcher movieSearcher = new MovieSearcher(indexPath, config);
+        movieSearcher.setSnippetsEnabled(false);
+        EnhancedSearcher enhancedSearcher = new EnhancedSearcher(indexPath, config);
+        try {
+            SearchLoadGenerator generator = new SearchLoadGenerator(movieSearcher, enhancedSearcher, mix, seed);
+            for (String rateText : rates.split(",")) {
+                double rate = Double.parseDouble(rateText.trim());
+                if (open && rate <= 0) {
+                    throw new IllegalArgumentException("Open loop needs --rate > 0");
+                }
+                out.println((open ? "Open loop at " + rate + " req/s with " + threads + " threads"
+                    : "Closed loop with " + threads + " clients"
+                        + (rate > 0 ? " at " + rate + " req/s" : ""))
+                    + ", mix " + mix + ", " + label);
+
+                out.println("  warming up for " + warmup + " s...");
+                Result warmupResult = generator.run(open, rate, threads, warmup, 0);
+                long expectedInterval = 0;
+                if (!open) {
+                    expectedInterval = rate > 0 ? (long) (threads * 1e9 / rate)
+                        : warmupResult.service.percentile(0.50);
+                }
+                Result result = generator.run(open, rate, threads, seconds, expectedInterval);
+                result.print(out, sloMillis);
+                if (csv != null) {
+                    appendCsv(csv, label, open ? "open" : "closed", rate, threads, result);
+                }
+            }
+        } finally {
+            movieSearcher.close();
+            enhancedSearcher.close();
+        }
+    }
+
+    /**
+     * Runs the load for a while.
+     *
+     * @param open Open loop (fixed arrival rate) or closed loop (fixed concurrency)
+     * @param rate Requests per second (closed loop: 0 = back to back)
+     * @param threads Worker threads (open loop) or clients (closed loop)
+     * @param seconds Duration
+     * @param expectedInterval Closed loop: interval for coordinated omission correction
+     */
+    public Result run(boolean open, double rate, int threads, int seconds, long expectedInterval)
+            throws InterruptedException {
+        long start = System.nanoTime() + 10_000_000L; // Let all threads start first
+        long deadline = start + seconds * 1_000_000_000L;
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        AtomicLong next = new AtomicLong();
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threadList = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            Runnable loop = open
+                ? () -> openLoop(worker, next, start, interval, deadline)
+                : () -> closedLoop(worker, next, start, interval * threads, expectedInterval, deadline);
+            Thread thread = new Thread(loop, "load-" + t);
+            threadList.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+
+        // Completed requests over the time it took to complete them: in an
+        // overloaded open loop, the backlog drains after the deadline
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Result result = new Result(seconds, elapsed);
+        for (Worker worker : workers) {
+            result.add(worker);
+        }
+        return result;
+    }
+
+    private void openLoop(Worker worker, AtomicLong next, long start, long interval, long deadline) {
+        while (true) {
+            long i = next.getAndIncrement();
+            long intended = start + i * interval;
+            if (intended >= deadline) {
+                return;
+            }
+            waitUntil(intended);
+            long sent = System.nanoTime();
+            execute(i, worker);
+            long done = System.nanoTime();
+            worker.latency.get(mixSchedule[(int) (i % mixSchedule.length)]).record(done - intended);
+            worker.service.record(done - sent);
+        }
+    }
+
+    private void closedLoop(Worker worker, AtomicLong next, long start, long pacing,
+                            long expectedInterval, long deadline) {
+        long intended = start;
+        while (true) {
+            waitUntil(intended);
+            long sent = System.nanoTime();
+            if (sent >= deadline) {
+                return;
+            }
+            long i = next.getAndIncrement();
+            execute(i, worker);
+            long done = System.nanoTime();
+            worker.latency.get(mixSchedule[(int) (i % mixSchedule.length)])
+                .recordCorrected(done - sent, expectedInterval);
+            worker.service.record(done - sent);
+            // A closed-loop client never catches up: the next request waits for this one
+            intended = Math.max(intended + pacing, done);
+        }
+    }
+
+    private void execute(long i, Worker worker) {
+        String query = QUERIES[(int) (i % QUERIES.length)];
+        try {
+            switch (mixSchedule[(int) (i % mixSchedule.length)]) {
+                case BASIC:
+                    movieSearcher.basicSearch(query, MAX_RESULTS);
+                    break;
+                case FILTERED:
+                    movieSearcher.enhancedSearch(query, 6.0, null, 1990, null, MAX_RESULTS);
+                    break;
+                case FUZZY:
+                    enhancedSearcher.performSearch(query.replace(" ", "? ") + "?", MAX_RESULTS);
+                    break;
+                case FACETED:
+                    List<SearchResult> results = enhancedSearcher.performSearch(query, FACETED_RESULTS).getResults();
+                    enhancedSearcher.getFacets(results);
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        } catch (Exception e) {
+            worker.errors++;
+        }
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Spreads the query types over a fixed, shuffled schedule in proportion to
+     * their weights, so every run replays the same sequence.
+     */
+    private static QueryType[] buildMixSchedule(Map<QueryType, Integer> mix, long seed) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Query mix has no weight");
+        }
+        List<QueryType> schedule = new ArrayList<>();
+        for (Map.Entry<QueryType, Integer> entry : mix.entrySet()) {
+            long slots = Math.round(entry.getValue() * (double) MIX_SCHEDULE_LENGTH / total);
+            for (long s = 0; s < slots; s++) {
+                schedule.add(entry.getKey());
+            }
+        }
+        Collections.shuffle(schedule, new Random(seed));
+        return schedule.toArray(new QueryType[0]);
+    }
+
+    private static Map<QueryType, Integer> parseMix(String text) {
+        Map<QueryType, Integer> mix = new EnumMap<>(QueryType.class);
+        for (String part : text.split(",")) {
+            String[] entry = part.split("=", 2);
+            mix.put(QueryType.valueOf(entry[0].trim().toUpperCase()),
+                entry.length > 1 ? Integer.parseInt(entry[1].trim()) : 1);
+        }
+        return mix;
+    }
+
+    private static void appendCsv(Path csv, String label, String mode, double rate, int threads,
+                                  Result result) throws IOException {
+        LatencyHistogram all = result.total();
+        StringBuilder line = new StringBuilder();
+        if (!Files.exists(csv)) {
+            line.append(CSV_HEADER).append('\n');
+        }
+        line.append(String.format("%s,%s,%.1f,%d,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+            label.replace(',', ';'), mode, rate, threads, result.seconds, result.service.getCount(),
+            result.errors, result.qps(), millis(all.percentile(0.50)), millis(all.percentile(0.99)),
+            millis(all.percentile(0.999)), millis(all.getMax()), millis(result.service.percentile(0.99))));
+        Files.write(csv, line.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Histograms of one load thread.
+     */
+    private static class Worker {
+        /** Latency per query type (from the intended start, or corrected). */
+        final Map<QueryType, LatencyHistogram> latency = new EnumMap<>(QueryType.class);
+        /** Time spent in the searcher, uncorrected. */
+        final LatencyHistogram service = new LatencyHistogram();
+        long errors;
+
+        Worker() {
+            for (QueryType type : QueryType.values()) {
+                latency.put(type, new LatencyHistogram());
+            }
+        }
+    }
+
+    /**
+     * Merged histograms of a run.
+     */
+    public static class Result {
+        final int seconds;
+        final double elapsedSeconds;
+        final Map<QueryType, LatencyHistogram> latency = new EnumMap<>(QueryType.class);
+        final LatencyHistogram service = new LatencyHistogram();
+        long errors;
+
+        Result(int seconds, double elapsedSeconds) {
+            this.seconds = seconds;
+            this.elapsedSeconds = elapsedSeconds;
+            for (QueryType type : QueryType.values()) {
+                latency.put(type, new LatencyHistogram());
+            }
+        }
+
+        void add(Worker worker) {
+            for (QueryType type : QueryType.values()) {
+                latency.get(type).add(worker.latency.get(type));
+            }
+            service.add(worker.service);
+            errors += worker.errors;
+        }
+
+        LatencyHistogram total() {
+            LatencyHistogram total = new LatencyHistogram();
+            for (LatencyHistogram histogram : latency.values()) {
+                total.add(histogram);
+            }
+            return total;
+        }
+
+        /**
+         * Completed requests per second.
+         */
+        double qps() {
+            return service.getCount() / elapsedSeconds;
+        }
+
+        void print(PrintStream out, double sloMillis) {
+            out.println(String.format("  %d requests (%d errors) | %.1f req/s completed",
+                service.getCount(), errors, qps()));
+            for (QueryType type : QueryType.values()) {
+                LatencyHistogram histogram = latency.get(type);
+                if (histogram.getCount() > 0) {
+                    out.println(line(type.name().toLowerCase(), histogram));
+                }
+            }
+            LatencyHistogram all = total();
+            out.println(line("all", all));
+            out.println(line("service", service));
+            if (sloMillis > 0) {
+                double p99 = millis(all.percentile(0.99));
+                out.println(String.format("  p99 %.2f ms %s the %.1f ms SLO", p99,
+                    p99 <= sloMillis ? "meets" : "VIOLATES", sloMillis));
+            }
+        }
+
+        private static String line(String name, LatencyHistogram histogram) {
+            return String.format("  %-9s p50 %8.2f ms | p99 %8.2f ms | p999 %8.2f ms | max %8.2f ms",
+                name, millis(histogram.percentile(0.50)), millis(histogram.percentile(0.99)),
+                millis(histogram.percentile(0.999)), millis(histogram.getMax()));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package edu.multimedia.lucene.benchmark;
+
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.OverviewStore;
+import edu.multimedia.lucene.index.StorageProfile;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.util.FileUtil;
+import edu.multimedia.lucene.util.JsonlReader;
+import edu.multimedia.lucene.util.LatencyHistogram;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compares the storage profiles ({@link StorageProfile}): builds the corpus
+ * once per profile and reports the index size (in total, the stored-field
+ * files and the external overview store) and the latency of fetching result
+ * pages: loading the stored fields of random pages of documents plus their
+ * overview, and complete searches with snippets through {@link MovieSearcher}.
+ * The index is read with the directory configured by system properties
+ * (see {@link DirectoryConfig}).
+ *
+ * Usage: StorageBenchmark [source.jsonl] [documents] [rounds]
+ * (more documents than the source has are generated with {@link SyntheticCorpusGenerator})
+ */
+public class StorageBenchmark {
+    private static final String[][] PROFILES = {
+        {"speed", "stored"}, {"size", "stored"}, {"speed", "external"}, {"size", "external"}
+    };
+    private static final String[] QUERIES = {
+        "star wars", "love", "war", "tom hanks", "murder mystery", "comedy family",
+        "space", "detective", "christmas", "vampire", "high school", "robert de niro"
+    };
+    private static final int PAGE_SIZE = 10;
+
+    public static void main(String[] args) throws Exception {
+        Path source = Paths.get(args.length > 0 ? args[0] : "data/movie_dataset.jsonl");
+        long documents = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        // Larger corpora are generated while they are indexed, not kept on the heap
+        List<Movie> sample = new JsonlReader().readMovies(source);
+        Iterable<Movie> movies = sample;
+        if (documents > sample.size()) {
+            movies = new SyntheticCorpusGenerator(sample, SyntheticCorpusGenerator.DEFAULT_SEED)
+                .stream(documents);
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-16s %10s %10s %10s %10s %12s %12s %12s %12s",
+            "profile", "total MB", "stored MB", "store MB", "build s",
+            "fetch p50", "fetch p99", "search p50", "search p99"));
+        for (String[] settings : PROFILES) {
+            StorageProfile profile = StorageProfile.parse(settings[0], settings[1]);
+            Path indexPath = Files.createTempDirectory("movies-storage-");
+            try {
+                long start = System.nanoTime();
+                MovieIndexer indexer = new MovieIndexer(indexPath, profile);
+                try {
+                    indexer.createIndex(movies);
+                } finally {
+                    indexer.close();
+                }
+                double buildSeconds = (System.nanoTime() - start) / 1e9;
+
+                LatencyHistogram fetch = measureFetch(indexPath, rounds);
+                LatencyHistogram search = measureSearch(indexPath, rounds / QUERIES.length + 1);
+                System.out.println(String.format("%-16s %10.2f %10.2f %10.2f %10.1f %12.3f %12.3f %12.3f %12.3f",
+                    profile, megabytes(indexPath, ""),
+                    megabytes(indexPath, ".fdt") + megabytes(indexPath, ".fdx") + megabytes(indexPath, ".fdm"),
+                    megabytes(indexPath, OverviewStore.FILE_NAME), buildSeconds,
+                    fetch.percentile(0.50) / 1e6, fetch.percentile(0.99) / 1e6,
+                    search.percentile(0.50) / 1e6, search.percentile(0.99) / 1e6));
+            } finally {
+                FileUtil.deleteTree(indexPath);
+            }
+        }
+        System.out.println("(latencies in ms: fetch = stored fields and overview of "
+            + PAGE_SIZE + " random documents; search = basic search with snippets)");
+    }
+
+    /**
+     * Times loading random pages of documents as a result page does: all
+     * stored fields, plus the overview from the side store if it is external.
+     * The first half of the rounds warms up the JIT and is not recorded.
+     */
+    private static LatencyHistogram measureFetch(Path indexPath, int rounds) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(SyntheticCorpusGenerator.DEFAULT_SEED);
+        try (Directory directory = DirectoryConfig.fromSystemProperties().open(indexPath);
+             DirectoryReader reader = DirectoryReader.open(directory);
+             OverviewStore overviewStore = OverviewStore.open(indexPath, reader)) {
+            int[] page = new int[PAGE_SIZE];
+            long checksum = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < page.length; i++) {
+                    page[i] = random.nextInt(reader.maxDoc());
+                }
+                long start = System.nanoTime();
+                StoredFields storedFields = reader.storedFields();
+                for (int doc : page) {
+                    Document document = storedFields.document(doc);
+                    if (overviewStore != null) {
+                        overviewStore.addTo(document);
+                    }
+                    checksum += document.get(MovieIndexer.FIELD_OVERVIEW).length();
+                }
+                if (round >= rounds / 2) {
+                    histogram.record(System.nanoTime() - start);
+                }
+            }
+            if (checksum == 0) {
+                System.err.println("No overview text was fetched.");
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Times complete searches (query, snippets and stored fields) over all queries.
+     */
+    private static LatencyHistogram measureSearch(Path indexPath, int rounds) throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        MovieSearcher searcher = new MovieSearcher(indexPath, DirectoryConfig.fromSystemProperties());
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (String query : QUERIES) {
+                    long start = System.nanoTime();
+                    searcher.basicSearch(query, PAGE_SIZE);
+                    if (round >= rounds / 2) {
+                        histogram.record(System.nanoTime() - start);
+                    }
+                }
+            }
+        } finally {
+            searcher.close();
+        }
+        return histogram;
+    }
+
+    /**
+     * Sums the sizes of the files whose name ends with the suffix ("" = all files).
+     */
+    private static double megabytes(Path indexPath, String suffix) throws IOException {
+        long bytes = 0;
+        try (Stream<Path> files = Files.list(indexPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(suffix) && !name.equals("write.lock")) {
+                    bytes += Files.size(file);
+                }
+            }
+        }
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,182 @@
+package edu.multimedia.lucene.benchmark;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.search.SubfieldRouter;
+import edu.multimedia.lucene.util.FileUtil;
+import edu.multimedia.lucene.util.JsonlReader;
+import edu.multimedia.lucene.util.LatencyHistogram;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Measures what the prefix and shingle subfields cost and gain: builds the
+ * corpus once without and once with subfields, reports the index size
+ * overhead (in total and per file type), then runs prefix and phrase queries
+ * on the subfield index with and without routing, checking that both find
+ * the same number of movies.
+ *
+ * Usage: SubfieldBenchmark [source.jsonl] [documents] [rounds]
+ * (more documents than the source has are generated with {@link SyntheticCorpusGenerator})
+ */
+public class SubfieldBenchmark {
+    private static final String[] QUERIES = {
+        "s*", "st*", "star*", "har*", "tom*", "rob*", "the*", "lo*", "ch*", "jo*",
+        "\"star wars\"", "\"tom hanks\"", "\"harrison ford\"", "\"the dark\"",
+        "\"high school\"", "\"new york\"", "\"robert de\"", "\"love story\""
+    };
+    private static final int MAX_RESULTS = 10;
+
+    public static void main(String[] args) throws Exception {
+        Path source = Paths.get(args.length > 0 ? args[0] : "data/movie_dataset.jsonl");
+        long documents = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        // Larger corpora are generated while they are indexed, not kept on the heap
+        List<Movie> sample = new JsonlReader().readMovies(source);
+        Iterable<Movie> movies = sample;
+        if (documents > sample.size()) {
+            movies = new SyntheticCorpusGenerator(sample, SyntheticCorpusGenerator.DEFAULT_SEED)
+                .stream(documents);
+        }
+
+        Path plainIndex = Files.createTempDirectory("movies-plain-");
+        Path subfieldIndex = Files.createTempDirectory("movies-subfields-");
+        try {
+            build(movies, plainIndex, false);
+            build(movies, subfieldIndex, true);
+            reportSizes(plainIndex, subfieldIndex);
+            runQueries(subfieldIndex, rounds);
+        } finally {
+            FileUtil.deleteTree(plainIndex);
+            FileUtil.deleteTree(subfieldIndex);
+        }
+    }
+
+    private static void build(Iterable<Movie> movies, Path indexPath, boolean subfields) throws IOException {
+        MovieIndexer indexer = new MovieIndexer(indexPath);
+        try {
+            indexer.setSubfieldsEnabled(subfields);
+            indexer.createIndex(movies);
+        } finally {
+            indexer.close();
+        }
+    }
+
+    private static void reportSizes(Path plainIndex, Path subfieldIndex) throws IOException {
+        Map<String, Long> plain = sizesByExtension(plainIndex);
+        Map<String, Long> subfields = sizesByExtension(subfieldIndex);
+        long plainTotal = plain.values().stream().mapToLong(Long::longValue).sum();
+        long subfieldTotal = subfields.values().stream().mapToLong(Long::longValue).sum();
+
+        System.out.println();
+        System.out.println(String.format("%-10s %12s %12s %10s", "file", "plain", "subfields", "overhead"));
+        Map<String, Long> all = new TreeMap<>(plain);
+        subfields.forEach((extension, bytes) -> all.putIfAbsent(extension, 0L));
+        for (String extension : all.keySet()) {
+            long before = plain.getOrDefault(extension, 0L);
+            long after = subfields.getOrDefault(extension, 0L);
+            System.out.println(String.format("%-10s %12d %12d %10s", extension, before, after,
+                overhead(before, after)));
+        }
+        System.out.println(String.format("%-10s %12d %12d %10s", "total", plainTotal, subfieldTotal,
+            overhead(plainTotal, subfieldTotal)));
+    }
+
+    private static String overhead(long before, long after) {
+        return before > 0 ? String.format("%+.1f%%", 100.0 * (after - before) / before) : "new";
+    }
+
+    /**
+     * Sums the index file sizes by extension (terms, postings, norms, ...).
+     */
+    private static Map<String, Long> sizesByExtension(Path indexPath) throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        try (Stream<Path> files = Files.list(indexPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                String extension = dot >= 0 ? name.substring(dot + 1) : name;
+                if (extension.equals("lock")) {
+                    continue;
+                }
+                sizes.merge(extension, Files.size(file), Long::sum);
+            }
+        }
+        return sizes;
+    }
+
+    private static void runQueries(Path indexPath, int rounds) throws Exception {
+        String[] fields = {
+            MovieIndexer.FIELD_TITLE,
+            MovieIndexer.FIELD_CAST,
+            MovieIndexer.FIELD_OVERVIEW,
+            MovieIndexer.FIELD_TAGLINE,
+            MovieIndexer.FIELD_GENRES
+        };
+
+        Map<String, Float> boosts = new HashMap<>();
+        boosts.put(MovieIndexer.FIELD_TITLE, 2.0f);
+        boosts.put(MovieIndexer.FIELD_CAST, 1.5f);
+        boosts.put(MovieIndexer.FIELD_OVERVIEW, 1.0f);
+        boosts.put(MovieIndexer.FIELD_TAGLINE, 1.0f);
+        boosts.put(MovieIndexer.FIELD_GENRES, 1.0f);
+
+        try (Directory directory = FSDirectory.open(indexPath);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setQueryCache(null);
+            SubfieldRouter router = SubfieldRouter.forReader(reader);
+            MultiFieldQueryParser parser = new MultiFieldQueryParser(fields, new StandardAnalyzer(), boosts);
+
+            System.out.println();
+            System.out.println(String.format("%-18s %8s %14s %14s %14s %14s", "query", "hits",
+                "plain p50 ms", "routed p50 ms", "plain p99 ms", "routed p99 ms"));
+            for (String queryText : QUERIES) {
+                Query plain = parser.parse(queryText);
+                Query routed = router.route(plain);
+                int plainHits = searcher.count(plain);
+                int routedHits = searcher.count(routed);
+                if (plainHits != routedHits) {
+                    System.err.println("Hit counts differ for " + queryText + ": "
+                        + plainHits + " plain, " + routedHits + " routed");
+                }
+                // Only the second half of the rounds (after JIT warm-up) is measured
+                LatencyHistogram plainTimes = new LatencyHistogram();
+                LatencyHistogram routedTimes = new LatencyHistogram();
+                for (int round = 0; round < rounds; round++) {
+                    long plainNanos = time(searcher, plain);
+                    long routedNanos = time(searcher, routed);
+                    if (round >= rounds / 2) {
+                        plainTimes.record(plainNanos);
+                        routedTimes.record(routedNanos);
+                    }
+                }
+                System.out.println(String.format("%-18s %8d %14.3f %14.3f %14.3f %14.3f", queryText,
+                    plainHits, plainTimes.percentile(0.50) / 1e6, routedTimes.percentile(0.50) / 1e6,
+                    plainTimes.percentile(0.99) / 1e6, routedTimes.percentile(0.99) / 1e6));
+            }
+        }
+    }
+
+    private static long time(IndexSearcher searcher, Query query) throws IOException {
+        long start = System.nanoTime();
+        searcher.search(query, MAX_RESULTS);
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,263 @@
+package edu.multimedia.lucene.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.util.JsonlReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Grows the movie sample into a synthetic corpus of any size for scaling tests.
+ * The first documents are the sample itself; every further document is a
+ * recombination of real fields, so the distributions of the sample are kept:
+ * <ul>
+ *   <li>genres, year, rating and runtime come together from one real movie
+ *       (genre mix and their correlations)</li>
+ *   <li>the overview is made of real sentences of movies with the same main
+ *       genre, as many as that movie has (term distribution per genre)</li>
+ *   <li>the tagline is a real one of the same main genre (including the
+ *       empty ones)</li>
+ *   <li>the title joins the start of one real title and the end of another</li>
+ *   <li>the cast has as many "Actor as Role" entries as the real movie, with
+ *       actors and roles drawn from all casts (actor popularity)</li>
+ * </ul>
+ * Document i only depends on the sample, the seed and i, so the same corpus
+ * can be generated again (or in parts) and is streamed without being kept
+ * in memory.
+ *
+ * Usage: SyntheticCorpusGenerator [source.jsonl] [output.jsonl|-] [documents] [seed]
+ */
+public class SyntheticCorpusGenerator {
+    public static final long DEFAULT_SEED = 42;
+
+    private static final String SENTENCE_SPLIT = "(?<=[.!?])\\s+";
+    private static final String CAST_SEPARATOR = ", ";
+    private static final String ROLE_SEPARATOR = " as ";
+    /** First synthetic IMDB ID number: nine digits, beyond the real ones. */
+    private static final long FIRST_SYNTHETIC_ID = 900_000_000L;
+
+    private final List<Movie> sample;
+    private final long seed;
+    private final Map<String, List<String>> sentencesByGenre = new HashMap<>();
+    private final Map<String, List<String>> taglinesByGenre = new HashMap<>();
+    private final List<String[]> titles = new ArrayList<>();
+    private final List<String> actors = new ArrayList<>();
+    private final List<String> roles = new ArrayList<>();
+
+    /**
+     * @param sample Real movies to recombine
+     * @param seed Seed of the synthetic documents
+     */
+    public SyntheticCorpusGenerator(List<Movie> sample, long seed) {
+        if (sample.isEmpty()) {
+            throw new IllegalArgumentException("The sample has no movies");
+        }
+        this.sample = sample;
+        this.seed = seed;
+
+        for (Movie movie : sample) {
+            String genre = mainGenre(movie);
+            List<String> sentences = sentencesByGenre.computeIfAbsent(genre, g -> new ArrayList<>());
+            sentences.addAll(sentences(movie.getOverview()));
+            taglinesByGenre.computeIfAbsent(genre, g -> new ArrayList<>())
+                .add(movie.getTagline() != null ? movie.getTagline() : "");
+            if (movie.getTitle() != null && !movie.getTitle().isEmpty()) {
+                titles.add(movie.getTitle().split(" "));
+            }
+            for (String entry : castEntries(movie.getCast())) {
+                int separator = entry.indexOf(ROLE_SEPARATOR);
+                actors.add(separator >= 0 ? entry.substring(0, separator) : entry);
+                roles.add(separator >= 0 ? entry.substring(separator + ROLE_SEPARATOR.length()) : "");
+            }
+        }
+        if (titles.isEmpty()) {
+            titles.add(new String[] {"Untitled"});
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path source = Paths.get(args.length > 0 ? args[0] : "data/movie_dataset.jsonl");
+        String output = args.length > 1 ? args[1] : "-";
+        long documents = args.length > 2 ? Long.parseLong(args[2]) : 100_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED;
+
+        SyntheticCorpusGenerator generator =
+            new SyntheticCorpusGenerator(new JsonlReader().readMovies(source), seed);
+        long start = System.nanoTime();
+        if (output.equals("-")) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            generator.write(documents, writer);
+            writer.flush();
+        } else {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+                generator.write(documents, writer);
+            }
+            System.out.println(String.format("Generated %d movies into %s in %.1f s",
+                documents, output, (System.nanoTime() - start) / 1e9));
+        }
+    }
+
+    /**
+     * Gets the size of the sample (the number of real documents the corpus starts with).
+     */
+    public int getSampleSize() {
+        return sample.size();
+    }
+
+    /**
+     * Writes the first documents of the corpus as JSONL, in the schema read by
+     * {@link JsonlReader}.
+     */
+    public void write(long documents, Writer writer) throws IOException {
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        for (long i = 0; i < documents; i++) {
+            gson.toJson(generate(i), writer);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Gets the first documents of the corpus, generated as they are iterated
+     * (every iteration generates them again), e.g. to index a corpus that
+     * does not fit on the heap.
+     */
+    public Iterable<Movie> stream(long documents) {
+        return () -> new Iterator<Movie>() {
+            private long next;
+
+            @Override
+            public boolean hasNext() {
+                return next < documents;
+            }
+
+            @Override
+            public Movie next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return generate(next++);
+            }
+        };
+    }
+
+    /**
+     * Generates document i of the corpus.
+     */
+    public Movie generate(long i) {
+        if (i < sample.size()) {
+            return sample.get((int) i);
+        }
+        SplittableRandom random = new SplittableRandom(mix(mix(seed) ^ i));
+        Movie donor = pick(sample, random);
+        String genre = mainGenre(donor);
+
+        Movie movie = new Movie();
+        movie.setIndex(i);
+        movie.setImdbId("tt" + (FIRST_SYNTHETIC_ID + i));
+        movie.setTitle(title(random));
+        movie.setOverview(overview(sentences(donor.getOverview()).size(), genre, random));
+        movie.setTagline(pick(taglinesByGenre.get(genre), random));
+        movie.setCast(cast(castEntries(donor.getCast()).size(), random));
+        movie.setGenres(donor.getGenres());
+        movie.setRuntime(donor.getRuntime());
+        movie.setRating(donor.getRating());
+        movie.setYear(donor.getYear());
+        return movie;
+    }
+
+    private String title(SplittableRandom random) {
+        String[] first = pick(titles, random);
+        String[] second = pick(titles, random);
+        int head = (first.length + 1) / 2;
+        int tail = second.length / 2;
+        StringBuilder title = new StringBuilder(String.join(" ", Arrays.copyOf(first, head)));
+        for (int w = second.length - tail; w < second.length; w++) {
+            title.append(' ').append(second[w]);
+        }
+        return title.toString();
+    }
+
+    private String overview(int sentenceCount, String genre, SplittableRandom random) {
+        List<String> sentences = sentencesByGenre.get(genre);
+        if (sentences.isEmpty()) {
+            return "";
+        }
+        StringBuilder overview = new StringBuilder();
+        for (int s = 0; s < sentenceCount; s++) {
+            if (s > 0) {
+                overview.append(' ');
+            }
+            overview.append(pick(sentences, random));
+        }
+        return overview.toString();
+    }
+
+    private String cast(int entryCount, SplittableRandom random) {
+        if (actors.isEmpty()) {
+            return "";
+        }
+        StringBuilder cast = new StringBuilder();
+        for (int e = 0; e < entryCount; e++) {
+            if (e > 0) {
+                cast.append(CAST_SEPARATOR);
+            }
+            cast.append(pick(actors, random));
+            String role = pick(roles, random);
+            if (!role.isEmpty()) {
+                cast.append(ROLE_SEPARATOR).append(role);
+            }
+        }
+        return cast.toString();
+    }
+
+    private static String mainGenre(Movie movie) {
+        List<String> genres = movie.getGenres();
+        return genres == null || genres.isEmpty() ? "" : genres.get(0);
+    }
+
+    private static List<String> sentences(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(text.trim().split(SENTENCE_SPLIT));
+    }
+
+    private static List<String> castEntries(String cast) {
+        if (cast == null || cast.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(cast.split(CAST_SEPARATOR));
+    }
+
+    private static <T> T pick(List<T> values, SplittableRandom random) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    /**
+     * Scrambles a seed (MurmurHash3 finalizer), so nearby documents get
+     * unrelated random sequences. The seed is scrambled before the document
+     * number is mixed in, so the corpora of nearby seeds are unrelated too
+     * (with {@code mix(seed + i)}, seed s + 1 would repeat the documents of s).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,66 @@
+package edu.multimedia.lucene.benchmark;
+
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.search.EnhancedSearcher;
+import edu.multimedia.lucene.util.JsonlReader;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reports HNSW recall@k and latency for a range of efSearch values.
+ * Queries are descriptive phrases taken from the start of movie overviews,
+ * similar to the "movies about ..." queries of the benchmark persona.
+ *
+ * Usage: VectorSearchBenchmark [dataPath] [indexPath] [queryCount] [k]
+ * (the index must have been built by the application first)
+ */
+public class VectorSearchBenchmark {
+    private static final int[] EF_SEARCH_VALUES = {10, 25, 50, 100, 200, 400};
+    private static final int QUERY_WORDS = 8;
+
+    public static void main(String[] args) throws Exception {
+        Path dataPath = Paths.get(args.length > 0 ? args[0] : "data/movie_dataset.jsonl");
+        Path indexPath = Paths.get(args.length > 1 ? args[1] : "index");
+        int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int k = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        List<String> queries = buildQueries(dataPath, queryCount);
+        System.out.println("Evaluating " + queries.size() + " queries, k=" + k);
+
+        EnhancedSearcher searcher = new EnhancedSearcher(indexPath);
+        try {
+            // Warm up once so the first efSearch value is not penalized by class loading
+            searcher.evaluateVectorSearch(queries, k);
+
+            for (int efSearch : EF_SEARCH_VALUES) {
+                searcher.setEfSearch(efSearch);
+                System.out.println(searcher.evaluateVectorSearch(queries, k));
+            }
+        } finally {
+            searcher.close();
+        }
+    }
+
+    /**
+     * Takes the first words of every n-th overview as a descriptive query.
+     */
+    private static List<String> buildQueries(Path dataPath, int queryCount) throws Exception {
+        List<Movie> movies = new JsonlReader().readMovies(dataPath);
+        List<String> queries = new ArrayList<>();
+        int step = Math.max(1, movies.size() / Math.max(1, queryCount));
+
+        for (int i = 0; i < movies.size() && queries.size() < queryCount; i += step) {
+            String overview = movies.get(i).getOverview();
+            if (overview == null || overview.isEmpty()) {
+                continue;
+            }
+            String[] words = overview.split("\\s+");
+            queries.add(String.join(" ", Arrays.copyOf(words, Math.min(QUERY_WORDS, words.length))));
+        }
+        return queries;
+    }
+}
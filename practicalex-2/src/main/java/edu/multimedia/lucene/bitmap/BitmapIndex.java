@@ -0,0 +1,346 @@
+package edu.multimedia.lucene.bitmap;
+
+import edu.multimedia.lucene.model.Movie;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory boolean retrieval over the movie corpus with one compressed
+ * posting bitmap ({@link RoaringBitmap}) per term. It answers pure keyword
+ * filters (AND, OR, NOT) without scoring, in the Java equivalent of the
+ * linear {@code BooleanRetriever} of the Python benchmark.
+ *
+ * Terms are produced by the StandardAnalyzer over title, overview, tagline,
+ * cast and genres, as in the Lucene index, and a term matches a movie if it
+ * occurs in any of these fields. Document numbers are positions in the
+ * movie list.
+ *
+ * Query syntax: words, AND, OR, NOT (or a leading "-"), and parentheses.
+ * NOT binds tighter than AND, AND tighter than OR, and adjacent words are
+ * ANDed: {@code star wars NOT (clone OR empire)}. Negated operands are
+ * subtracted from the other operands of their AND; only a clause made of
+ * negations alone is complemented against all documents. Words that analyze
+ * to no terms (e.g. "&", or stop words with an analyzer that removes them)
+ * are dropped from their clause, and a clause left without operands matches
+ * nothing.
+ *
+ * Results may be the posting bitmaps themselves and must not be modified.
+ */
+public class BitmapIndex {
+    private final List<String> imdbIds = new ArrayList<>();
+    private final Map<String, RoaringBitmap> postings = new HashMap<>();
+    private final Analyzer analyzer;
+    private final RoaringBitmap allDocuments;
+
+    public BitmapIndex(List<Movie> movies) {
+        this(movies, new StandardAnalyzer());
+    }
+
+    /**
+     * @param movies Movies to index
+     * @param analyzer Analyzer for the fields and the query words
+     */
+    public BitmapIndex(List<Movie> movies, Analyzer analyzer) {
+        this.analyzer = analyzer;
+        for (Movie movie : movies) {
+            int doc = imdbIds.size();
+            imdbIds.add(movie.getImdbId());
+            Set<String> terms = new LinkedHashSet<>();
+            terms.addAll(analyze(movie.getTitle()));
+            terms.addAll(analyze(movie.getOverview()));
+            terms.addAll(analyze(movie.getTagline()));
+            terms.addAll(analyze(movie.getCast()));
+            if (movie.getGenres() != null) {
+                terms.addAll(analyze(String.join(" ", movie.getGenres())));
+            }
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new RoaringBitmap()).add(doc);
+            }
+        }
+        allDocuments = RoaringBitmap.range(imdbIds.size());
+    }
+
+    /**
+     * Gets the number of indexed movies.
+     */
+    public int size() {
+        return imdbIds.size();
+    }
+
+    /**
+     * Gets the number of distinct terms.
+     */
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    /**
+     * Gets the approximate memory use of all posting bitmaps, in bytes.
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (RoaringBitmap bitmap : postings.values()) {
+            bytes += bitmap.getSizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the movies containing a term (already analyzed); empty if unknown.
+     */
+    public RoaringBitmap postings(String term) {
+        RoaringBitmap bitmap = postings.get(term);
+        return bitmap != null ? bitmap : new RoaringBitmap();
+    }
+
+    /**
+     * Movies containing all terms (already analyzed). The rarest term is
+     * intersected first, so the intermediate results only shrink.
+     */
+    public RoaringBitmap queryAnd(Collection<String> terms) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (String term : terms) {
+            bitmaps.add(postings(term));
+        }
+        return and(bitmaps);
+    }
+
+    /**
+     * Movies containing any of the terms (already analyzed).
+     */
+    public RoaringBitmap queryOr(Collection<String> terms) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (String term : terms) {
+            bitmaps.add(postings(term));
+        }
+        return or(bitmaps);
+    }
+
+    /**
+     * Movies not containing the term (already analyzed). This complements the
+     * postings against all documents; to exclude a term from other terms, use
+     * {@link #search} with "a NOT b", which subtracts it instead.
+     */
+    public RoaringBitmap queryNot(String term) {
+        return allDocuments.andNot(postings(term));
+    }
+
+    /**
+     * Evaluates a boolean query.
+     *
+     * @param queryText Query in the syntax described above
+     * @return Matching movies
+     * @throws IllegalArgumentException If the query is malformed
+     */
+    public RoaringBitmap search(String queryText) {
+        Parser parser = new Parser(queryText);
+        RoaringBitmap result = parser.parseOr();
+        if (parser.peek() != null) {
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "' in query: " + queryText);
+        }
+        return result != null ? result : new RoaringBitmap();
+    }
+
+    /**
+     * Gets the IMDB IDs of matching movies, in corpus order.
+     */
+    public List<String> getImdbIds(RoaringBitmap docs) {
+        List<String> ids = new ArrayList<>(docs.cardinality());
+        docs.forEach(doc -> ids.add(imdbIds.get(doc)));
+        return ids;
+    }
+
+    private RoaringBitmap and(List<RoaringBitmap> bitmaps) {
+        if (bitmaps.isEmpty()) {
+            return allDocuments;
+        }
+        bitmaps.sort(Comparator.comparingInt(RoaringBitmap::cardinality));
+        RoaringBitmap result = bitmaps.get(0);
+        for (int i = 1; i < bitmaps.size() && !result.isEmpty(); i++) {
+            result = result.and(bitmaps.get(i));
+        }
+        return result;
+    }
+
+    private static RoaringBitmap or(List<RoaringBitmap> bitmaps) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (RoaringBitmap bitmap : bitmaps) {
+            result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    private List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        try (TokenStream stream = analyzer.tokenStream("", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return terms;
+    }
+
+    /**
+     * Recursive descent parser that evaluates the query while parsing.
+     */
+    private class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+
+        Parser(String queryText) {
+            StringBuilder word = new StringBuilder();
+            for (char c : queryText.toCharArray()) {
+                if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+                    flush(word);
+                    if (!Character.isWhitespace(c)) {
+                        tokens.add(String.valueOf(c));
+                    }
+                } else if (c == '-' && word.length() == 0) {
+                    tokens.add("NOT");
+                } else {
+                    word.append(c);
+                }
+            }
+            flush(word);
+        }
+
+        private void flush(StringBuilder word) {
+            if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        /**
+         * @return The matches, or null if every clause was dropped
+         */
+        RoaringBitmap parseOr() {
+            List<RoaringBitmap> operands = new ArrayList<>();
+            addIfPresent(operands, parseAnd());
+            while ("OR".equals(peek())) {
+                position++;
+                addIfPresent(operands, parseAnd());
+            }
+            if (operands.isEmpty()) {
+                return null;
+            }
+            return operands.size() == 1 ? operands.get(0) : or(operands);
+        }
+
+        /**
+         * Intersects the positive operands and subtracts the negated ones.
+         *
+         * @return The matches, or null if every operand was dropped
+         */
+        RoaringBitmap parseAnd() {
+            List<RoaringBitmap> included = new ArrayList<>();
+            List<RoaringBitmap> excluded = new ArrayList<>();
+            addOperand(included, excluded, parseNot());
+            while (peek() != null && !peek().equals("OR") && !peek().equals(")")) {
+                if (peek().equals("AND")) {
+                    position++;
+                }
+                addOperand(included, excluded, parseNot());
+            }
+            if (included.isEmpty() && excluded.isEmpty()) {
+                return null;
+            }
+            // Only a clause of negations alone needs the complement
+            RoaringBitmap result = included.isEmpty() ? allDocuments : and(included);
+            for (int i = 0; i < excluded.size() && !result.isEmpty(); i++) {
+                result = result.andNot(excluded.get(i));
+            }
+            return result;
+        }
+
+        private void addOperand(List<RoaringBitmap> included, List<RoaringBitmap> excluded,
+                                Operand operand) {
+            if (operand != null) {
+                (operand.negated ? excluded : included).add(operand.docs);
+            }
+        }
+
+        private void addIfPresent(List<RoaringBitmap> operands, RoaringBitmap docs) {
+            if (docs != null) {
+                operands.add(docs);
+            }
+        }
+
+        /**
+         * @return The operand, or null if it was dropped
+         */
+        Operand parseNot() {
+            if ("NOT".equals(peek())) {
+                position++;
+                Operand operand = parseNot();
+                return operand != null ? new Operand(operand.docs, !operand.negated) : null;
+            }
+            RoaringBitmap docs = parsePrimary();
+            return docs != null ? new Operand(docs, false) : null;
+        }
+
+        /**
+         * @return The matches, or null if the word analyzes to no terms
+         */
+        RoaringBitmap parsePrimary() {
+            String token = peek();
+            if (token == null || token.equals(")") || token.equals("AND") || token.equals("OR")) {
+                throw new IllegalArgumentException("Expected a word or '(' at position " + position
+                    + " but found " + (token != null ? "'" + token + "'" : "the end"));
+            }
+            position++;
+            if (token.equals("(")) {
+                RoaringBitmap result = parseOr();
+                if (!")".equals(peek())) {
+                    throw new IllegalArgumentException("Missing ')'");
+                }
+                position++;
+                return result;
+            }
+            List<String> terms = analyze(token);
+            if (terms.isEmpty()) {
+                return null;
+            }
+            // A word can analyze to several terms ("spider-man"): all must occur
+            return queryAnd(terms);
+        }
+    }
+
+    /**
+     * Matches of an operand of AND, to be intersected or (if negated) subtracted.
+     */
+    private static class Operand {
+        final RoaringBitmap docs;
+        final boolean negated;
+
+        Operand(RoaringBitmap docs, boolean negated) {
+            this.docs = docs;
+            this.negated = negated;
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package edu.multimedia.lucene.bitmap;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative integers (document numbers) in the Roaring
+ * layout: the values are split by their upper 16 bits into chunks of 65536,
+ * and each chunk is stored in the container that suits its density:
+ * <ul>
+ *   <li>a sorted {@code char[]} of the lower 16 bits, up to 4096 values
+ *       (2 bytes per value)</li>
+ *   <li>a 65536-bit {@code long[1024]} bitmap above that (8 KB)</li>
+ * </ul>
+ * so a chunk never takes more than 8 KB, and sparse terms take little more
+ * than their number of postings.
+ *
+ * AND, OR and AND NOT work chunk by chunk. Bitmap-bitmap operations are plain
+ * loops over 1024 words, which the JIT compiles to SIMD instructions; the
+ * cardinality is counted separately with {@code Long.bitCount} (POPCNT).
+ * Sorted arrays are merged, or galloped through when one is much smaller.
+ *
+ * The operations return new bitmaps and never modify their arguments.
+ * Not thread-safe while values are added.
+ */
+public class RoaringBitmap {
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /**
+     * Creates a bitmap of the values 0 (inclusive) to end (exclusive).
+     */
+    public static RoaringBitmap range(int end) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int high = 0; (long) high << 16 < end; high++) {
+            int count = Math.min(1 << 16, end - (high << 16));
+            bitmap.append((char) high, count > ArrayContainer.MAX_SIZE
+                ? BitmapContainer.range(count) : ArrayContainer.range(count));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Creates a bitmap of the given values.
+     */
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds a value. Adding in increasing order (as when indexing) is fastest.
+     */
+    public void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        if (size > 0 && keys[size - 1] == high) {
+            containers[size - 1] = containers[size - 1].add(low);
+            return;
+        }
+        int i = Arrays.binarySearch(keys, 0, size, high);
+        if (i >= 0) {
+            containers[i] = containers[i].add(low);
+        } else {
+            insert(-i - 1, high, new ArrayContainer().add(low));
+        }
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    /**
+     * Gets the number of values.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Values in both bitmaps.
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.append(keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Values in either bitmap.
+     */
+    public RoaringBitmap or(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Values in this bitmap but not in the other.
+     */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j++;
+            }
+            Container container = j < other.size && other.keys[j] == keys[i]
+                ? containers[i].andNot(other.containers[j])
+                : containers[i].copy();
+            if (container.cardinality() > 0) {
+                result.append(keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calls an action with every value, in increasing order.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * Gets the values in increasing order.
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            offset = containers[i].fill(keys[i] << 16, values, offset);
+        }
+        return values;
+    }
+
+    /**
+     * Gets the approximate memory use of the containers, in bytes.
+     */
+    public long getSizeInBytes() {
+        long bytes = size * (Character.BYTES + 16L);
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts the containers of each kind: {array, bitmap}.
+     */
+    public int[] getContainerCounts() {
+        int[] counts = new int[2];
+        for (int i = 0; i < size; i++) {
+            counts[containers[i] instanceof ArrayContainer ? 0 : 1]++;
+        }
+        return counts;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof RoaringBitmap)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((RoaringBitmap) other).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "RoaringBitmap(" + cardinality() + " values, " + size + " containers)";
+    }
+
+    /**
+     * Adds a container after the last one (keys must be increasing).
+     */
+    private void append(char key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    /**
+     * The lower 16 bits of the values of one chunk. Operations return a new
+     * container (in the representation that fits the result) and leave their
+     * operands unchanged; only {@link #add} modifies the container.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        /** Adds a value; returns this container or its replacement. */
+        abstract Container add(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int high, IntConsumer action);
+
+        /** Writes the values (plus high) into an array; returns the next offset. */
+        abstract int fill(int high, int[] values, int offset);
+
+        abstract long sizeInBytes();
+    }
+
+    private static final class ArrayContainer extends Container {
+        /** Above this many values a bitmap is smaller. */
+        static final int MAX_SIZE = 4096;
+        /** Size ratio from which intersections gallop through the larger array. */
+        private static final int GALLOP_RATIO = 32;
+
+        char[] values;
+        int size;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        static ArrayContainer range(int count) {
+            char[] values = new char[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = (char) i;
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int i;
+            if (size == 0 || values[size - 1] < value) {
+                i = size;
+            } else {
+                i = Arrays.binarySearch(values, 0, size, value);
+                if (i >= 0) {
+                    return this;
+                }
+                i = -i - 1;
+            }
+            if (size == MAX_SIZE) {
+                return toBitmap().add(value);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_SIZE, Math.max(4, size * 2)));
+            }
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof BitmapContainer) {
+                return ((BitmapContainer) other).and(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            ArrayContainer small = size <= array.size ? this : array;
+            ArrayContainer large = small == this ? array : this;
+            char[] result = new char[small.size];
+            int count = 0;
+            if (small.size * GALLOP_RATIO < large.size) {
+                int from = 0;
+                for (int i = 0; i < small.size && from < large.size; i++) {
+                    int found = gallop(large.values, from, large.size, small.values[i]);
+                    if (found >= 0) {
+                        result[count++] = small.values[i];
+                        from = found + 1;
+                    } else {
+                        from = -found - 1;
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        /**
+         * Finds a value in a sorted range by doubling the step, then binary search.
+         * Returns its index, or -(insertion point) - 1.
+         */
+        private static int gallop(char[] values, int from, int to, char value) {
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < to && values[high] < value) {
+                low = high + 1;
+                high = from + step;
+                step <<= 1;
+            }
+            return Arrays.binarySearch(values, low, Math.min(high + 1, to), value);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return ((BitmapContainer) other).or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            if (size + array.size > MAX_SIZE) {
+                BitmapContainer bitmap = toBitmap();
+                for (int j = 0; j < array.size; j++) {
+                    bitmap.set(array.values[j]);
+                }
+                return bitmap.cardinality() > MAX_SIZE ? bitmap : bitmap.toArray();
+            }
+            char[] result = new char[size + array.size];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size && j < array.size) {
+                if (values[i] < array.values[j]) {
+                    result[count++] = values[i++];
+                } else if (values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i++];
+                    j++;
+                }
+            }
+            while (i < size) {
+                result[count++] = values[i++];
+            }
+            while (j < array.size) {
+                result[count++] = array.values[j++];
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[size];
+            int count = 0;
+            if (other instanceof BitmapContainer) {
+                BitmapContainer bitmap = (BitmapContainer) other;
+                for (int i = 0; i < size; i++) {
+                    if (!bitmap.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                int j = 0;
+                for (int i = 0; i < size; i++) {
+                    while (j < array.size && array.values[j] < values[i]) {
+                        j++;
+                    }
+                    if (j == array.size || array.values[j] != values[i]) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(size, 1)), size);
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.set(values[i]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < size; i++) {
+                action.accept(high | values[i]);
+            }
+        }
+
+        @Override
+        int fill(int high, int[] result, int offset) {
+            for (int i = 0; i < size; i++) {
+                result[offset++] = high | values[i];
+            }
+            return offset;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + (long) values.length * Character.BYTES;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private static final int WORDS = (1 << 16) / Long.SIZE;
+
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer() {
+            this(new long[WORDS], 0);
+        }
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        static BitmapContainer range(int count) {
+            long[] words = new long[WORDS];
+            Arrays.fill(words, 0, count / Long.SIZE, -1L);
+            if (count % Long.SIZE != 0) {
+                words[count / Long.SIZE] = (1L << count) - 1;
+            }
+            return new BitmapContainer(words, count);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        void set(char value) {
+            long word = words[value >>> 6];
+            long updated = word | (1L << value);
+            if (updated != word) {
+                words[value >>> 6] = updated;
+                cardinality++;
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                char[] result = new char[array.size];
+                int count = 0;
+                for (int i = 0; i < array.size; i++) {
+                    if (contains(array.values[i])) {
+                        result[count++] = array.values[i];
+                    }
+                }
+                return new ArrayContainer(result, count);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[WORDS];
+            for (int i = 0; i < WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+            }
+            return fromWords(result);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                BitmapContainer bitmap = new BitmapContainer(result, cardinality);
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.size; i++) {
+                    bitmap.set(array.values[i]);
+                }
+                return bitmap;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            for (int i = 0; i < WORDS; i++) {
+                result[i] |= otherWords[i];
+            }
+            return new BitmapContainer(result, count(result));
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.size; i++) {
+                    char value = array.values[i];
+                    result[value >>> 6] &= ~(1L << value);
+                }
+            } else {
+                long[] otherWords = ((BitmapContainer) other).words;
+                for (int i = 0; i < WORDS; i++) {
+                    result[i] &= ~otherWords[i];
+                }
+            }
+            return fromWords(result);
+        }
+
+        /**
+         * Wraps the result of an operation that may shrink the set, as an
+         * array if it has become sparse.
+         */
+        private static Container fromWords(long[] words) {
+            BitmapContainer bitmap = new BitmapContainer(words, count(words));
+            return bitmap.cardinality > ArrayContainer.MAX_SIZE ? bitmap : bitmap.toArray();
+        }
+
+        private static int count(long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int count = 0;
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    action.accept(high | ((i << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int fill(int high, int[] result, int offset) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    result[offset++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return offset;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16L + (long) WORDS * Long.BYTES;
+        }
+    }
+}
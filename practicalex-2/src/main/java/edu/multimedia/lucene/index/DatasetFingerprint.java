@@ -0,0 +1,173 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Identifies the dataset an index was built from: size and CRC32 of the
+ * JSONL file plus the record limit used. It is stored in the index commit
+ * user data together with the number of indexed documents, so on startup an
+ * existing index can be validated and reused instead of being rebuilt.
+ * The file's modification time is recorded as well, so an unchanged file
+ * does not have to be read again to compute its checksum.
+ */
+public final class DatasetFingerprint {
+    private static final String COMMIT_KEY_SIZE = "dataset.size";
+    private static final String COMMIT_KEY_CHECKSUM = "dataset.checksum";
+    private static final String COMMIT_KEY_MAX_RECORDS = "dataset.maxRecords";
+    private static final String COMMIT_KEY_DOCUMENTS = "dataset.documents";
+    private static final String COMMIT_KEY_MODIFIED = "dataset.modified";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long size;
+    private final long checksum;
+    private final int maxRecords;
+    private final int documents;
+    private final long modifiedMillis;
+
+    private DatasetFingerprint(long size, long checksum, int maxRecords, int documents,
+                               long modifiedMillis) {
+        this.size = size;
+        this.checksum = checksum;
+        this.maxRecords = maxRecords;
+        this.documents = documents;
+        this.modifiedMillis = modifiedMillis;
+    }
+
+    /**
+     * Computes the fingerprint of a dataset file.
+     *
+     * @param dataFile JSONL file
+     * @param maxRecords Record limit used for indexing (0 = all)
+     * @throws IOException If the file cannot be read
+     */
+    public static DatasetFingerprint compute(Path dataFile, int maxRecords) throws IOException {
+        return compute(dataFile, maxRecords, null);
+    }
+
+    /**
+     * Computes the fingerprint of a dataset file, reusing the checksum of a
+     * known fingerprint (e.g. the one of an existing index) if the file still
+     * has the size and modification time recorded in it.
+     *
+     * @param dataFile JSONL file
+     * @param maxRecords Record limit used for indexing (0 = all)
+     * @param known Fingerprint to reuse the checksum of (null = always read the file)
+     * @throws IOException If the file cannot be read
+     */
+    public static DatasetFingerprint compute(Path dataFile, int maxRecords, DatasetFingerprint known)
+            throws IOException {
+        // Taken before reading, so a change during the read is detected next time
+        long modified = Files.getLastModifiedTime(dataFile).toMillis();
+        if (known != null && known.modifiedMillis == modified && known.size == Files.size(dataFile)) {
+            return new DatasetFingerprint(known.size, known.checksum, maxRecords, -1, modified);
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (InputStream in = Files.newInputStream(dataFile)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        return new DatasetFingerprint(size, crc.getValue(), maxRecords, -1, modified);
+    }
+
+    /**
+     * Reads the fingerprint from the latest commit of an index directory and
+     * checks it against the index contents.
+     *
+     * @param indexDirectory Index location
+     * @return The fingerprint, or null if there is no index, it has no
+     *         fingerprint, or its document count does not match
+     * @throws IOException If the index cannot be read
+     */
+    public static DatasetFingerprint fromIndex(Path indexDirectory) throws IOException {
+        if (!Files.isDirectory(indexDirectory)) {
+            return null;
+        }
+        try (Directory directory = FSDirectory.open(indexDirectory)) {
+            if (!DirectoryReader.indexExists(directory)) {
+                return null;
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                DatasetFingerprint fingerprint = fromCommitData(reader.getIndexCommit().getUserData());
+                if (fingerprint == null || fingerprint.documents != reader.numDocs()) {
+                    return null;
+                }
+                return fingerprint;
+            }
+        }
+    }
+
+    /**
+     * Restores a fingerprint from index commit user data.
+     *
+     * @return The fingerprint, or null if the commit has none
+     */
+    public static DatasetFingerprint fromCommitData(Map<String, String> commitData) {
+        String size = commitData.get(COMMIT_KEY_SIZE);
+        String checksum = commitData.get(COMMIT_KEY_CHECKSUM);
+        String maxRecords = commitData.get(COMMIT_KEY_MAX_RECORDS);
+        String documents = commitData.get(COMMIT_KEY_DOCUMENTS);
+        if (size == null || checksum == null || maxRecords == null || documents == null) {
+            return null;
+        }
+        return new DatasetFingerprint(Long.parseLong(size), Long.parseLong(checksum, 16),
+            Integer.parseInt(maxRecords), Integer.parseInt(documents),
+            Long.parseLong(commitData.getOrDefault(COMMIT_KEY_MODIFIED, "-1")));
+    }
+
+    /**
+     * Serializes the fingerprint for storage in the index commit user data.
+     *
+     * @param documents Number of documents in the index
+     */
+    public Map<String, String> toCommitData(int documents) {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(COMMIT_KEY_SIZE, Long.toString(size));
+        commitData.put(COMMIT_KEY_CHECKSUM, Long.toHexString(checksum));
+        commitData.put(COMMIT_KEY_MAX_RECORDS, Integer.toString(maxRecords));
+        commitData.put(COMMIT_KEY_DOCUMENTS, Integer.toString(documents));
+        commitData.put(COMMIT_KEY_MODIFIED, Long.toString(modifiedMillis));
+        return commitData;
+    }
+
+    /**
+     * Checks whether two fingerprints describe the same file contents and record limit.
+     */
+    public boolean sameSource(DatasetFingerprint other) {
+        return other != null
+            && size == other.size
+            && checksum == other.checksum
+            && maxRecords == other.maxRecords;
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * Gets the number of indexed documents, or -1 for a fingerprint computed from a file.
+     */
+    public int getDocuments() {
+        return documents;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes, crc32 %08x, max records %d", size, checksum, maxRecords);
+    }
+}
@@ -0,0 +1,455 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Selects the Lucene {@link Directory} implementation used to read the index.
+ * <ul>
+ *   <li>AUTO: {@link FSDirectory#open} picks the implementation (mmap on 64-bit JVMs)</li>
+ *   <li>MMAP: memory-mapped files, optionally preloading selected files into the page
+ *       cache when they are opened, so the first queries after a deploy do not fault</li>
+ *   <li>NIO: positional reads through a file channel (no address space used)</li>
+ *   <li>HEAP: the whole index is copied into a ByteBuffersDirectory on the Java heap,
+ *       either from an index directory or from a single snapshot file
+ *       ({@link IndexSnapshot}); indexes larger than the size guard stay on disk
+ *       (a snapshot is unpacked once to "&lt;snapshot&gt;.index" and reused).
+ *       The copy is frozen at the commit it was made from: searchers in heap
+ *       mode do not see later commits on refresh (reopen them instead)</li>
+ * </ul>
+ * In-heap copies are shared: every searcher that opens the same commit of an
+ * index (or the same snapshot file) in heap mode reads one copy, which is
+ * released when the last of them closes its directory. The size guard
+ * applies to the total of all copies held in this JVM.
+ * Can be configured with the system properties {@code movies.directory}
+ * (auto, mmap, nio, heap) and {@code movies.directory.preload} (for mmap:
+ * comma-separated file extensions, "all" or "none"; for heap: the maximum
+ * index size in MB).
+ */
+public class DirectoryConfig {
+    public static final String PROPERTY_TYPE = "movies.directory";
+    public static final String PROPERTY_PRELOAD = "movies.directory.preload";
+
+    /** Term dictionary/index and doc values: hit by almost every query. */
+    public static final Set<String> DEFAULT_PRELOAD_EXTENSIONS = Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList("tim", "tip", "tmd", "dvd", "dvm")));
+
+    /** Default heap size guard: a quarter of the maximum heap, at most 512 MB. */
+    public static final long DEFAULT_MAX_HEAP_BYTES =
+        Math.min(512L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+
+    public enum Type { AUTO, MMAP, NIO, HEAP }
+
+    /** In-heap copies by index path and commit (or snapshot file version); guards itself. */
+    private static final Map<String, SharedHeap> SHARED_HEAP = new HashMap<>();
+    private static long sharedHeapBytes;
+    /** Written into the on-disk copy of a snapshot once it is completely unpacked. */
+    private static final String UNPACKED_VERSION_FILE = "snapshot.version";
+
+    private final Type type;
+    private final Set<String> preloadExtensions;
+    private final boolean preloadAll;
+    private final long maxHeapBytes;
+
+    private DirectoryConfig(Type type, Set<String> preloadExtensions, boolean preloadAll, 
+                            long maxHeapBytes) {
+        this.type = type;
+        this.preloadExtensions = preloadExtensions;
+        this.preloadAll = preloadAll;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    private DirectoryConfig(Type type, Set<String> preloadExtensions, boolean preloadAll) {
+        this(type, preloadExtensions, preloadAll, 0);
+    }
+
+    /**
+     * Lets Lucene choose the implementation (previous behaviour).
+     */
+    public static DirectoryConfig auto() {
+        return new DirectoryConfig(Type.AUTO, Collections.emptySet(), false);
+    }
+
+    /**
+     * Memory-mapped directory preloading files with the given extensions
+     * (e.g. "tim", "dvd"); no extensions = no preload.
+     */
+    public static DirectoryConfig mmap(String... preloadExtensions) {
+        return new DirectoryConfig(Type.MMAP,
+            new HashSet<>(Arrays.asList(preloadExtensions)), false);
+    }
+
+    /**
+     * Memory-mapped directory preloading every index file.
+     */
+    public static DirectoryConfig mmapPreloadAll() {
+        return new DirectoryConfig(Type.MMAP, Collections.emptySet(), true);
+    }
+
+    /**
+     * NIO directory (fallback when address space or mmap is not available).
+     */
+    public static DirectoryConfig nio() {
+        return new DirectoryConfig(Type.NIO, Collections.emptySet(), false);
+    }
+
+    /**
+     * In-heap directory with the default size guard.
+     */
+    public static DirectoryConfig heap() {
+        return heap(DEFAULT_MAX_HEAP_BYTES);
+    }
+
+    /**
+     * In-heap directory; indexes larger than {@code maxHeapBytes} are opened from disk.
+     */
+    public static DirectoryConfig heap(long maxHeapBytes) {
+        return new DirectoryConfig(Type.HEAP, Collections.emptySet(), false, maxHeapBytes);
+    }
+
+    /**
+     * Reads the configuration from system properties; defaults to AUTO.
+     */
+    public static DirectoryConfig fromSystemProperties() {
+        String type = System.getProperty(PROPERTY_TYPE, "auto");
+        String preload = System.getProperty(PROPERTY_PRELOAD);
+        return parse(type, preload);
+    }
+
+    /**
+     * Parses a configuration such as ("mmap", "tim,tip,dvd").
+     *
+     * @param type auto, mmap, nio or heap
+     * @param preload For mmap: comma-separated extensions, "all", "none" or null (default set);
+     *                for heap: maximum index size in MB or null (default guard)
+     */
+    public static DirectoryConfig parse(String type, String preload) {
+        switch (type.trim().toLowerCase(Locale.ROOT)) {
+            case "auto":
+                return auto();
+            case "nio":
+                return nio();
+            case "mmap":
+                if (preload == null) {
+                    return mmap(DEFAULT_PRELOAD_EXTENSIONS.toArray(new String[0]));
+                }
+                if ("all".equalsIgnoreCase(preload.trim())) {
+                    return mmapPreloadAll();
+                }
+                if ("none".equalsIgnoreCase(preload.trim()) || preload.trim().isEmpty()) {
+                    return mmap();
+                }
+                return mmap(preload.trim().split("\\s*,\\s*"));
+            case "heap":
+                return preload == null 
+                    ? heap() 
+                    : heap(Long.parseLong(preload.trim()) * 1024 * 1024);
+            default:
+                throw new IllegalArgumentException("Unknown directory type: " + type);
+        }
+    }
+
+    /**
+     * Opens the index directory with this configuration.
+     * For HEAP, {@code path} may be an index directory or a snapshot file.
+     */
+    public Directory open(Path path) throws IOException {
+        switch (type) {
+            case MMAP:
+                MMapDirectory mmapDirectory = new MMapDirectory(path);
+                if (preloadAll) {
+                    mmapDirectory.setPreload(MMapDirectory.ALL_FILES);
+                } else if (!preloadExtensions.isEmpty()) {
+                    mmapDirectory.setPreload((fileName, context) -> shouldPreload(fileName));
+                }
+                return mmapDirectory;
+            case NIO:
+                return new NIOFSDirectory(path);
+            case HEAP:
+                return openInHeap(path);
+            default:
+                return FSDirectory.open(path);
+        }
+    }
+
+    /**
+     * Copies the index (or snapshot) into the heap, or falls back to disk if
+     * it is too large. A copy of the same commit already in the heap is shared.
+     */
+    private Directory openInHeap(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        if (Files.isRegularFile(absolute)) {
+            long size = Files.size(absolute);
+            String key = absolute + "@" + Files.getLastModifiedTime(absolute).toMillis() + ":" + size;
+            synchronized (SHARED_HEAP) {
+                SharedHeap shared = SHARED_HEAP.get(key);
+                if (shared != null) {
+                    return shared.acquire();
+                }
+                if (!fitsInHeap(absolute, size)) {
+                    return openUnpacked(absolute);
+                }
+                ByteBuffersDirectory heap = new ByteBuffersDirectory();
+                IndexSnapshot.restore(absolute, heap);
+                return share(key, heap, size);
+            }
+        }
+
+        FSDirectory disk = FSDirectory.open(absolute);
+        boolean keepDisk = false;
+        try {
+            String key = absolute + "@" + SegmentInfos.getLastCommitGeneration(disk);
+            synchronized (SHARED_HEAP) {
+                SharedHeap shared = SHARED_HEAP.get(key);
+                if (shared != null) {
+                    return shared.acquire();
+                }
+                long size = IndexSnapshot.commitSize(disk);
+                if (!fitsInHeap(absolute, size)) {
+                    keepDisk = true;
+                    return disk;
+                }
+
+                ByteBuffersDirectory heap = new ByteBuffersDirectory();
+                List<IndexCommit> commits = DirectoryReader.listCommits(disk);
+                for (String file : commits.get(commits.size() - 1).getFileNames()) {
+                    heap.copyFrom(disk, file, file, IOContext.READONCE);
+                }
+                return share(key, heap, size);
+            }
+        } finally {
+            if (!keepDisk) {
+                disk.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the on-disk copy of a snapshot that is too large for the heap
+     * ("&lt;snapshot&gt;.index" next to it). The snapshot is only unpacked
+     * when the copy does not match it (call with the lock held), so a copy
+     * that another searcher is reading is not deleted.
+     */
+    private static Directory openUnpacked(Path snapshotFile) throws IOException {
+        Path unpacked = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".index");
+        String version = snapshotVersion(snapshotFile);
+        Path versionFile = unpacked.resolve(UNPACKED_VERSION_FILE);
+        FSDirectory disk = FSDirectory.open(unpacked);
+        try {
+            if (Files.isRegularFile(versionFile)
+                    && version.equals(new String(Files.readAllBytes(versionFile), StandardCharsets.UTF_8))) {
+                System.err.println("Warning: using on-disk copy of snapshot " + snapshotFile + " at " + unpacked);
+                return disk;
+            }
+            System.err.println("Warning: unpacking snapshot " + snapshotFile + " to " + unpacked);
+            // The version is written last, so an interrupted unpack is redone
+            Files.deleteIfExists(versionFile);
+            for (String file : disk.listAll()) {
+                disk.deleteFile(file);
+            }
+            IndexSnapshot.restore(snapshotFile, disk);
+            Files.write(versionFile, version.getBytes(StandardCharsets.UTF_8));
+            return disk;
+        } catch (IOException | RuntimeException e) {
+            disk.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Identifies a snapshot file by its length and checksum (its last 8 bytes).
+     */
+    private static String snapshotVersion(Path snapshotFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Long.BYTES) {
+                throw new IOException("Not an index snapshot: " + snapshotFile);
+            }
+            ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES);
+            while (checksum.hasRemaining()) {
+                if (channel.read(checksum, size - Long.BYTES + checksum.position()) < 0) {
+                    throw new EOFException("Truncated index snapshot: " + snapshotFile);
+                }
+            }
+            checksum.flip();
+            return size + ":" + Long.toHexString(checksum.getLong());
+        }
+    }
+
+    /**
+     * Checks the size guard against all in-heap copies (call with the lock held).
+     */
+    private boolean fitsInHeap(Path path, long size) {
+        if (sharedHeapBytes + size <= maxHeapBytes) {
+            return true;
+        }
+        System.err.println("Warning: index " + path + " (" + size / (1024 * 1024)
+            + " MB) plus " + sharedHeapBytes / (1024 * 1024) + " MB already in the heap exceeds the heap limit of "
+            + maxHeapBytes / (1024 * 1024) + " MB; reading from disk.");
+        return false;
+    }
+
+    /**
+     * Registers a new in-heap copy and returns the first handle to it (call with the lock held).
+     */
+    private static Directory share(String key, ByteBuffersDirectory heap, long size) {
+        SharedHeap shared = new SharedHeap(key, heap, size);
+        SHARED_HEAP.put(key, shared);
+        sharedHeapBytes += size;
+        return shared.acquire();
+    }
+
+    /**
+     * One in-heap copy and the number of open handles to it.
+     */
+    private static final class SharedHeap {
+        final String key;
+        final ByteBuffersDirectory directory;
+        final long size;
+        int handles;
+
+        SharedHeap(String key, ByteBuffersDirectory directory, long size) {
+            this.key = key;
+            this.directory = directory;
+            this.size = size;
+        }
+
+        Directory acquire() {
+            handles++;
+            return new HeapHandle(this);
+        }
+
+        void release() throws IOException {
+            synchronized (SHARED_HEAP) {
+                if (--handles > 0) {
+                    return;
+                }
+                SHARED_HEAP.remove(key);
+                sharedHeapBytes -= size;
+            }
+            directory.close();
+        }
+    }
+
+    /**
+     * Directory of one searcher over a shared in-heap copy; closing it
+     * releases the copy once no other searcher uses it.
+     */
+    private static final class HeapHandle extends FilterDirectory {
+        private final SharedHeap shared;
+        private boolean closed;
+
+        HeapHandle(SharedHeap shared) {
+            super(shared.directory);
+            this.shared = shared;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                shared.release();
+            }
+        }
+    }
+
+    private boolean shouldPreload(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && preloadExtensions.contains(fileName.substring(dot + 1));
+    }
+
+    /**
+     * Gets the number of bytes memory-mapped for the given directory
+     * (the size of the files of the latest commit, which an open reader maps;
+     * 0 for non-mmap directories). Other files in the directory, such as the
+     * lock, snapshots or the overview store, are not counted.
+     */
+    public static long mappedBytes(Directory directory) throws IOException {
+        if (!(directory instanceof MMapDirectory)) {
+            return 0;
+        }
+        long total = 0;
+        for (String file : commitFiles(directory)) {
+            total += directory.fileLength(file);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the files of the latest commit, including its segments file.
+     */
+    private static Collection<String> commitFiles(Directory directory) throws IOException {
+        return SegmentInfos.readLatestCommit(directory).files(true);
+    }
+
+    /**
+     * Gets the number of bytes that this configuration preloads in the given directory
+     * (for an in-heap directory: the heap memory it uses).
+     */
+    public long preloadedBytes(Directory directory) throws IOException {
+        if (FilterDirectory.unwrap(directory) instanceof ByteBuffersDirectory) {
+            long total = 0;
+            for (String file : directory.listAll()) {
+                total += directory.fileLength(file);
+            }
+            return total;
+        }
+        if (type != Type.MMAP) {
+            return 0;
+        }
+        long total = 0;
+        for (String file : commitFiles(directory)) {
+            if (preloadAll || shouldPreload(file)) {
+                total += directory.fileLength(file);
+            }
+        }
+        return total;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.HEAP) {
+            return "heap(max=" + maxHeapBytes / (1024 * 1024) + " MB)";
+        }
+        if (type != Type.MMAP) {
+            return type.name().toLowerCase(Locale.ROOT);
+        }
+        if (preloadAll) {
+            return "mmap(preload=all)";
+        }
+        return preloadExtensions.isEmpty()
+            ? "mmap(preload=none)"
+            : "mmap(preload=" + String.join(",", new TreeSet<>(preloadExtensions)) + ")";
+    }
+}
@@ -0,0 +1,201 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Offline text embedder based on hashed TF-IDF projection.
+ * Each analyzed token is hashed into one of {@code dimension} buckets with a
+ * hashed sign; bucket weights are sublinear TF times a bucket-level IDF learned
+ * from the corpus at index time. Vectors are L2-normalized, so cosine similarity
+ * approximates TF-IDF cosine over the original vocabulary. No model files or
+ * network access are needed.
+ *
+ * The IDF statistics are persisted in the index commit user data so the
+ * search side can embed queries with exactly the same weights.
+ */
+public class HashingEmbedder {
+    public static final int DEFAULT_DIMENSION = 256;
+
+    private static final String COMMIT_KEY_DIMENSION = "embedding.dimension";
+    private static final String COMMIT_KEY_DOC_COUNT = "embedding.docCount";
+    private static final String COMMIT_KEY_DOC_FREQS = "embedding.docFreqs";
+    private static final int BUCKET_SEED = 0x9747b28c;
+    private static final int SIGN_SEED = 0x5bd1e995;
+
+    private final int dimension;
+    private final int[] docFreqs;
+    private final Analyzer analyzer;
+    private int docCount;
+
+    public HashingEmbedder(int dimension) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.docFreqs = new int[dimension];
+        this.analyzer = new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+    }
+
+    /**
+     * Restores an embedder from the statistics stored in an index commit.
+     *
+     * @param commitData Commit user data of the index
+     * @return The embedder, or null if the index has no embedding statistics
+     */
+    public static HashingEmbedder fromCommitData(Map<String, String> commitData) {
+        String dimension = commitData.get(COMMIT_KEY_DIMENSION);
+        String docCount = commitData.get(COMMIT_KEY_DOC_COUNT);
+        String docFreqs = commitData.get(COMMIT_KEY_DOC_FREQS);
+        if (dimension == null || docCount == null || docFreqs == null) {
+            return null;
+        }
+
+        HashingEmbedder embedder = new HashingEmbedder(Integer.parseInt(dimension));
+        embedder.docCount = Integer.parseInt(docCount);
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(docFreqs));
+        for (int i = 0; i < embedder.dimension; i++) {
+            embedder.docFreqs[i] = buffer.getInt();
+        }
+        return embedder;
+    }
+
+    /**
+     * Serializes the IDF statistics for storage in the index commit user data.
+     */
+    public Map<String, String> toCommitData() {
+        ByteBuffer buffer = ByteBuffer.allocate(dimension * Integer.BYTES);
+        for (int docFreq : docFreqs) {
+            buffer.putInt(docFreq);
+        }
+
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(COMMIT_KEY_DIMENSION, Integer.toString(dimension));
+        commitData.put(COMMIT_KEY_DOC_COUNT, Integer.toString(docCount));
+        commitData.put(COMMIT_KEY_DOC_FREQS, Base64.getEncoder().encodeToString(buffer.array()));
+        return commitData;
+    }
+
+    /**
+     * Adds a document to the bucket document-frequency statistics.
+     * Must be called for every document before embedding at index time.
+     */
+    public void addToStatistics(String text) throws IOException {
+        Set<Integer> buckets = new HashSet<>();
+        for (String token : tokenize(text).keySet()) {
+            buckets.add(bucket(token));
+        }
+        for (int bucket : buckets) {
+            docFreqs[bucket]++;
+        }
+        docCount++;
+    }
+
+    /**
+     * Replaces the statistics with those of another embedder of the same
+     * dimension, e.g. statistics computed once for all shards of an index.
+     */
+    public void setStatistics(HashingEmbedder statistics) {
+        if (statistics.dimension != dimension) {
+            throw new IllegalArgumentException("Dimension " + statistics.dimension + " instead of " + dimension);
+        }
+        System.arraycopy(statistics.docFreqs, 0, docFreqs, 0, dimension);
+        docCount = statistics.docCount;
+    }
+
+    /**
+     * Clears the statistics, e.g. before building an index again.
+     */
+    public void resetStatistics() {
+        Arrays.fill(docFreqs, 0);
+        docCount = 0;
+    }
+
+    /**
+     * Embeds text into a normalized vector.
+     *
+     * @param text Text to embed
+     * @return The vector, or null if the text contains no indexable tokens
+     */
+    public float[] embed(String text) throws IOException {
+        Map<String, Integer> termFreqs = tokenize(text);
+        if (termFreqs.isEmpty()) {
+            return null;
+        }
+
+        float[] vector = new float[dimension];
+        for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+            int bucket = bucket(entry.getKey());
+            double tf = 1.0 + Math.log(entry.getValue());
+            double idf = Math.log((1.0 + docCount) / (1.0 + docFreqs[bucket])) + 1.0;
+            vector[bucket] += (float) (sign(entry.getKey()) * tf * idf);
+        }
+
+        double norm = 0.0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm == 0.0) {
+            return null;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < dimension; i++) {
+            vector[i] /= norm;
+        }
+        return vector;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Analyzes text into term frequencies.
+     */
+    private Map<String, Integer> tokenize(String text) throws IOException {
+        Map<String, Integer> termFreqs = new HashMap<>();
+        if (text == null || text.isEmpty()) {
+            return termFreqs;
+        }
+        try (TokenStream stream = analyzer.tokenStream("", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                termFreqs.merge(term.toString(), 1, Integer::sum);
+            }
+            stream.end();
+        }
+        return termFreqs;
+    }
+
+    private int bucket(String token) {
+        return Math.floorMod(hash(token, BUCKET_SEED), dimension);
+    }
+
+    private static int sign(String token) {
+        return (hash(token, SIGN_SEED) & 1) == 0 ? 1 : -1;
+    }
+
+    private static int hash(String token, int seed) {
+        BytesRef bytes = new BytesRef(token);
+        return StringHelper.murmurhash3_x86_32(bytes.bytes, bytes.offset, bytes.length, seed);
+    }
+
+    public void close() {
+        analyzer.close();
+    }
+}
@@ -0,0 +1,147 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The settings an index was built with: the document schema version, whether
+ * the prefix and shingle subfields were indexed, the storage profile and the
+ * number of shards. They are recorded in the index commit user data next to
+ * the {@link DatasetFingerprint}, so an existing index is only reused if it
+ * was built from the same data <em>and</em> with the same settings.
+ */
+public final class IndexSettings {
+    /**
+     * Version of the document layout written by {@link MovieIndexer};
+     * increase it whenever fields are added, removed or indexed differently.
+     * 2: genre doc values for facet counting.
+     */
+    public static final int SCHEMA_VERSION = 2;
+
+    static final String COMMIT_SCHEMA_VERSION = "index.schemaVersion";
+    static final String COMMIT_SUBFIELDS = "index.subfields";
+
+    private final int schemaVersion;
+    private final boolean subfields;
+    private final StorageProfile storageProfile;
+    private final int shardCount;
+
+    /**
+     * Describes an index built by this version of the indexer.
+     *
+     * @param subfields Whether title and cast are indexed into the subfields
+     * @param storageProfile Stored-field compression and overview storage
+     * @param shardCount Number of shards (1 = not sharded)
+     */
+    public IndexSettings(boolean subfields, StorageProfile storageProfile, int shardCount) {
+        this(SCHEMA_VERSION, subfields, storageProfile, shardCount);
+    }
+
+    private IndexSettings(int schemaVersion, boolean subfields, StorageProfile storageProfile,
+                         int shardCount) {
+        this.schemaVersion = schemaVersion;
+        this.subfields = subfields;
+        this.storageProfile = storageProfile;
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Gets the settings an index would be built with now: subfields and storage
+     * profile from the system properties.
+     *
+     * @param shardCount Number of shards (1 = not sharded)
+     */
+    public static IndexSettings fromSystemProperties(int shardCount) {
+        return new IndexSettings(Boolean.getBoolean(MovieIndexer.PROPERTY_SUBFIELDS),
+            StorageProfile.fromSystemProperties(), shardCount);
+    }
+
+    /**
+     * Reads the settings recorded in an index commit (indexes from before the
+     * schema version was recorded get version 0, so they never match).
+     */
+    public static IndexSettings fromCommitData(Map<String, String> commitData) {
+        return new IndexSettings(
+            Integer.parseInt(commitData.getOrDefault(COMMIT_SCHEMA_VERSION, "0")),
+            Boolean.parseBoolean(commitData.get(COMMIT_SUBFIELDS)),
+            StorageProfile.fromCommitData(commitData),
+            Integer.parseInt(commitData.getOrDefault(ShardedIndexer.COMMIT_SHARD_COUNT, "1")));
+    }
+
+    /**
+     * Reads the settings of an existing index (for a sharded index, of one of its shards).
+     *
+     * @return The settings, or null if there is no index
+     */
+    public static IndexSettings fromIndex(Path indexDirectory) throws IOException {
+        if (!Files.isDirectory(indexDirectory)) {
+            return null;
+        }
+        try (Directory directory = FSDirectory.open(indexDirectory)) {
+            if (!DirectoryReader.indexExists(directory)) {
+                return null;
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                return fromCommitData(reader.getIndexCommit().getUserData());
+            }
+        }
+    }
+
+    /**
+     * Gets the commit user data that records these settings (the shard count
+     * is recorded by the indexer together with the shard number).
+     */
+    public Map<String, String> toCommitData() {
+        Map<String, String> data = new HashMap<>(storageProfile.toCommitData());
+        data.put(COMMIT_SCHEMA_VERSION, Integer.toString(schemaVersion));
+        data.put(COMMIT_SUBFIELDS, Boolean.toString(subfields));
+        return data;
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public boolean isSubfields() {
+        return subfields;
+    }
+
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof IndexSettings)) {
+            return false;
+        }
+        IndexSettings that = (IndexSettings) other;
+        return schemaVersion == that.schemaVersion
+            && subfields == that.subfields
+            && storageProfile.equals(that.storageProfile)
+            && shardCount == that.shardCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(schemaVersion, subfields, storageProfile, shardCount);
+    }
+
+    @Override
+    public String toString() {
+        return "schema " + schemaVersion + ", " + storageProfile
+            + (subfields ? ", subfields" : "") + (shardCount > 1 ? ", " + shardCount + " shards" : "");
+    }
+}
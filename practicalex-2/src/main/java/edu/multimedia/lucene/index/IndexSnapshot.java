@@ -0,0 +1,143 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persists an index as a single snapshot file and restores it into any
+ * {@link Directory} (typically an in-heap ByteBuffersDirectory).
+ * Only the files of the latest commit are written, so the snapshot is
+ * always a consistent point-in-time copy.
+ *
+ * Format: magic, version, file count, then per file its name, length and
+ * bytes, followed by a CRC32 of everything before it.
+ */
+public final class IndexSnapshot {
+    private static final int MAGIC = 0x4D534E50; // "MSNP"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Writes the latest commit of a directory to a snapshot file.
+     *
+     * @param source Index to snapshot
+     * @param snapshotFile Target file (replaced if it exists)
+     * @return Number of index bytes written
+     * @throws IOException If the index cannot be read or the file written
+     */
+    public static long save(Directory source, Path snapshotFile) throws IOException {
+        List<IndexCommit> commits = DirectoryReader.listCommits(source);
+        Collection<String> files = commits.get(commits.size() - 1).getFileNames();
+
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        long total = 0;
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(files.size());
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (String file : files) {
+                try (IndexInput input = source.openInput(file, IOContext.READONCE)) {
+                    long length = input.length();
+                    out.writeUTF(file);
+                    out.writeLong(length);
+                    for (long remaining = length; remaining > 0; ) {
+                        int chunk = (int) Math.min(buffer.length, remaining);
+                        input.readBytes(buffer, 0, chunk);
+                        out.write(buffer, 0, chunk);
+                        remaining -= chunk;
+                    }
+                    total += length;
+                }
+            }
+            // Checksum of everything written so far (evaluated before it is written)
+            out.writeLong(crc.getValue());
+        }
+
+        // Replace the previous snapshot only once the new one is complete
+        Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        return total;
+    }
+
+    /**
+     * Restores a snapshot file into a directory.
+     *
+     * @param snapshotFile Snapshot written by {@link #save}
+     * @param target Empty directory to restore into
+     * @throws IOException If the file is not a valid snapshot or is corrupted
+     */
+    public static void restore(Path snapshotFile, Directory target) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshotFile), BUFFER_SIZE), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an index snapshot: " + snapshotFile);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + snapshotFile);
+            }
+
+            int fileCount = in.readInt();
+            List<String> restored = new ArrayList<>(fileCount);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int i = 0; i < fileCount; i++) {
+                String file = in.readUTF();
+                long length = in.readLong();
+                try (IndexOutput output = target.createOutput(file, IOContext.DEFAULT)) {
+                    for (long remaining = length; remaining > 0; ) {
+                        int chunk = (int) Math.min(buffer.length, remaining);
+                        in.readFully(buffer, 0, chunk);
+                        output.writeBytes(buffer, 0, chunk);
+                        remaining -= chunk;
+                    }
+                }
+                restored.add(file);
+            }
+
+            long expected = crc.getValue();
+            long actual = in.readLong();
+            if (actual != expected) {
+                throw new IOException("Index snapshot is corrupted (checksum mismatch): " + snapshotFile);
+            }
+            target.sync(restored);
+        }
+    }
+
+    /**
+     * Gets the size of the index files of the latest commit in a directory.
+     */
+    public static long commitSize(Directory directory) throws IOException {
+        List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+        long total = 0;
+        for (String file : commits.get(commits.size() - 1).getFileNames()) {
+            total += directory.fileLength(file);
+        }
+        return total;
+    }
+}
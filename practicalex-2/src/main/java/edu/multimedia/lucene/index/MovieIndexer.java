@@ -0,0 +1,510 @@
+package edu.multimedia.lucene.index;
+
+import edu.multimedia.lucene.model.Movie;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.shingle.ShingleFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Creates and manages the Lucene index for movie data.
+ * Text fields are analyzed with the StandardAnalyzer; numeric fields are
+ * indexed as points (for range filters), stored (for display) and as doc
+ * values (for sorting and rescoring without loading stored fields).
+ * Overview, genres and cast store term vectors so "more like this" queries
+ * can be generated without re-analyzing stored text. The overview also
+ * stores offsets in its postings for snippet highlighting.
+ * Title and overview are additionally embedded into a dense vector stored in
+ * an HNSW graph for semantic (kNN) search.
+ *
+ * Optionally ({@link #setSubfieldsEnabled}, or {@code -Dmovies.index.subfields=true}),
+ * title and cast are also indexed into two subfields, analyzed per field
+ * through an analyzer wrapper:
+ * <ul>
+ *   <li>"&lt;field&gt;.prefix": edge n-grams of every word (1 to
+ *       {@value #PREFIX_MAX_GRAM} characters), so a prefix query is one term lookup</li>
+ *   <li>"&lt;field&gt;.shingle": every pair of adjacent words, so a two-word
+ *       phrase query is one term lookup</li>
+ * </ul>
+ * Queries are routed to the subfields by {@code SubfieldRouter}.
+ *
+ * The {@link StorageProfile} (by default from system properties) selects the
+ * stored-field compression and whether the overview is stored in the index
+ * or only indexed, with its text written to an {@link OverviewStore}.
+ *
+ * An indexer can also build one shard of a partitioned index
+ * ({@link #setShard}, see {@link ShardedIndexer}): it then indexes only the
+ * movies whose IMDB ID hashes to its shard, but uses embedding statistics
+ * over all movies so vectors are comparable across shards (computed once for
+ * all shards, {@link #computeEmbeddingStatistics}, or else by each shard).
+ */
+public class MovieIndexer {
+    // Field names
+    public static final String FIELD_IMDB_ID = "imdbId";
+    public static final String FIELD_TITLE = "title";
+    public static final String FIELD_OVERVIEW = "overview";
+    public static final String FIELD_TAGLINE = "tagline";
+    public static final String FIELD_CAST = "cast";
+    public static final String FIELD_GENRES = "genres";
+    public static final String FIELD_YEAR = "year";
+    public static final String FIELD_RATING = "rating";
+    public static final String FIELD_RUNTIME = "runtime";
+    public static final String FIELD_VECTOR = "vector";
+    /** Doc values only: one value per genre word, for counting genre facets. */
+    public static final String FIELD_GENRE_FACETS = "genres.facets";
+
+    // Optional subfields of title and cast
+    public static final String PREFIX_SUFFIX = ".prefix";
+    public static final String SHINGLE_SUFFIX = ".shingle";
+    public static final String[] SUBFIELD_SOURCES = {FIELD_TITLE, FIELD_CAST};
+    public static final int PREFIX_MIN_GRAM = 1;
+    public static final int PREFIX_MAX_GRAM = 10;
+    public static final String PROPERTY_SUBFIELDS = "movies.index.subfields";
+
+    /** Commit data key of the time the commit was made (milliseconds since the epoch). */
+    public static final String COMMIT_TIME = "commit.time";
+
+    /** Edge n-grams: only whether a document has the prefix matters. */
+    private static final FieldType PREFIX_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        PREFIX_TYPE.setIndexOptions(IndexOptions.DOCS);
+        PREFIX_TYPE.setOmitNorms(true);
+        PREFIX_TYPE.freeze();
+    }
+
+    /** Shingles: frequencies and norms, so phrase matches are still scored by BM25. */
+    private static final FieldType SHINGLE_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        SHINGLE_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        SHINGLE_TYPE.freeze();
+    }
+
+    /** Analyzed, stored text with term vectors (for "more like this"). */
+    private static final FieldType TEXT_WITH_TERM_VECTORS = new FieldType(TextField.TYPE_STORED);
+    static {
+        TEXT_WITH_TERM_VECTORS.setStoreTermVectors(true);
+        TEXT_WITH_TERM_VECTORS.freeze();
+    }
+
+    /** Overview: term vectors plus offsets in the postings (for highlighting). */
+    private static final FieldType OVERVIEW_TYPE = new FieldType(TEXT_WITH_TERM_VECTORS);
+    static {
+        OVERVIEW_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        OVERVIEW_TYPE.freeze();
+    }
+
+    /** Overview kept in the external store: indexed exactly like OVERVIEW_TYPE, not stored. */
+    private static final FieldType OVERVIEW_INDEXED_TYPE = new FieldType(OVERVIEW_TYPE);
+    static {
+        OVERVIEW_INDEXED_TYPE.setStored(false);
+        OVERVIEW_INDEXED_TYPE.freeze();
+    }
+
+    private final Directory directory;
+    private final boolean ownsDirectory;
+    private final Analyzer analyzer;
+    private final IndexWriter writer;
+    private final HashingEmbedder embedder;
+    private final StorageProfile storageProfile;
+    private OverviewStore.Writer overviewWriter;
+    private HashingEmbedder embeddingStatistics;
+    private boolean subfieldsEnabled = Boolean.getBoolean(PROPERTY_SUBFIELDS);
+    private int shard = 0;
+    private int shardCount = 1;
+
+    public MovieIndexer(Path indexDirectory) throws IOException {
+        this(indexDirectory, StorageProfile.fromSystemProperties());
+    }
+
+    /**
+     * @param indexDirectory Index location
+     * @param storageProfile Stored-field compression and overview storage
+     */
+    public MovieIndexer(Path indexDirectory, StorageProfile storageProfile) throws IOException {
+        this(FSDirectory.open(indexDirectory), true, storageProfile);
+    }
+
+    /**
+     * Builds the index into an existing directory, e.g. an in-heap
+     * ByteBuffersDirectory. The directory is not closed by {@link #close()}.
+     *
+     * @throws IllegalArgumentException If the storage profile keeps overviews in
+     *         the external store but the directory is not in the file system, where
+     *         the searchers look for the store
+     */
+    public MovieIndexer(Directory directory) throws IOException {
+        this(directory, false, StorageProfile.fromSystemProperties());
+    }
+
+    private MovieIndexer(Directory directory, boolean ownsDirectory, StorageProfile storageProfile) 
+            throws IOException {
+        if (storageProfile.isOverviewExternal() && !(FilterDirectory.unwrap(directory) instanceof FSDirectory)) {
+            throw new IllegalArgumentException("The storage profile " + storageProfile
+                + " keeps overviews outside the index, which needs an index in the file system");
+        }
+        this.directory = directory;
+        this.ownsDirectory = ownsDirectory;
+        this.storageProfile = storageProfile;
+        this.analyzer = createAnalyzer();
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setCodec(storageProfile.codec());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        // Keep per-format files (terms, doc values, ...) separate instead of packing
+        // small segments into compound files, so they can be preloaded selectively
+        config.setUseCompoundFile(false);
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setNoCFSRatio(0.0);
+        config.setMergePolicy(mergePolicy);
+        this.writer = new IndexWriter(directory, config);
+        this.embedder = new HashingEmbedder(HashingEmbedder.DEFAULT_DIMENSION);
+    }
+
+    /**
+     * Creates the analyzer: StandardAnalyzer, except for the subfields.
+     */
+    private static Analyzer createAnalyzer() {
+        Analyzer prefixAnalyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new StandardTokenizer();
+                TokenStream stream = new LowerCaseFilter(tokenizer);
+                // Words longer than the largest n-gram are also indexed whole
+                stream = new EdgeNGramTokenFilter(stream, PREFIX_MIN_GRAM, PREFIX_MAX_GRAM, true);
+                return new TokenStreamComponents(tokenizer, stream);
+            }
+        };
+        Analyzer shingleAnalyzer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new StandardTokenizer();
+                ShingleFilter stream = new ShingleFilter(new LowerCaseFilter(tokenizer), 2, 2);
+                stream.setOutputUnigrams(false);
+                return new TokenStreamComponents(tokenizer, stream);
+            }
+        };
+
+        Map<String, Analyzer> subfieldAnalyzers = new HashMap<>();
+        for (String field : SUBFIELD_SOURCES) {
+            subfieldAnalyzers.put(field + PREFIX_SUFFIX, prefixAnalyzer);
+            subfieldAnalyzers.put(field + SHINGLE_SUFFIX, shingleAnalyzer);
+        }
+        return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), subfieldAnalyzers);
+    }
+
+    /**
+     * Sets whether title and cast are also indexed into the prefix and shingle
+     * subfields (default: system property {@value #PROPERTY_SUBFIELDS}).
+     */
+    public void setSubfieldsEnabled(boolean subfieldsEnabled) {
+        this.subfieldsEnabled = subfieldsEnabled;
+    }
+
+    /**
+     * Makes this indexer build one shard of a partitioned index: only movies
+     * with {@code ShardedIndexer.shardOf(imdbId, shardCount) == shard} are indexed.
+     *
+     * @param shard Shard number (0 to shardCount - 1)
+     * @param shardCount Number of shards
+     */
+    public void setShard(int shard, int shardCount) {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shard + " of " + shardCount);
+        }
+        this.shard = shard;
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Computes the embedding statistics (bucket document frequencies) over all
+     * indexable movies, to be shared by the indexers of several shards
+     * ({@link #setEmbeddingStatistics}). The caller closes the returned embedder.
+     */
+    public static HashingEmbedder computeEmbeddingStatistics(Iterable<Movie> movies) throws IOException {
+        HashingEmbedder statistics = new HashingEmbedder(HashingEmbedder.DEFAULT_DIMENSION);
+        Iterator<Movie> iterator = movies.iterator();
+        try {
+            while (iterator.hasNext()) {
+                Movie movie = iterator.next();
+                if (isIndexable(movie)) {
+                    statistics.addToStatistics(embeddingText(movie));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            statistics.close();
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            statistics.close();
+            throw e;
+        } finally {
+            close(iterator);
+        }
+        return statistics;
+    }
+
+    /**
+     * Uses embedding statistics computed beforehand over all movies
+     * ({@link #computeEmbeddingStatistics}) instead of computing them in
+     * {@link #createIndex}, which then iterates the movies only once.
+     *
+     * @param statistics Statistics (null = compute them while indexing)
+     */
+    public void setEmbeddingStatistics(HashingEmbedder statistics) {
+        this.embeddingStatistics = statistics;
+    }
+
+    /**
+     * Creates the index from movies, replacing any existing index.
+     *
+     * @param movies Movies to index
+     * @throws IOException If indexing fails
+     */
+    public void createIndex(Iterable<Movie> movies) throws IOException {
+        createIndex(movies, null);
+    }
+
+    /**
+     * Creates the index from movies, replacing any existing index, and
+     * records the dataset fingerprint in the commit so the index can be
+     * reused on the next start.
+     *
+     * The movies are iterated twice (embedding statistics, unless they were
+     * {@linkplain #setEmbeddingStatistics set}, then documents) and not kept, so
+     * they can be streamed from a file of any size ({@code JsonlReader.streamMovies});
+     * iterators that are {@link Closeable} are closed.
+     *
+     * @param movies Movies to index
+     * @param fingerprint Fingerprint of the source dataset (null = none)
+     * @throws IOException If indexing fails
+     */
+    public void createIndex(Iterable<Movie> movies, DatasetFingerprint fingerprint) throws IOException {
+        String target = shardCount > 1 ? " into shard " + shard + " of " + shardCount : "";
+        String count = movies instanceof Collection ? ((Collection<?>) movies).size() + " " : "";
+        System.out.println("Indexing " + count + "movies" + target + "...");
+
+        Iterator<Movie> iterator = null;
+        try {
+            // First pass: collect the IDF statistics for the embeddings (over all shards),
+            // from scratch if the indexer is used again
+            embedder.resetStatistics();
+            if (embeddingStatistics != null) {
+                embedder.setStatistics(embeddingStatistics);
+            } else {
+                iterator = movies.iterator();
+                while (iterator.hasNext()) {
+                    Movie movie = iterator.next();
+                    if (isIndexable(movie)) {
+                        embedder.addToStatistics(embeddingText(movie));
+                    }
+                }
+                close(iterator);
+            }
+
+            // Overviews kept outside the index go to the store as the documents are added
+            overviewWriter = storageProfile.isOverviewExternal() ? OverviewStore.writer(directory) : null;
+            int indexed = 0;
+            iterator = movies.iterator();
+            while (iterator.hasNext()) {
+                Movie movie = iterator.next();
+                // Only add movies with the required fields
+                if (!isIndexable(movie) || !isInShard(movie)) {
+                    continue;
+                }
+                writer.addDocument(createDocument(movie));
+                indexed++;
+            }
+            commit(indexed, fingerprint, target);
+        } catch (UncheckedIOException e) {
+            // Reading the movies failed
+            throw e.getCause();
+        } finally {
+            close(iterator);
+            if (overviewWriter != null) {
+                overviewWriter.close();
+                overviewWriter = null;
+            }
+        }
+    }
+
+    private static void close(Iterator<Movie> iterator) throws IOException {
+        if (iterator instanceof Closeable) {
+            ((Closeable) iterator).close();
+        }
+    }
+
+    /**
+     * Finishes the overview store (if any) and commits with the index settings.
+     */
+    private void commit(int indexed, DatasetFingerprint fingerprint, String target) throws IOException {
+        // Persist the embedding statistics so queries are embedded identically
+        Map<String, String> commitData = new HashMap<>(embedder.toCommitData());
+        commitData.putAll(new IndexSettings(subfieldsEnabled, storageProfile, shardCount).toCommitData());
+        if (shardCount > 1) {
+            commitData.put(ShardedIndexer.COMMIT_SHARD, Integer.toString(shard));
+            commitData.put(ShardedIndexer.COMMIT_SHARD_COUNT, Integer.toString(shardCount));
+        }
+        if (fingerprint != null) {
+            commitData.putAll(fingerprint.toCommitData(indexed));
+        }
+
+        // The side store is written before the commit that refers to it, which records its checksum
+        if (overviewWriter != null) {
+            overviewWriter.finish();
+            commitData.putAll(OverviewStore.toCommitData(directory));
+        } else {
+            OverviewStore.delete(directory);
+        }
+        commitData.put(COMMIT_TIME, Long.toString(System.currentTimeMillis()));
+        writer.setLiveCommitData(commitData.entrySet());
+        writer.commit();
+        System.out.println("Indexed " + indexed + " documents" + target
+            + (subfieldsEnabled ? " (with prefix and shingle subfields)" : "")
+            + " with storage profile " + storageProfile + ".");
+    }
+
+    /**
+     * Gets the storage profile the index is built with.
+     */
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    /**
+     * Writes the committed index to a single snapshot file
+     * (see {@link IndexSnapshot}), e.g. to persist an in-heap index.
+     *
+     * @param snapshotFile Target file
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void saveSnapshot(Path snapshotFile) throws IOException {
+        long bytes = IndexSnapshot.save(directory, snapshotFile);
+        System.out.println(String.format("Saved index snapshot to %s (%.1f MB).", 
+            snapshotFile, bytes / (1024.0 * 1024.0)));
+    }
+
+    private static boolean isIndexable(Movie movie) {
+        return movie.getTitle() != null && !movie.getTitle().isEmpty();
+    }
+
+    private boolean isInShard(Movie movie) {
+        return shardCount == 1 || ShardedIndexer.shardOf(nullToEmpty(movie.getImdbId()), shardCount) == shard;
+    }
+
+    /**
+     * Gets the text that is embedded into the dense vector field.
+     */
+    private static String embeddingText(Movie movie) {
+        return nullToEmpty(movie.getTitle()) + " " + nullToEmpty(movie.getOverview());
+    }
+
+    /**
+     * Converts a movie into a Lucene document.
+     */
+    private Document createDocument(Movie movie) throws IOException {
+        Document doc = new Document();
+
+        // Identifier (not analyzed)
+        doc.add(new StringField(FIELD_IMDB_ID, nullToEmpty(movie.getImdbId()), Field.Store.YES));
+
+        // Full-text fields
+        doc.add(new TextField(FIELD_TITLE, nullToEmpty(movie.getTitle()), Field.Store.YES));
+        if (storageProfile.isOverviewExternal()) {
+            doc.add(new Field(FIELD_OVERVIEW, nullToEmpty(movie.getOverview()), OVERVIEW_INDEXED_TYPE));
+            overviewWriter.add(nullToEmpty(movie.getImdbId()), nullToEmpty(movie.getOverview()));
+        } else {
+            doc.add(new Field(FIELD_OVERVIEW, nullToEmpty(movie.getOverview()), OVERVIEW_TYPE));
+        }
+        doc.add(new TextField(FIELD_TAGLINE, nullToEmpty(movie.getTagline()), Field.Store.YES));
+        doc.add(new Field(FIELD_CAST, nullToEmpty(movie.getCast()), TEXT_WITH_TERM_VECTORS));
+
+        String genres = movie.getGenres() != null ? String.join(" ", movie.getGenres()) : "";
+        doc.add(new Field(FIELD_GENRES, genres, TEXT_WITH_TERM_VECTORS));
+        // One doc value per word, as the genre facets count them (no stored-field lookups)
+        for (String word : genres.split("\\s+")) {
+            if (!word.isEmpty()) {
+                doc.add(new SortedSetDocValuesField(FIELD_GENRE_FACETS, new BytesRef(word)));
+            }
+        }
+
+        // Prefix and phrase subfields (same text, other analyzers)
+        if (subfieldsEnabled) {
+            String[] values = {nullToEmpty(movie.getTitle()), nullToEmpty(movie.getCast())};
+            for (int i = 0; i < SUBFIELD_SOURCES.length; i++) {
+                doc.add(new Field(SUBFIELD_SOURCES[i] + PREFIX_SUFFIX, values[i], PREFIX_TYPE));
+                doc.add(new Field(SUBFIELD_SOURCES[i] + SHINGLE_SUFFIX, values[i], SHINGLE_TYPE));
+            }
+        }
+
+        // Numeric fields: points for range filters, stored for display,
+        // doc values for per-document feature lookups
+        doc.add(new IntPoint(FIELD_YEAR, movie.getYear()));
+        doc.add(new StoredField(FIELD_YEAR, movie.getYear()));
+        doc.add(new NumericDocValuesField(FIELD_YEAR, movie.getYear()));
+
+        doc.add(new DoublePoint(FIELD_RATING, movie.getRating()));
+        doc.add(new StoredField(FIELD_RATING, movie.getRating()));
+        doc.add(new DoubleDocValuesField(FIELD_RATING, movie.getRating()));
+
+        doc.add(new IntPoint(FIELD_RUNTIME, movie.getRuntime()));
+        doc.add(new StoredField(FIELD_RUNTIME, movie.getRuntime()));
+        doc.add(new NumericDocValuesField(FIELD_RUNTIME, movie.getRuntime()));
+
+        // Dense vector for kNN search (skipped when there is nothing to embed)
+        float[] vector = embedder.embed(embeddingText(movie));
+        if (vector != null) {
+            doc.add(new KnnFloatVectorField(FIELD_VECTOR, vector, VectorSimilarityFunction.COSINE));
+        }
+
+        return doc;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Closes the index writer and releases resources.
+     */
+    public void close() throws IOException {
+        writer.close();
+        if (ownsDirectory) {
+            directory.close();
+        }
+        analyzer.close();
+        embedder.close();
+    }
+}
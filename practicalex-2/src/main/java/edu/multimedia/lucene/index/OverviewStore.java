@@ -0,0 +1,409 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.BitUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.OfflineSorter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Side store for movie overviews when the storage profile keeps them out of
+ * the index's stored fields ({@link StorageProfile.Overview#EXTERNAL}).
+ *
+ * The store is a single file, {@value #FILE_NAME}, next to the index files.
+ * Entries are sorted by IMDB ID and the file starts with two offset tables
+ * (keys and texts), so a lookup is a binary search over the memory-mapped
+ * file followed by one uncompressed read; nothing is decompressed or cached
+ * on the heap. Lucene does not manage the file: the indexer rewrites it on
+ * every build, and it is read through its own {@link MMapDirectory} even
+ * when the index itself is opened in heap or NIO mode. A snapshot file
+ * ({@link IndexSnapshot}) does not contain it.
+ *
+ * As the file name is the same for every build, the commit that refers to
+ * the store records its length and footer checksum ({@link #toCommitData});
+ * a store that does not match its commit (rewritten by a newer build, or
+ * replicated only in part) is not opened.
+ */
+public class OverviewStore implements Closeable {
+    public static final String FILE_NAME = "overviews.store";
+    /** Commit data keys of the length and footer checksum of the store the commit refers to. */
+    public static final String COMMIT_LENGTH = "overviews.length";
+    public static final String COMMIT_CHECKSUM = "overviews.checksum";
+
+    private static final String CODEC = "MovieOverviewStore";
+    private static final int VERSION = 0;
+
+    private final Directory directory;
+    private final IndexInput input;
+    private final RandomAccessInput offsets;
+    private final int count;
+    private final long keyTable;
+    private final long textTable;
+
+    private OverviewStore(Directory directory) throws IOException {
+        this.directory = directory;
+        this.input = directory.openInput(FILE_NAME, IOContext.READ);
+        try {
+            CodecUtil.checkHeader(input, CODEC, VERSION, VERSION);
+            this.count = input.readInt();
+            // Checks that the file is complete (the full checksum is left to CheckIndex-style tools)
+            CodecUtil.retrieveChecksum(input);
+            this.offsets = input.randomAccessSlice(0, input.length());
+            this.keyTable = CodecUtil.headerLength(CODEC) + Integer.BYTES;
+            this.textTable = keyTable + (count + 1L) * Long.BYTES;
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts writing the store of an index into its directory, replacing any
+     * previous store once {@link Writer#finish} is called.
+     */
+    public static Writer writer(Directory directory) throws IOException {
+        return new Writer(directory);
+    }
+
+    /**
+     * Writes a store as overviews are added, without keeping them on the heap:
+     * the texts are appended to a temporary file as they come, and only small
+     * (IMDB ID, position) entries are sorted, by Lucene's {@link OfflineSorter},
+     * which works in bounded memory and spills to temporary files in the same
+     * directory. The store is then written in a few sequential passes over the
+     * sorted entries. If an IMDB ID is added twice, the last overview is kept.
+     */
+    public static final class Writer implements Closeable {
+        private static final String TEMP_PREFIX = "overviews";
+        /** Entry: IMDB ID, 0, position and length of the text in the texts file. */
+        private static final int ENTRY_TAIL = 1 + Long.BYTES + Integer.BYTES;
+
+        private final Directory directory;
+        private final IndexOutput texts;
+        private final IndexOutput entries;
+        private final OfflineSorter.ByteSequencesWriter entryWriter;
+        private final List<String> tempFiles = new ArrayList<>();
+        private final byte[] entry = new byte[Short.MAX_VALUE];
+
+        private Writer(Directory directory) throws IOException {
+            this.directory = directory;
+            boolean success = false;
+            IndexOutput textOutput = null;
+            IndexOutput entryOutput = null;
+            try {
+                textOutput = directory.createTempOutput(TEMP_PREFIX, "texts", IOContext.DEFAULT);
+                tempFiles.add(textOutput.getName());
+                entryOutput = directory.createTempOutput(TEMP_PREFIX, "entries", IOContext.DEFAULT);
+                tempFiles.add(entryOutput.getName());
+                success = true;
+            } finally {
+                if (!success) {
+                    IOUtils.closeWhileHandlingException(textOutput, entryOutput);
+                    IOUtils.deleteFilesIgnoringExceptions(directory, tempFiles);
+                }
+            }
+            this.texts = textOutput;
+            this.entries = entryOutput;
+            this.entryWriter = new OfflineSorter.ByteSequencesWriter(entries);
+        }
+
+        /**
+         * Adds the overview of a movie.
+         */
+        public void add(String imdbId, String overview) throws IOException {
+            byte[] key = imdbId.getBytes(StandardCharsets.UTF_8);
+            if (key.length > entry.length - ENTRY_TAIL) {
+                throw new IllegalArgumentException("IMDB ID too long: " + imdbId);
+            }
+            byte[] text = overview.getBytes(StandardCharsets.UTF_8);
+            long position = texts.getFilePointer();
+            texts.writeBytes(text, text.length);
+
+            // The 0 ends the key, so entries sort by key, then by position (order added)
+            System.arraycopy(key, 0, entry, 0, key.length);
+            entry[key.length] = 0;
+            BitUtil.VH_BE_LONG.set(entry, key.length + 1, position);
+            BitUtil.VH_BE_INT.set(entry, key.length + 1 + Long.BYTES, text.length);
+            entryWriter.write(entry, 0, key.length + ENTRY_TAIL);
+        }
+
+        /**
+         * Sorts the entries and writes the store.
+         *
+         * @return Size of the store in bytes
+         */
+        public long finish() throws IOException {
+            CodecUtil.writeFooter(texts);
+            CodecUtil.writeFooter(entries);
+            IOUtils.close(texts, entryWriter);
+            String sorted = new OfflineSorter(directory, TEMP_PREFIX).sort(entries.getName());
+            tempFiles.add(sorted);
+
+            // Pass 1: number of (distinct) entries and the size of the keys
+            long[] totals = new long[2];
+            forEachEntry(sorted, (key, position, length) -> {
+                totals[0]++;
+                totals[1] += key.length;
+            });
+            if (totals[0] > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many overviews: " + totals[0]);
+            }
+            int count = (int) totals[0];
+            long keysStart = CodecUtil.headerLength(CODEC) + Integer.BYTES + 2 * (count + 1L) * Long.BYTES;
+
+            delete(directory);
+            try (IndexOutput output = directory.createOutput(FILE_NAME, IOContext.DEFAULT);
+                 IndexInput textInput = directory.openInput(texts.getName(), IOContext.READONCE)) {
+                CodecUtil.writeHeader(output, CODEC, VERSION);
+                output.writeInt(count);
+                // Passes 2 and 3: the offset tables of keys and texts
+                long[] offset = {keysStart};
+                forEachEntry(sorted, (key, position, length) -> {
+                    output.writeLong(offset[0]);
+                    offset[0] += key.length;
+                });
+                output.writeLong(offset[0]);
+                forEachEntry(sorted, (key, position, length) -> {
+                    output.writeLong(offset[0]);
+                    offset[0] += length;
+                });
+                output.writeLong(offset[0]);
+                // Passes 4 and 5: the keys, then the texts copied from the texts file
+                forEachEntry(sorted, (key, position, length) ->
+                    output.writeBytes(key.bytes, key.offset, key.length));
+                forEachEntry(sorted, (key, position, length) -> {
+                    textInput.seek(position);
+                    output.copyBytes(textInput, length);
+                });
+                CodecUtil.writeFooter(output);
+                return output.getFilePointer();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Reads the sorted entries, skipping all but the last of equal keys.
+         */
+        private void forEachEntry(String sorted, EntryConsumer consumer) throws IOException {
+            try (ChecksumIndexInput input = directory.openChecksumInput(sorted, IOContext.READONCE)) {
+                OfflineSorter.ByteSequencesReader reader = new OfflineSorter.ByteSequencesReader(input, sorted);
+                BytesRefBuilder previous = new BytesRefBuilder();
+                boolean hasPrevious = false;
+                for (BytesRef next = reader.next(); ; next = reader.next()) {
+                    if (hasPrevious && (next == null || !sameKey(previous.get(), next))) {
+                        BytesRef last = previous.get();
+                        int keyLength = last.length - ENTRY_TAIL;
+                        int tail = last.offset + keyLength + 1;
+                        consumer.accept(new BytesRef(last.bytes, last.offset, keyLength),
+                            (long) BitUtil.VH_BE_LONG.get(last.bytes, tail),
+                            (int) BitUtil.VH_BE_INT.get(last.bytes, tail + Long.BYTES));
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    previous.copyBytes(next);
+                    hasPrevious = true;
+                }
+                CodecUtil.checkFooter(input);
+            }
+        }
+
+        private static boolean sameKey(BytesRef a, BytesRef b) {
+            return a.length == b.length && Arrays.equals(a.bytes, a.offset, a.offset + a.length - ENTRY_TAIL,
+                b.bytes, b.offset, b.offset + b.length - ENTRY_TAIL);
+        }
+
+        /**
+         * Deletes the temporary files (the store itself is kept if it was finished).
+         */
+        @Override
+        public void close() throws IOException {
+            IOUtils.closeWhileHandlingException(texts, entryWriter);
+            IOUtils.deleteFilesIgnoringExceptions(directory, tempFiles);
+            tempFiles.clear();
+        }
+
+        private interface EntryConsumer {
+            void accept(BytesRef key, long position, int length) throws IOException;
+        }
+    }
+
+    /**
+     * Gets the commit data that binds the store just written to the commit
+     * that refers to it (its length and footer checksum).
+     */
+    public static Map<String, String> toCommitData(Directory directory) throws IOException {
+        try (IndexInput input = directory.openInput(FILE_NAME, IOContext.READONCE)) {
+            Map<String, String> data = new HashMap<>();
+            data.put(COMMIT_LENGTH, Long.toString(input.length()));
+            data.put(COMMIT_CHECKSUM, Long.toString(CodecUtil.retrieveChecksum(input)));
+            return data;
+        }
+    }
+
+    /**
+     * Checks whether a store file is the one a commit refers to. Commits of
+     * indexes built before the store was recorded match any store.
+     *
+     * @param length Length of the store file
+     * @param checksum Footer checksum of the store file
+     * @param commitData Commit data of the index
+     */
+    public static boolean belongsTo(long length, long checksum, Map<String, String> commitData) {
+        String committedLength = commitData.get(COMMIT_LENGTH);
+        String committedChecksum = commitData.get(COMMIT_CHECKSUM);
+        if (committedLength == null || committedChecksum == null) {
+            return true;
+        }
+        return Long.parseLong(committedLength) == length && Long.parseLong(committedChecksum) == checksum;
+    }
+
+    /**
+     * Deletes the store of an index, if there is one.
+     */
+    public static void delete(Directory directory) throws IOException {
+        if (Arrays.asList(directory.listAll()).contains(FILE_NAME)) {
+            directory.deleteFile(FILE_NAME);
+        }
+    }
+
+    /**
+     * Opens the store of an index if its storage profile keeps the overview
+     * outside the index.
+     *
+     * @param indexDirectory Index location
+     * @param reader Reader of the index (its commit records the storage profile)
+     * @return The store, or null if the overview is stored in the index or the
+     *         store is not available (with a warning)
+     */
+    public static OverviewStore open(Path indexDirectory, IndexReader reader) throws IOException {
+        if (!(reader instanceof DirectoryReader)) {
+            return null;
+        }
+        Map<String, String> commitData = ((DirectoryReader) reader).getIndexCommit().getUserData();
+        if (!StorageProfile.fromCommitData(commitData).isOverviewExternal()) {
+            return null;
+        }
+        if (!Files.isRegularFile(indexDirectory.resolve(FILE_NAME))) {
+            System.err.println("Warning: index " + indexDirectory + " keeps overviews in "
+                + FILE_NAME + ", which is missing; results will have no overview.");
+            return null;
+        }
+        MMapDirectory directory = new MMapDirectory(indexDirectory);
+        OverviewStore store;
+        try {
+            store = new OverviewStore(directory);
+        } catch (IOException | RuntimeException e) {
+            directory.close();
+            throw e;
+        }
+        if (!belongsTo(store.input.length(), CodecUtil.retrieveChecksum(store.input), commitData)) {
+            store.close();
+            System.err.println("Warning: " + FILE_NAME + " of index " + indexDirectory
+                + " does not belong to its commit; results will have no overview.");
+            return null;
+        }
+        return store;
+    }
+
+    /**
+     * Gets the overview of a movie.
+     *
+     * @return The overview, or null if the IMDB ID is unknown
+     */
+    public String get(String imdbId) throws IOException {
+        byte[] key = imdbId.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareKey(middle, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                long start = offsets.readLong(textTable + (long) middle * Long.BYTES);
+                long end = offsets.readLong(textTable + (middle + 1L) * Long.BYTES);
+                byte[] text = new byte[(int) (end - start)];
+                // Clones have their own file pointer, so concurrent lookups do not interfere
+                IndexInput clone = input.clone();
+                clone.seek(start);
+                clone.readBytes(text, 0, text.length);
+                return new String(text, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares the key of an entry with a key, byte by byte (unsigned).
+     */
+    private int compareKey(int entry, byte[] key) throws IOException {
+        long start = offsets.readLong(keyTable + (long) entry * Long.BYTES);
+        long end = offsets.readLong(keyTable + (entry + 1L) * Long.BYTES);
+        int length = (int) (end - start);
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int difference = (offsets.readByte(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Adds the overview to a document loaded from the index, looked up by its IMDB ID.
+     */
+    public void addTo(Document doc) throws IOException {
+        String imdbId = doc.get(MovieIndexer.FIELD_IMDB_ID);
+        String overview = imdbId != null ? get(imdbId) : null;
+        if (overview != null) {
+            doc.add(new StoredField(MovieIndexer.FIELD_OVERVIEW, overview));
+        }
+    }
+
+    /**
+     * Gets the number of overviews in the store.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets the size of the store file in bytes.
+     */
+    public long getSizeInBytes() {
+        return input.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+        directory.close();
+    }
+}
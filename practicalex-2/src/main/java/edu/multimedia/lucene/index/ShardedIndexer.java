@@ -0,0 +1,229 @@
+package edu.multimedia.lucene.index;
+
+import edu.multimedia.lucene.model.Movie;
+import edu.multimedia.lucene.util.FileUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds an index partitioned into N shards: each shard is a complete index
+ * in its own subdirectory ("shard-0", "shard-1", ...) of the index directory,
+ * written by its own {@link MovieIndexer} in parallel. A movie goes to the
+ * shard given by the hash of its IMDB ID ({@link #shardOf}), which does not
+ * depend on the order or the size of the dataset.
+ *
+ * The number of shards can be configured with the system property
+ * {@code movies.shards} (default 1 = a single, unsharded index). Sharded
+ * indexes are searched with {@code ShardedSearcher}.
+ */
+public class ShardedIndexer {
+    public static final String PROPERTY_SHARDS = "movies.shards";
+    public static final String SHARD_PREFIX = "shard-";
+
+    static final String COMMIT_SHARD = "shard";
+    static final String COMMIT_SHARD_COUNT = "shard.count";
+
+    /** Fixed seed: shard assignment must not change between runs. */
+    private static final int HASH_SEED = 0x5EED;
+
+    private final Path indexDirectory;
+    private final int shardCount;
+    private final StorageProfile storageProfile;
+    private boolean subfieldsEnabled = Boolean.getBoolean(MovieIndexer.PROPERTY_SUBFIELDS);
+
+    public ShardedIndexer(Path indexDirectory, int shardCount) {
+        this(indexDirectory, shardCount, StorageProfile.fromSystemProperties());
+    }
+
+    /**
+     * @param indexDirectory Directory that will contain the shard directories
+     * @param shardCount Number of shards (at least 1)
+     * @param storageProfile Storage profile of every shard
+     */
+    public ShardedIndexer(Path indexDirectory, int shardCount, StorageProfile storageProfile) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        this.indexDirectory = indexDirectory;
+        this.shardCount = shardCount;
+        this.storageProfile = storageProfile;
+    }
+
+    /**
+     * Gets the shard count from the system property {@value #PROPERTY_SHARDS} (default 1).
+     */
+    public static int shardCountFromSystemProperties() {
+        return Integer.getInteger(PROPERTY_SHARDS, 1);
+    }
+
+    /**
+     * Gets the shard of a movie: murmur3 hash of the IMDB ID modulo the shard count.
+     */
+    public static int shardOf(String imdbId, int shardCount) {
+        int hash = StringHelper.murmurhash3_x86_32(new BytesRef(imdbId), HASH_SEED);
+        return Math.floorMod(hash, shardCount);
+    }
+
+    /**
+     * Gets the directory of a shard.
+     */
+    public static Path shardPath(Path indexDirectory, int shard) {
+        return indexDirectory.resolve(SHARD_PREFIX + shard);
+    }
+
+    /**
+     * Lists the shard directories of a sharded index, in shard order.
+     *
+     * @return The shard directories; empty if the index is not sharded
+     * @throws IOException If a shard is missing or belongs to another partitioning
+     */
+    public static List<Path> listShards(Path indexDirectory) throws IOException {
+        List<Path> shards = new ArrayList<>();
+        Path first = shardPath(indexDirectory, 0);
+        if (!Files.isDirectory(first)) {
+            return shards;
+        }
+        int shardCount;
+        try (Directory directory = FSDirectory.open(first)) {
+            if (!DirectoryReader.indexExists(directory)) {
+                return shards;
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                shardCount = Integer.parseInt(
+                    reader.getIndexCommit().getUserData().getOrDefault(COMMIT_SHARD_COUNT, "1"));
+            }
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            Path path = shardPath(indexDirectory, shard);
+            if (!Files.isDirectory(path)) {
+                throw new IOException("Shard " + shard + " of " + shardCount + " is missing: " + path);
+            }
+            shards.add(path);
+        }
+        return shards;
+    }
+
+    /**
+     * Sets whether the shards index the prefix and shingle subfields
+     * (default: system property {@value MovieIndexer#PROPERTY_SUBFIELDS}).
+     */
+    public void setSubfieldsEnabled(boolean subfieldsEnabled) {
+        this.subfieldsEnabled = subfieldsEnabled;
+    }
+
+    /**
+     * Creates all shards from movies, replacing any existing index. The
+     * embedding statistics are computed once over all movies and shared by the
+     * shards; then every shard iterates the movies itself for its documents
+     * (see {@link MovieIndexer#createIndex(Iterable, DatasetFingerprint)}), so
+     * they can be streamed from a file.
+     * Shards left over from a partitioning with more shards are deleted, and
+     * so is an unsharded index in the index directory itself (which would
+     * otherwise still be opened by the unsharded searchers).
+     *
+     * @param movies Movies to index
+     * @param fingerprint Fingerprint of the source dataset, recorded in every shard (null = none)
+     * @throws IOException If indexing fails
+     */
+    public void createIndex(Iterable<Movie> movies, DatasetFingerprint fingerprint) throws IOException {
+        Files.createDirectories(indexDirectory);
+        deleteShards(indexDirectory, shardCount);
+        deleteUnshardedIndex(indexDirectory);
+
+        long start = System.nanoTime();
+        HashingEmbedder statistics = MovieIndexer.computeEmbeddingStatistics(movies);
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(shardCount, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> builds = new ArrayList<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                int current = shard;
+                builds.add(executor.submit(() -> {
+                    buildShard(movies, statistics, fingerprint, current);
+                    return null;
+                }));
+            }
+            for (Future<?> build : builds) {
+                build.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Indexing a shard failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            statistics.close();
+        }
+        System.out.println(String.format("Indexed %d shards in %.1f s.",
+            shardCount, (System.nanoTime() - start) / 1e9));
+    }
+
+    private void buildShard(Iterable<Movie> movies, HashingEmbedder statistics,
+                            DatasetFingerprint fingerprint, int shard) throws IOException {
+        MovieIndexer indexer = new MovieIndexer(shardPath(indexDirectory, shard), storageProfile);
+        try {
+            indexer.setSubfieldsEnabled(subfieldsEnabled);
+            indexer.setShard(shard, shardCount);
+            indexer.setEmbeddingStatistics(statistics);
+            indexer.createIndex(movies, fingerprint);
+        } finally {
+            indexer.close();
+        }
+    }
+
+    /**
+     * Deletes the shard directories of an index, e.g. before building an
+     * unsharded index in the same place.
+     */
+    public static void deleteShards(Path indexDirectory) throws IOException {
+        deleteShards(indexDirectory, 0);
+    }
+
+    private static void deleteShards(Path indexDirectory, int firstShard) throws IOException {
+        for (int shard = firstShard; Files.isDirectory(shardPath(indexDirectory, shard)); shard++) {
+            FileUtil.deleteTree(shardPath(indexDirectory, shard));
+        }
+    }
+
+    /**
+     * Deletes the files of an unsharded index (and its overview store) from
+     * the index directory, leaving the shard directories alone.
+     */
+    private static void deleteUnshardedIndex(Path indexDirectory) throws IOException {
+        try (Directory directory = FSDirectory.open(indexDirectory)) {
+            for (String file : directory.listAll()) {
+                boolean indexFile = file.startsWith(IndexFileNames.SEGMENTS)
+                    || file.startsWith(IndexFileNames.PENDING_SEGMENTS)
+                    || file.equals(IndexWriter.WRITE_LOCK_NAME)
+                    || file.equals(OverviewStore.FILE_NAME)
+                    || IndexFileNames.CODEC_FILE_PATTERN.matcher(file).matches();
+                if (indexFile && Files.isRegularFile(indexDirectory.resolve(file))) {
+                    directory.deleteFile(file);
+                }
+            }
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+}
@@ -0,0 +1,156 @@
+package edu.multimedia.lucene.index;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene99.Lucene99Codec;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Selects how the indexer stores the text shown on result pages.
+ * <ul>
+ *   <li>Compression: SPEED (LZ4 stored-field blocks, Lucene's default) or
+ *       SIZE (DEFLATE with a shared dictionary: smaller files, slower
+ *       {@code searcher.doc()})</li>
+ *   <li>Overview: STORED in the index like the other fields, or EXTERNAL:
+ *       only indexed, with the text kept in a side store keyed by IMDB ID
+ *       ({@link OverviewStore}) that is memory-mapped by the searchers, so
+ *       fetching a result page no longer decompresses it</li>
+ * </ul>
+ * Can be configured with the system properties {@code movies.index.compression}
+ * (speed, size) and {@code movies.index.overview} (stored, external). The
+ * profile is recorded in the index commit, so searchers know where to find
+ * the overview.
+ */
+public class StorageProfile {
+    public static final String PROPERTY_COMPRESSION = "movies.index.compression";
+    public static final String PROPERTY_OVERVIEW = "movies.index.overview";
+
+    static final String COMMIT_COMPRESSION = "storage.compression";
+    static final String COMMIT_OVERVIEW = "storage.overview";
+
+    public enum Compression { SPEED, SIZE }
+
+    public enum Overview { STORED, EXTERNAL }
+
+    private final Compression compression;
+    private final Overview overview;
+
+    public StorageProfile(Compression compression, Overview overview) {
+        this.compression = compression;
+        this.overview = overview;
+    }
+
+    /**
+     * Reads the profile from system properties; defaults to speed/stored.
+     */
+    public static StorageProfile fromSystemProperties() {
+        return parse(System.getProperty(PROPERTY_COMPRESSION, "speed"),
+            System.getProperty(PROPERTY_OVERVIEW, "stored"));
+    }
+
+    /**
+     * Parses a profile such as ("size", "external").
+     *
+     * @param compression speed or size
+     * @param overview stored or external
+     */
+    public static StorageProfile parse(String compression, String overview) {
+        return new StorageProfile(
+            parse(Compression.class, compression, "stored-field compression"),
+            parse(Overview.class, overview, "overview storage"));
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> type, String value, String description) {
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + description + ": " + value);
+        }
+    }
+
+    /**
+     * Reads the profile recorded in an index commit (indexes without one
+     * were built with the defaults).
+     */
+    public static StorageProfile fromCommitData(Map<String, String> commitData) {
+        return parse(commitData.getOrDefault(COMMIT_COMPRESSION, "speed"),
+            commitData.getOrDefault(COMMIT_OVERVIEW, "stored"));
+    }
+
+    /**
+     * Reads the profile of an existing index.
+     *
+     * @return The profile, or null if there is no index
+     */
+    public static StorageProfile fromIndex(Path indexDirectory) throws IOException {
+        if (!Files.isDirectory(indexDirectory)) {
+            return null;
+        }
+        try (Directory directory = FSDirectory.open(indexDirectory)) {
+            if (!DirectoryReader.indexExists(directory)) {
+                return null;
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                return fromCommitData(reader.getIndexCommit().getUserData());
+            }
+        }
+    }
+
+    /**
+     * Gets the commit user data that records this profile.
+     */
+    public Map<String, String> toCommitData() {
+        Map<String, String> data = new HashMap<>();
+        data.put(COMMIT_COMPRESSION, compression.name().toLowerCase(Locale.ROOT));
+        data.put(COMMIT_OVERVIEW, overview.name().toLowerCase(Locale.ROOT));
+        return data;
+    }
+
+    /**
+     * Gets the codec that writes stored fields with this profile's compression.
+     */
+    public Codec codec() {
+        return new Lucene99Codec(compression == Compression.SIZE
+            ? Lucene99Codec.Mode.BEST_COMPRESSION
+            : Lucene99Codec.Mode.BEST_SPEED);
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public Overview getOverview() {
+        return overview;
+    }
+
+    public boolean isOverviewExternal() {
+        return overview == Overview.EXTERNAL;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof StorageProfile)) {
+            return false;
+        }
+        StorageProfile profile = (StorageProfile) other;
+        return compression == profile.compression && overview == profile.overview;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * compression.hashCode() + overview.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return compression.name().toLowerCase(Locale.ROOT) + "/" + overview.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,5 +1,7 @@
 package edu.multimedia.lucene.model;
 
+import com.google.gson.annotations.SerializedName;
+
 import java.util.List;
 
 /**
@@ -7,7 +9,8 @@ import java.util.List;
  * This class maps to the JSON structure in the JSONL file.
  */
 public class Movie {
-    private int index;
+    private long index;
+    @SerializedName("imdb_id")
     private String imdbId;
     private String title;
     private String overview;
@@ -23,11 +26,11 @@ public class Movie {
     }
 
     // Getters and Setters
-    public int getIndex() {
+    public long getIndex() {
         return index;
     }
 
-    public void setIndex(int index) {
+    public void setIndex(long index) {
         this.index = index;
     }
 
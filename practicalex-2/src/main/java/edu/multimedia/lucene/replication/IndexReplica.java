@@ -0,0 +1,400 @@
+package edu.multimedia.lucene.replication;
+
+import edu.multimedia.lucene.index.OverviewStore;
+import edu.multimedia.lucene.search.SearchMetrics;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only copy of a primary index, kept up to date by copying the files of
+ * each newly published commit point ({@link ReplicationSource}). Only files
+ * the replica does not have yet are copied; segments shared with the current
+ * commit are reused, so an update costs the size of the new segments rather
+ * than the size of the index.
+ *
+ * An update copies the new files under temporary names and verifies their
+ * checksums, then renames them into place with the segments file last. The
+ * replica directory therefore always holds a complete commit, also for
+ * processes that open it directly (e.g. a SearchServer on the replica path
+ * with {@code movies.server.refresh} set). The overview store is checked
+ * against the checksum its commit recorded, both before it is copied and
+ * whenever it is opened, so a store installed without its segments file (a
+ * crash in between) is never used with the previous commit; the next update
+ * completes the commit. In this process the readers are
+ * switched atomically through a {@link SearcherManager}: searches that
+ * acquired the previous searcher finish on it, and new searches get the new
+ * one. Files of the previous commit are deleted after the switch.
+ *
+ * The lag behind the primary (in commits and in milliseconds since the
+ * newest commit not yet replicated was made) is updated on every check and
+ * exposed with the copy counters as {@link SearchMetrics} gauges. While the
+ * replica runs ({@link #start}, or {@link #main} with an interval) they are
+ * registered with JMX as {@code edu.multimedia.lucene:type=SearchMetrics,name=replica}.
+ *
+ * Reused files only save copying when the primary adds commits to an index
+ * that exists. A full rebuild (the indexers open the index with
+ * {@code OpenMode.CREATE}) writes every segment anew and is copied
+ * completely; rebuilding is kept because the embedding statistics of the
+ * whole corpus change with every dataset, and so do all vectors.
+ *
+ * Usage: IndexReplica primaryIndexPath replicaIndexPath [intervalMillis]
+ * (interval 0 = replicate once and exit)
+ */
+public class IndexReplica implements Closeable {
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    private static final String TEMP_SUFFIX = ".replicating";
+    private static final String WRITE_LOCK = "write.lock";
+
+    private final Directory directory;
+    private final ReplicationSource source;
+    private final SearchMetrics metrics = new SearchMetrics("replica");
+    private volatile SearcherManager searcherManager;
+    private volatile long generation = -1;
+    private volatile long sourceGeneration = -1;
+    private volatile long sourceCommitTimeMillis = -1;
+    private ScheduledExecutorService scheduler;
+    private boolean closed;
+
+    /**
+     * Opens a replica, starting from the commit it already holds (if any).
+     *
+     * @param replicaDirectory Index directory of the replica (created if missing)
+     * @param source Source of the published commits
+     * @throws IOException If the replica directory cannot be opened
+     */
+    public IndexReplica(Path replicaDirectory, ReplicationSource source) throws IOException {
+        Files.createDirectories(replicaDirectory);
+        this.directory = FSDirectory.open(replicaDirectory);
+        this.source = source;
+        if (DirectoryReader.indexExists(directory)) {
+            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+            generation = commits.get(commits.size() - 1).getGeneration();
+            searcherManager = new SearcherManager(directory, null);
+        }
+
+        metrics.gauge("replication_generation", () -> generation);
+        metrics.gauge("replication_lag_generations", this::getGenerationLag);
+        metrics.gauge("replication_lag_millis", this::getLagMillis);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: IndexReplica primaryIndexPath replicaIndexPath [intervalMillis]");
+            System.exit(2);
+        }
+        Path primaryPath = Paths.get(args[0]);
+        Path replicaPath = Paths.get(args[1]);
+        long interval = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_INTERVAL_MILLIS;
+
+        IndexReplica replica = new IndexReplica(replicaPath, new LocalReplicationSource(primaryPath));
+        if (interval <= 0) {
+            try {
+                replica.update();
+                System.out.println(replica);
+            } finally {
+                replica.close();
+            }
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println(replica.getMetrics());
+            try {
+                replica.close();
+            } catch (IOException e) {
+                System.err.println("Error closing replica: " + e.getMessage());
+            }
+        }));
+        replica.getMetrics().registerMBean();
+        System.out.println("Replicating " + primaryPath + " to " + replicaPath
+            + " every " + interval + " ms (lag exposed through JMX).");
+        while (true) {
+            replica.poll();
+            Thread.sleep(interval);
+        }
+    }
+
+    /**
+     * Checks the source for a newer commit in the background.
+     *
+     * @param intervalMillis Time between checks
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "index-replica");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        metrics.registerMBean();
+    }
+
+    /**
+     * Updates the replica, logging instead of throwing failures (they are
+     * retried on the next check).
+     */
+    private void poll() {
+        try {
+            update();
+        } catch (IOException e) {
+            System.err.println("Replication failed at commit " + generation + " (lag "
+                + getGenerationLag() + " commits, " + getLagMillis() + " ms): " + e);
+        }
+    }
+
+    /**
+     * Copies the latest published commit if the replica does not have it yet
+     * and switches the readers to it.
+     *
+     * @return Whether a new commit was installed
+     * @throws IOException If the commit could not be copied; the replica keeps
+     *                     its current commit
+     */
+    public synchronized boolean update() throws IOException {
+        if (closed) {
+            return false;
+        }
+        long start = System.nanoTime();
+        PublishedCommit commit = source.getLatestCommit();
+        if (commit == null) {
+            return false;
+        }
+        sourceGeneration = commit.getGeneration();
+        sourceCommitTimeMillis = commit.getCommitTimeMillis();
+        if (commit.getGeneration() == generation) {
+            return false;
+        }
+        // Whatever the source, the overview store must be the one the commit refers to
+        PublishedCommit.FileInfo store = commit.getFiles().get(OverviewStore.FILE_NAME);
+        if (store != null && !OverviewStore.belongsTo(store.getLength(), store.getChecksum(), commit.getUserData())) {
+            metrics.increment("replication_failures");
+            throw new IOException(OverviewStore.FILE_NAME + " published with commit " + commit.getGeneration()
+                + " does not match the commit");
+        }
+
+        // Copy what is missing under temporary names, so nothing changes until all files are verified
+        Map<String, String> copies = new LinkedHashMap<>();
+        long bytes = 0;
+        int reused = 0;
+        try {
+            for (Map.Entry<String, PublishedCommit.FileInfo> file : commit.getFiles().entrySet()) {
+                String name = file.getKey();
+                if (hasFile(name, file.getValue())) {
+                    reused++;
+                    continue;
+                }
+                String temp = name + TEMP_SUFFIX;
+                deleteIfExists(temp);
+                copies.put(name, temp);
+                source.copyFile(name, directory, temp);
+                verify(temp, file.getValue());
+                bytes += file.getValue().getLength();
+            }
+            directory.sync(copies.values());
+        } catch (IOException e) {
+            metrics.increment("replication_failures");
+            for (String temp : copies.values()) {
+                deleteIfExists(temp);
+            }
+            throw e;
+        }
+
+        // Install the segments file last: until then the previous commit stays the latest one
+        String segmentsTemp = copies.remove(commit.getSegmentsFileName());
+        for (Map.Entry<String, String> copy : copies.entrySet()) {
+            directory.rename(copy.getValue(), copy.getKey());
+        }
+        if (segmentsTemp != null) {
+            directory.rename(segmentsTemp, commit.getSegmentsFileName());
+        }
+        directory.syncMetaData();
+        // Older segments files could otherwise win over the new one (e.g. after a rebuild of the primary)
+        deleteObsoleteFiles(commit, true);
+
+        // Switch the readers
+        if (searcherManager == null) {
+            searcherManager = new SearcherManager(directory, null);
+        } else {
+            searcherManager.maybeRefreshBlocking();
+        }
+        generation = commit.getGeneration();
+        deleteObsoleteFiles(commit, false);
+
+        metrics.time("replicate", start);
+        metrics.increment("replication_updates");
+        metrics.add("replication_files_copied", copies.size() + (segmentsTemp != null ? 1 : 0));
+        metrics.add("replication_files_reused", reused);
+        metrics.add("replication_bytes_copied", bytes);
+        System.out.println(String.format("Replicated %s: copied %d bytes, reused %d files in %.1f ms.",
+            commit, bytes, reused, (System.nanoTime() - start) / 1e6));
+        return true;
+    }
+
+    /**
+     * Whether the replica already has a file with the same length and checksum.
+     */
+    private boolean hasFile(String name, PublishedCommit.FileInfo info) {
+        try (IndexInput input = directory.openInput(name, IOContext.READONCE)) {
+            return input.length() == info.getLength() && CodecUtil.retrieveChecksum(input) == info.getChecksum();
+        } catch (IOException e) {
+            // Missing or truncated: copy it
+            return false;
+        }
+    }
+
+    /**
+     * Checks a copied file against the published length and checksum, reading
+     * it completely, so a file the primary replaced or deleted during the copy
+     * is never installed.
+     */
+    private void verify(String name, PublishedCommit.FileInfo info) throws IOException {
+        try (IndexInput input = directory.openInput(name, IOContext.READONCE)) {
+            if (input.length() != info.getLength()) {
+                throw new IOException("File changed while copying: " + name);
+            }
+            long checksum = CodecUtil.checksumEntireFile(input);
+            if (checksum != info.getChecksum()) {
+                throw new IOException("File changed while copying (checksum mismatch): " + name);
+            }
+        }
+    }
+
+    /**
+     * Deletes the files that do not belong to the installed commit. Files that
+     * cannot be deleted yet (e.g. still open on some platforms) are retried on
+     * the next update.
+     *
+     * @param segmentsOnly Whether to delete only older segments files
+     */
+    private void deleteObsoleteFiles(PublishedCommit commit, boolean segmentsOnly) {
+        Set<String> keep = new HashSet<>(commit.getFiles().keySet());
+        keep.add(WRITE_LOCK);
+        try {
+            for (String file : directory.listAll()) {
+                if (keep.contains(file)
+                        || (segmentsOnly && !file.startsWith(IndexFileNames.SEGMENTS))) {
+                    continue;
+                }
+                try {
+                    directory.deleteFile(file);
+                } catch (IOException e) {
+                    // Retried on the next update
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list replica files: " + e.getMessage());
+        }
+    }
+
+    private void deleteIfExists(String file) throws IOException {
+        if (Arrays.asList(directory.listAll()).contains(file)) {
+            directory.deleteFile(file);
+        }
+    }
+
+    /**
+     * Acquires the searcher of the current commit; it must be released with
+     * {@link #release}.
+     *
+     * @throws IllegalStateException If no commit has been replicated yet
+     */
+    public IndexSearcher acquire() throws IOException {
+        SearcherManager manager = searcherManager;
+        if (manager == null) {
+            throw new IllegalStateException("No commit has been replicated yet");
+        }
+        return manager.acquire();
+    }
+
+    public void release(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Gets the generation of the installed commit, or -1 if there is none.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets the number of commits the replica is behind the primary, as of the
+     * last check (0 = up to date).
+     */
+    public long getGenerationLag() {
+        if (sourceGeneration < 0 || sourceGeneration == generation) {
+            return 0;
+        }
+        // A rebuilt primary can restart at a lower generation
+        return Math.max(1, sourceGeneration - generation);
+    }
+
+    /**
+     * Gets the time since the newest commit not yet replicated was made, as of
+     * the last check: 0 if the replica is up to date, -1 if the commit does not
+     * record its time.
+     */
+    public long getLagMillis() {
+        if (getGenerationLag() == 0) {
+            return 0;
+        }
+        if (sourceCommitTimeMillis < 0) {
+            return -1;
+        }
+        return Math.max(0, System.currentTimeMillis() - sourceCommitTimeMillis);
+    }
+
+    /**
+     * Gets the update timer, the copy counters and the lag gauges.
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // A running update holds the lock, so it completes first
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        metrics.unregisterMBean();
+        if (searcherManager != null) {
+            searcherManager.close();
+        }
+        directory.close();
+        source.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Replica of " + source + " at commit " + generation + " (lag " + getGenerationLag()
+            + " commits, " + getLagMillis() + " ms)";
+    }
+}
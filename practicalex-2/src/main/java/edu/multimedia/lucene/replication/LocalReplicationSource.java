@@ -0,0 +1,88 @@
+package edu.multimedia.lucene.replication;
+
+import edu.multimedia.lucene.index.OverviewStore;
+import edu.multimedia.lucene.index.StorageProfile;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replicates from a primary index on the same host (or a shared file system).
+ * Every commit of the indexer is published as soon as it is durable: the
+ * latest commit point of the directory is the published one. Besides the
+ * Lucene files, a commit whose storage profile keeps the overview outside
+ * the index publishes the overview store ({@link OverviewStore}). The store
+ * is rewritten before each commit, so a commit is only published while the
+ * store still matches the checksum the commit recorded; otherwise a newer
+ * commit is being made and the replica checks again later.
+ */
+public class LocalReplicationSource implements ReplicationSource {
+    private final Path primaryDirectory;
+    private final Directory directory;
+
+    /**
+     * @param primaryDirectory Index directory the indexer writes to
+     */
+    public LocalReplicationSource(Path primaryDirectory) throws IOException {
+        this.primaryDirectory = primaryDirectory;
+        this.directory = FSDirectory.open(primaryDirectory);
+    }
+
+    @Override
+    public PublishedCommit getLatestCommit() throws IOException {
+        IndexCommit commit;
+        try {
+            List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+            commit = commits.get(commits.size() - 1);
+        } catch (IndexNotFoundException e) {
+            return null;
+        }
+
+        Map<String, PublishedCommit.FileInfo> files = new LinkedHashMap<>();
+        for (String file : commit.getFileNames()) {
+            files.put(file, fileInfo(file));
+        }
+        if (StorageProfile.fromCommitData(commit.getUserData()).isOverviewExternal()) {
+            PublishedCommit.FileInfo store = fileInfo(OverviewStore.FILE_NAME);
+            if (!OverviewStore.belongsTo(store.getLength(), store.getChecksum(), commit.getUserData())) {
+                throw new IOException(OverviewStore.FILE_NAME + " was rewritten after commit "
+                    + commit.getGeneration() + " (a newer commit is in progress)");
+            }
+            files.put(OverviewStore.FILE_NAME, store);
+        }
+        return new PublishedCommit(commit.getGeneration(), commit.getSegmentsFileName(),
+            commit.getUserData(), files);
+    }
+
+    private PublishedCommit.FileInfo fileInfo(String file) throws IOException {
+        try (IndexInput input = directory.openInput(file, IOContext.READONCE)) {
+            return new PublishedCommit.FileInfo(input.length(), CodecUtil.retrieveChecksum(input));
+        }
+    }
+
+    @Override
+    public void copyFile(String fileName, Directory target, String targetName) throws IOException {
+        target.copyFrom(directory, fileName, targetName, IOContext.READONCE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        directory.close();
+    }
+
+    @Override
+    public String toString() {
+        return primaryDirectory.toString();
+    }
+}
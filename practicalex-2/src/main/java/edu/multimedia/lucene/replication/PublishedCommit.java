@@ -0,0 +1,110 @@
+package edu.multimedia.lucene.replication;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A commit point published by the primary index: its generation, commit data
+ * and every file a replica needs to open it, with the length and footer
+ * checksum of each file. Lucene index files are written once and never
+ * changed, so a file a replica already has with the same length and checksum
+ * does not need to be copied again.
+ */
+public class PublishedCommit {
+    /**
+     * Length and checksum of one published file.
+     */
+    public static class FileInfo {
+        private final long length;
+        private final long checksum;
+
+        public FileInfo(long length, long checksum) {
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileInfo)) {
+                return false;
+            }
+            FileInfo that = (FileInfo) other;
+            return length == that.length && checksum == that.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(length) * 31 + Long.hashCode(checksum);
+        }
+    }
+
+    private final long generation;
+    private final String segmentsFileName;
+    private final Map<String, String> userData;
+    private final Map<String, FileInfo> files;
+
+    /**
+     * @param generation Commit generation
+     * @param segmentsFileName Name of the segments file of the commit (segments_N)
+     * @param userData Commit data
+     * @param files All files of the commit, including the segments file and
+     *              side files such as the overview store
+     */
+    public PublishedCommit(long generation, String segmentsFileName, Map<String, String> userData,
+                           Map<String, FileInfo> files) {
+        this.generation = generation;
+        this.segmentsFileName = segmentsFileName;
+        this.userData = Collections.unmodifiableMap(userData);
+        this.files = Collections.unmodifiableMap(files);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public String getSegmentsFileName() {
+        return segmentsFileName;
+    }
+
+    public Map<String, String> getUserData() {
+        return userData;
+    }
+
+    public Map<String, FileInfo> getFiles() {
+        return files;
+    }
+
+    /**
+     * Gets the time the commit was made, or -1 if the indexer did not record it.
+     */
+    public long getCommitTimeMillis() {
+        String time = userData.get(MovieIndexer.COMMIT_TIME);
+        return time != null ? Long.parseLong(time) : -1;
+    }
+
+    /**
+     * Gets the total size of the files of the commit.
+     */
+    public long getSizeInBytes() {
+        long total = 0;
+        for (FileInfo file : files.values()) {
+            total += file.getLength();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "commit " + generation + " (" + files.size() + " files, " + getSizeInBytes() + " bytes)";
+    }
+}
@@ -0,0 +1,33 @@
+package edu.multimedia.lucene.replication;
+
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Transport between a primary index and its replicas ({@link IndexReplica}):
+ * tells the latest published commit point and copies its files. The primary
+ * may move on to a newer commit at any time; a replica detects files that
+ * changed or disappeared while it copied them by their checksums and retries
+ * with the newer commit.
+ */
+public interface ReplicationSource extends Closeable {
+    /**
+     * Gets the latest commit point published by the primary.
+     *
+     * @return The commit, or null if nothing has been published yet
+     * @throws IOException If the primary cannot be read
+     */
+    PublishedCommit getLatestCommit() throws IOException;
+
+    /**
+     * Copies a published file into a directory of the replica.
+     *
+     * @param fileName Name of a file of a published commit
+     * @param target Directory to copy into
+     * @param targetName Name of the copy (must not exist)
+     * @throws IOException If the file cannot be read (e.g. the primary deleted it) or written
+     */
+    void copyFile(String fileName, Directory target, String targetName) throws IOException;
+}
@@ -0,0 +1,142 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.search.QueryCost.CostClass;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many queries of each cost class run at the same time, so a
+ * burst of expensive queries (fuzzy, wildcard, very long) cannot take all
+ * threads and drive up latency for cheap ones. A query that gets no permit
+ * within the wait time is degraded to a cheaper form if possible, otherwise
+ * rejected with a {@link QueryRejectedException}.
+ */
+public class AdmissionController {
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 50;
+
+    /**
+     * Runs a query string and produces its result.
+     */
+    public interface QueryExecution<T> {
+        T execute(String queryText) throws Exception;
+    }
+
+    /**
+     * Estimates the cost of a query string.
+     */
+    public interface CostFunction {
+        QueryCost estimate(String queryText) throws Exception;
+    }
+
+    private final Map<CostClass, Semaphore> permits = new EnumMap<>(CostClass.class);
+    private final Map<CostClass, AtomicLong> admitted = new EnumMap<>(CostClass.class);
+    private final Map<CostClass, AtomicLong> rejected = new EnumMap<>(CostClass.class);
+    private final AtomicLong degraded = new AtomicLong();
+    private final long maxWaitMillis;
+
+    /**
+     * Limits derived from the number of processors: cheap queries may use all
+     * request threads, moderate ones one per processor, expensive ones half of that.
+     *
+     * @param requestThreads Number of request threads
+     */
+    public AdmissionController(int requestThreads) {
+        this(requestThreads,
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param cheapLimit Maximum concurrent cheap queries
+     * @param moderateLimit Maximum concurrent moderate queries
+     * @param expensiveLimit Maximum concurrent expensive queries
+     * @param maxWaitMillis Maximum time to wait for a permit
+     */
+    public AdmissionController(int cheapLimit, int moderateLimit, int expensiveLimit, long maxWaitMillis) {
+        permits.put(CostClass.CHEAP, new Semaphore(cheapLimit));
+        permits.put(CostClass.MODERATE, new Semaphore(moderateLimit));
+        permits.put(CostClass.EXPENSIVE, new Semaphore(expensiveLimit));
+        for (CostClass costClass : CostClass.values()) {
+            admitted.put(costClass, new AtomicLong());
+            rejected.put(costClass, new AtomicLong());
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Runs a query within the limit of its cost class. Without a permit, the
+     * simplified query (see {@link QueryCost#simplify}) runs instead if it is
+     * cheaper and a permit for it is available; otherwise the query is rejected.
+     *
+     * @param queryText Query string
+     * @param costFunction Estimates the cost of a query string
+     * @param execution Runs the query string that was admitted
+     * @return The result of the execution
+     * @throws QueryRejectedException If the query could not be admitted
+     * @throws Exception If cost estimation or execution fails
+     */
+    public <T> T execute(String queryText, CostFunction costFunction, QueryExecution<T> execution)
+            throws Exception {
+        CostClass costClass = costFunction.estimate(queryText).getCostClass();
+        if (tryAcquire(costClass)) {
+            try {
+                return execution.execute(queryText);
+            } finally {
+                permits.get(costClass).release();
+            }
+        }
+
+        // Overloaded: try a cheaper form of the query
+        String simplified = QueryCost.simplify(queryText);
+        if (!simplified.isEmpty() && !simplified.equals(queryText)) {
+            CostClass simplifiedClass = costFunction.estimate(simplified).getCostClass();
+            if (simplifiedClass.compareTo(costClass) < 0 && tryAcquire(simplifiedClass)) {
+                degraded.incrementAndGet();
+                try {
+                    return execution.execute(simplified);
+                } finally {
+                    permits.get(simplifiedClass).release();
+                }
+            }
+        }
+
+        rejected.get(costClass).incrementAndGet();
+        throw new QueryRejectedException("Too many " + costClass.name().toLowerCase()
+            + " queries running; try again later");
+    }
+
+    private boolean tryAcquire(CostClass costClass) throws InterruptedException {
+        if (permits.get(costClass).tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            admitted.get(costClass).incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public long getAdmitted(CostClass costClass) {
+        return admitted.get(costClass).get();
+    }
+
+    public long getRejected(CostClass costClass) {
+        return rejected.get(costClass).get();
+    }
+
+    public long getDegraded() {
+        return degraded.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Admission:");
+        for (CostClass costClass : CostClass.values()) {
+            sb.append(String.format(" %s %d admitted/%d rejected,", costClass.name().toLowerCase(),
+                getAdmitted(costClass), getRejected(costClass)));
+        }
+        return sb.append(" ").append(degraded.get()).append(" degraded").toString();
+    }
+}
@@ -1,17 +1,21 @@
 package edu.multimedia.lucene.search;
 
+import edu.multimedia.lucene.index.DirectoryConfig;
 import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.OverviewStore;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -19,26 +23,113 @@ import java.util.*;
 
 /**
  * Enhanced search functionality with fuzzy matching, query expansion, 
- * spell checking, faceted search, and pagination.
+ * spell checking, faceted search, pagination, and hybrid lexical/semantic search.
+ *
+ * As in {@link MovieSearcher}, searchers are managed by a
+ * {@link SearcherManager}, so {@link #refresh} switches every per-reader
+ * structure (router, vector searcher, overview store, snippets) atomically.
  */
 public class EnhancedSearcher {
     private final Path indexDirectory;
+    private final DirectoryConfig directoryConfig;
     private final StandardAnalyzer analyzer;
-    private DirectoryReader reader;
-    private IndexSearcher searcher;
+    private final Directory directory;
+    private final SearcherManager searcherManager;
+    private final QueryLog queryLog;
+    private final QueryLogWarmer warmer;
+    private volatile int efSearch = VectorSearcher.DEFAULT_EF_SEARCH;
+    private final SearchMetrics metrics = new SearchMetrics("enhanced");
+    private volatile SlowQueryLog slowQueryLog;
     private static final float DEFAULT_FUZZINESS = 0.8f;
     private static final int MIN_RESULTS_FOR_EXPANSION = 3;
+    private static final int HYBRID_CANDIDATES = 100;
+
+    /**
+     * Searcher of one reader with the state that is derived from that reader,
+     * so a refresh replaces all of it at once.
+     */
+    private final class IndexView extends IndexSearcher {
+        final SubfieldRouter subfieldRouter;
+        final VectorSearcher vectorSearcher;
+        final OverviewStore overviewStore;
+        final SnippetGenerator snippetGenerator;
+
+        IndexView(DirectoryReader reader) throws IOException {
+            super(reader);
+            subfieldRouter = SubfieldRouter.forReader(reader);
+            vectorSearcher = new VectorSearcher(reader, this);
+            vectorSearcher.setEfSearch(efSearch);
+            overviewStore = OverviewStore.open(indexDirectory, reader);
+            // Closed with the reader, i.e. after the last search that acquired it
+            reader.getReaderCacheHelper().addClosedListener(key -> {
+                vectorSearcher.close();
+                if (overviewStore != null) {
+                    overviewStore.close();
+                }
+            });
+            snippetGenerator = new SnippetGenerator(reader, analyzer, overviewStore);
+        }
+    }
+
+    /**
+     * Creates the view of each newly opened reader and warms it up (if configured)
+     * before it is published.
+     */
+    private final class IndexViewFactory extends SearcherFactory {
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+            // SearcherManager only opens directory readers
+            IndexView view = new IndexView((DirectoryReader) reader);
+            if (warmer != null) {
+                warmer.warm(view);
+            }
+            return view;
+        }
+    }
 
     public EnhancedSearcher(Path indexDirectory) throws IOException {
+        this(indexDirectory, DirectoryConfig.fromSystemProperties());
+    }
+
+    public EnhancedSearcher(Path indexDirectory, DirectoryConfig directoryConfig) throws IOException {
+        this(indexDirectory, directoryConfig, null);
+    }
+
+    /**
+     * @param indexDirectory Index location
+     * @param directoryConfig Directory implementation and preload settings
+     * @param queryLog Log that records queries and warms up each newly opened
+     *                 reader with the most frequent ones (null = no warm-up)
+     */
+    public EnhancedSearcher(Path indexDirectory, DirectoryConfig directoryConfig, QueryLog queryLog) 
+            throws IOException {
         this.indexDirectory = indexDirectory;
+        this.directoryConfig = directoryConfig;
         this.analyzer = new StandardAnalyzer();
-        openIndex();
+        this.queryLog = queryLog;
+        this.warmer = queryLog != null
+            ? new QueryLogWarmer(queryLog, (searcher, queryText) -> buildQuery((IndexView) searcher, queryText))
+            : null;
+        this.directory = directoryConfig.open(indexDirectory);
+        try {
+            this.searcherManager = new SearcherManager(directory, new IndexViewFactory());
+        } catch (IOException | RuntimeException e) {
+            directory.close();
+            throw e;
+        }
+        registerCacheGauges(metrics);
     }
 
-    private void openIndex() throws IOException {
-        Directory directory = FSDirectory.open(indexDirectory);
-        reader = DirectoryReader.open(directory);
-        searcher = new IndexSearcher(reader);
+    /**
+     * Adds the hit and miss counts of Lucene's (shared) query cache as gauges.
+     */
+    static void registerCacheGauges(SearchMetrics metrics) {
+        QueryCache cache = IndexSearcher.getDefaultQueryCache();
+        if (cache instanceof LRUQueryCache) {
+            LRUQueryCache lruCache = (LRUQueryCache) cache;
+            metrics.gauge("query_cache_hits", lruCache::getHitCount);
+            metrics.gauge("query_cache_misses", lruCache::getMissCount);
+        }
     }
 
     /**
@@ -50,36 +141,187 @@ public class EnhancedSearcher {
      */
     public SearchResults performSearch(String queryText, int maxResults) 
             throws ParseException, IOException {
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            return performSearch(view, queryText, maxResults);
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    private SearchResults performSearch(IndexView view, String queryText, int maxResults)
+            throws ParseException, IOException {
+        if (queryLog != null) {
+            queryLog.record(queryText);
+        }
+        metrics.increment("queries");
+        SearchMetrics.Trace trace = metrics.trace();
+
         // Step 1: Spell checking
-        String correctedQuery = checkSpelling(queryText);
+        String correctedQuery = checkSpelling(view, queryText);
         if (!correctedQuery.equals(queryText)) {
+            metrics.increment("spell_corrections");
             System.out.println("Did you mean: \"" + correctedQuery + "\"? (using corrected query)");
         }
+        trace.stage("spell_check");
 
         // Step 2: Process fuzzy terms (words ending with ?)
         String processedQuery = processFuzzyTerms(correctedQuery);
+        for (String word : processedQuery.split("\\s+")) {
+            if (word.endsWith("?")) {
+                metrics.increment("fuzzy_rewrites");
+            }
+        }
+        trace.stage("fuzzy");
 
         // Step 3: Build and execute query
-        Query query = buildQuery(processedQuery);
-        TopDocs topDocs = searcher.search(query, maxResults * 2); // Get more for expansion check
+        Query query = buildQuery(view, processedQuery);
+        trace.stage("build");
+        TopDocs topDocs = view.search(query, maxResults * 2); // Get more for expansion check
+        trace.stage("search");
 
         // Step 4: Query expansion if needed
         if (topDocs.totalHits.value < MIN_RESULTS_FOR_EXPANSION) {
+            metrics.increment("expansions");
             System.out.println("Few results found. Expanding query...");
-            query = expandQuery(correctedQuery);
-            topDocs = searcher.search(query, maxResults * 2);
+            query = expandQuery(view, correctedQuery);
+            topDocs = view.search(query, maxResults * 2);
+            trace.stage("expansion");
         }
 
         // Step 5: Extract results
-        List<SearchResult> results = extractResults(topDocs, maxResults);
+        List<SearchResult> results = extractResults(view, query, topDocs, maxResults);
+        trace.stage("extraction");
+        long totalNanos = trace.finish();
+        if (slowQueryLog != null && slowQueryLog.isSlow(totalNanos)) {
+            slowQueryLog.record(metrics.getName(), queryText, query, topDocs.totalHits.value, trace,
+                view.getIndexReader());
+        }
         
         return new SearchResults(results, topDocs.totalHits.value);
     }
 
+    /**
+     * Performs hybrid search: fuses the BM25 ranking and the kNN (HNSW) ranking
+     * with reciprocal rank fusion. Descriptive queries ("movies about ...") that
+     * share few exact terms with the overview are still found by the vector side.
+     * If the index has no embeddings the vector side is empty, so the results
+     * are ranked by BM25 alone.
+     * 
+     * @param queryText Search query (supports "word?" for fuzzy matching on the lexical side)
+     * @param maxResults Maximum number of results
+     * @return Search results
+     */
+    public SearchResults performHybridSearch(String queryText, int maxResults) 
+            throws ParseException, IOException {
+        if (queryLog != null) {
+            queryLog.record(queryText);
+        }
+        metrics.increment("queries");
+        SearchMetrics.Trace trace = metrics.trace();
+        long start = System.nanoTime();
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            int candidates = Math.max(HYBRID_CANDIDATES, maxResults);
+            Query lexicalQuery = buildQuery(view, queryText);
+            trace.stage("build");
+            TopDocs lexical = view.search(lexicalQuery, candidates);
+            trace.stage("search");
+            TopDocs semantic;
+            if (view.vectorSearcher.isAvailable()) {
+                semantic = view.vectorSearcher.search(queryText.replace("?", ""), candidates);
+            } else {
+                metrics.increment("hybrid_without_embeddings");
+                semantic = new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[0]);
+            }
+            trace.stage("knn");
+            TopDocs fused = RankFusion.reciprocalRankFusion(
+                RankFusion.DEFAULT_RRF_K, maxResults, lexical, semantic);
+
+            List<SearchResult> results = extractResults(view, lexicalQuery, fused, maxResults);
+            trace.stage("extraction");
+            metrics.time("hybrid", start);
+            long totalNanos = trace.finish();
+            if (slowQueryLog != null && slowQueryLog.isSlow(totalNanos)) {
+                slowQueryLog.record(metrics.getName(), queryText, lexicalQuery, fused.totalHits.value, trace,
+                    view.getIndexReader());
+            }
+            return new SearchResults(results, fused.totalHits.value);
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    /**
+     * Estimates the cost of a query before running it (for admission control).
+     * Each "word?" adds one fuzzy clause per field, so fuzzy queries are expensive.
+     */
+    public QueryCost estimateCost(String queryText) throws ParseException, IOException {
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            return QueryCost.estimate(view.getIndexReader(), buildQuery(view, queryText), queryText.length());
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    /**
+     * Gets the warm-up statistics, or null if warm-up is not configured.
+     */
+    public QueryLogWarmer getWarmer() {
+        return warmer;
+    }
+
+    /**
+     * Sets the HNSW candidate list size (efSearch) used by hybrid search.
+     */
+    public void setEfSearch(int efSearch) throws IOException {
+        // Validated before it is kept for the searchers of later readers
+        if (efSearch <= 0) {
+            throw new IllegalArgumentException("efSearch must be positive: " + efSearch);
+        }
+        this.efSearch = efSearch;
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            view.vectorSearcher.setEfSearch(efSearch);
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    /**
+     * Measures latency and recall@k of the kNN (HNSW) search against exact
+     * search on the current reader, at the current efSearch.
+     *
+     * @see VectorSearcher#evaluate
+     */
+    public VectorSearcher.RecallReport evaluateVectorSearch(List<String> queries, int k) throws IOException {
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            return view.vectorSearcher.evaluate(queries, k);
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    /**
+     * Gets the per-stage timers and counters of this searcher.
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the log that records queries slower than its threshold (null = none).
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
     /**
      * Checks spelling and suggests corrections.
      */
-    private String checkSpelling(String query) {
+    private String checkSpelling(IndexSearcher searcher, String query) {
         // Simple spell checking - check if terms exist in index
         // For production, use a proper spell checker dictionary
         String[] terms = query.toLowerCase().split("\\s+");
@@ -127,9 +369,15 @@ public class EnhancedSearcher {
     }
 
     /**
-     * Builds a query with support for fuzzy matching.
+     * Builds a query with support for fuzzy matching. Prefix and phrase
+     * queries are routed to the subfields where the index has them
+     * ({@link SubfieldRouter}).
      */
-    private Query buildQuery(String queryText) throws ParseException {
+    private Query buildQuery(IndexView view, String queryText) throws ParseException {
+        return view.subfieldRouter.route(parseQuery(queryText));
+    }
+
+    private Query parseQuery(String queryText) throws ParseException {
         String[] fields = {
             MovieIndexer.FIELD_TITLE,
             MovieIndexer.FIELD_CAST,
@@ -152,11 +400,15 @@ public class EnhancedSearcher {
         List<Query> fuzzyQueries = new ArrayList<>();
         
         for (String word : words) {
-            String cleanWord = word.replaceAll("[^a-zA-Z0-9?]", "");
+            // Keeps the prefix (word*) and phrase ("...") syntax for the parser;
+            // a * that is leading or inside the word is dropped as before
+            String cleanWord = word.replaceAll("[^a-zA-Z0-9?*\"]", "")
+                .replaceAll("(?<![a-zA-Z0-9])\\*|\\*(?=[a-zA-Z0-9])", "");
             if (cleanWord.endsWith("?")) {
                 // Fuzzy search
                 hasFuzzy = true;
-                String baseWord = cleanWord.substring(0, cleanWord.length() - 1).toLowerCase();
+                String baseWord = cleanWord.substring(0, cleanWord.length() - 1)
+                    .replaceAll("[*\"]", "").toLowerCase();
                 if (baseWord.length() > 0) {
                     // Create fuzzy queries for each field
                     for (String field : fields) {
@@ -176,10 +428,26 @@ public class EnhancedSearcher {
         List<Query> allQueries = new ArrayList<>();
         
         // Add regular query if there are non-fuzzy terms
-        if (regularQuery.length() > 0) {
+        String regular = regularQuery.toString().trim();
+        if (regular.chars().filter(c -> c == '"').count() % 2 != 0) {
+            regular = regular.replace("\"", "").trim(); // Unbalanced quotes are not a phrase
+        }
+        if (!regular.isEmpty()) {
             MultiFieldQueryParser parser = new MultiFieldQueryParser(fields, analyzer, boosts);
-            Query regularQueryObj = parser.parse(regularQuery.toString().trim());
-            allQueries.add(regularQueryObj);
+            Query regularQueryObj;
+            try {
+                regularQueryObj = parser.parse(regular);
+            } catch (ParseException e) {
+                regularQueryObj = null;
+            }
+            if (isEmpty(regularQueryObj)) {
+                // Syntax the parser rejects (or an empty phrase): search the plain words
+                String plain = regular.replaceAll("[*\"]", " ").trim();
+                regularQueryObj = plain.isEmpty() ? null : parser.parse(plain);
+            }
+            if (regularQueryObj != null) {
+                allQueries.add(regularQueryObj);
+            }
         }
         
         // Add fuzzy queries
@@ -203,15 +471,24 @@ public class EnhancedSearcher {
             return combined.build();
         }
         
-        // Fallback: parse original query
+        // Fallback: parse original query (escaped if it is not valid syntax, e.g. a lone * or ")
         MultiFieldQueryParser parser = new MultiFieldQueryParser(fields, analyzer, boosts);
-        return parser.parse(queryText.replace("?", ""));
+        try {
+            return parser.parse(queryText.replace("?", ""));
+        } catch (ParseException e) {
+            return parser.parse(QueryParser.escape(queryText.replace("?", "")));
+        }
+    }
+
+    private static boolean isEmpty(Query query) {
+        return query == null
+            || (query instanceof BooleanQuery && ((BooleanQuery) query).clauses().isEmpty());
     }
 
     /**
      * Expands query by adding synonyms or related terms.
      */
-    private Query expandQuery(String originalQuery) throws ParseException {
+    private Query expandQuery(IndexView view, String originalQuery) throws ParseException {
         // Simple expansion: add common variations
         String expanded = originalQuery;
         
@@ -221,26 +498,81 @@ public class EnhancedSearcher {
             // Could add synonyms here
         }
         
-        return buildQuery(expanded);
+        return buildQuery(view, expanded);
     }
 
     /**
-     * Extracts search results from TopDocs.
+     * Extracts search results from TopDocs, with overview snippets highlighting the query.
      */
-    private List<SearchResult> extractResults(TopDocs topDocs, int maxResults) throws IOException {
+    private List<SearchResult> extractResults(IndexView view, Query query, TopDocs topDocs, int maxResults) 
+            throws IOException {
         List<SearchResult> results = new ArrayList<>();
         int count = Math.min(maxResults, topDocs.scoreDocs.length);
+        ScoreDoc[] hits = Arrays.copyOf(topDocs.scoreDocs, count);
+        String[] snippets = view.snippetGenerator.generate(query, hits);
         
         for (int i = 0; i < count; i++) {
-            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
-            Document doc = searcher.doc(scoreDoc.doc);
-            SearchResult result = new SearchResult(doc, scoreDoc.score);
+            ScoreDoc scoreDoc = hits[i];
+            Document doc = view.doc(scoreDoc.doc);
+            metrics.recordStoredFields(doc);
+            if (view.overviewStore != null) {
+                view.overviewStore.addTo(doc);
+            }
+            SearchResult result = new SearchResult(doc, scoreDoc.score, snippets[i]);
             results.add(result);
         }
         
         return results;
     }
 
+    /**
+     * Suggests titles for a partially typed query: all complete words must occur
+     * in the title and the last word is matched as a prefix. The best rated
+     * movies are suggested first.
+     *
+     * @param prefix Text typed so far
+     * @param maxSuggestions Maximum number of titles
+     * @return Distinct titles
+     */
+    public List<String> suggest(String prefix, int maxSuggestions) throws IOException {
+        List<String> words = new ArrayList<>();
+        for (String word : prefix.toLowerCase().split("\\s+")) {
+            String cleanWord = word.replaceAll("[^a-z0-9]", "");
+            if (!cleanWord.isEmpty()) {
+                words.add(cleanWord);
+            }
+        }
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (int i = 0; i < words.size() - 1; i++) {
+            builder.add(new TermQuery(new Term(MovieIndexer.FIELD_TITLE, words.get(i))),
+                BooleanClause.Occur.FILTER);
+        }
+        builder.add(new PrefixQuery(new Term(MovieIndexer.FIELD_TITLE, words.get(words.size() - 1))),
+            BooleanClause.Occur.FILTER);
+
+        Sort byRating = new Sort(new SortField(MovieIndexer.FIELD_RATING, SortField.Type.DOUBLE, true));
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = searcher.search(builder.build(), maxSuggestions * 2, byRating);
+
+            Set<String> titles = new LinkedHashSet<>();
+            StoredFields storedFields = searcher.storedFields();
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                titles.add(storedFields.document(scoreDoc.doc).get(MovieIndexer.FIELD_TITLE));
+                if (titles.size() == maxSuggestions) {
+                    break;
+                }
+            }
+            return new ArrayList<>(titles);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
     /**
      * Gets facets (categories) for faceted search.
      */
@@ -326,10 +658,23 @@ public class EnhancedSearcher {
         return filtered;
     }
 
-    public void close() throws IOException {
-        if (reader != null) {
-            reader.close();
+    /**
+     * Switches to the latest commit of the index, if there is a newer one
+     * (see {@link MovieSearcher#refresh}).
+     *
+     * @return Whether the searcher was switched to a new commit
+     */
+    public boolean refresh() throws IOException {
+        if (searcherManager.isSearcherCurrent()) {
+            return false;
         }
+        searcherManager.maybeRefreshBlocking();
+        return true;
+    }
+
+    public void close() throws IOException {
+        searcherManager.close();
+        directory.close();
         analyzer.close();
     }
 }
@@ -0,0 +1,132 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collector that counts every matching movie by decade and by genre, the
+ * facets of {@link EnhancedSearcher#getFacets}, but over all matches instead
+ * of the top results. The decade comes from the year doc values and the
+ * genres from the genre doc values, counted per ordinal and resolved once per
+ * segment; segments of indexes built before the genres had doc values fall
+ * back to the stored genres field. Counts of disjoint indexes (shards) can be
+ * added up. Can be combined with a top-hits collector
+ * ({@link org.apache.lucene.search.MultiCollector}) to count in the same pass.
+ */
+public class FacetCountCollector extends SimpleCollector {
+    public static final String FACET_DECADE = "decade";
+    public static final String FACET_GENRES = "genres";
+
+    private final Map<String, Long> decades = new TreeMap<>();
+    private final Map<String, Long> genres = new TreeMap<>();
+    private NumericDocValues years;
+    private SortedSetDocValues genreValues;
+    private long[] genreCounts;
+    private StoredFields storedFields;
+    private long count;
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        addGenreCounts();
+        years = DocValues.getNumeric(context.reader(), MovieIndexer.FIELD_YEAR);
+        FieldInfo genreField = context.reader().getFieldInfos().fieldInfo(MovieIndexer.FIELD_GENRE_FACETS);
+        if (genreField != null && genreField.getDocValuesType() == DocValuesType.SORTED_SET) {
+            genreValues = context.reader().getSortedSetDocValues(MovieIndexer.FIELD_GENRE_FACETS);
+            genreCounts = new long[(int) genreValues.getValueCount()];
+            storedFields = null;
+        } else {
+            genreValues = null;
+            storedFields = context.reader().storedFields();
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        count++;
+        if (years.advanceExact(doc)) {
+            decades.merge((years.longValue() / 10) * 10 + "s", 1L, Long::sum);
+        }
+
+        if (genreValues != null) {
+            if (genreValues.advanceExact(doc)) {
+                for (int i = 0; i < genreValues.docValueCount(); i++) {
+                    genreCounts[(int) genreValues.nextOrd()]++;
+                }
+            }
+            return;
+        }
+        DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(MovieIndexer.FIELD_GENRES);
+        storedFields.document(doc, visitor);
+        Document document = visitor.getDocument();
+        String value = document.get(MovieIndexer.FIELD_GENRES);
+        if (value != null) {
+            for (String genre : value.split("\\s+")) {
+                addGenre(genre, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds the per-ordinal counts of the current segment to the genre counts.
+     */
+    private void addGenreCounts() throws IOException {
+        if (genreValues == null) {
+            return;
+        }
+        for (int ord = 0; ord < genreCounts.length; ord++) {
+            if (genreCounts[ord] > 0) {
+                addGenre(genreValues.lookupOrd(ord).utf8ToString(), genreCounts[ord]);
+                genreCounts[ord] = 0;
+            }
+        }
+    }
+
+    private void addGenre(String genre, long movies) {
+        // Split and filtered like EnhancedSearcher.getFacets
+        if (genre.length() > 2) {
+            genres.merge(genre, movies, Long::sum);
+        }
+    }
+
+    /**
+     * Gets the number of matching movies.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the counts per facet ({@value #FACET_DECADE}, {@value #FACET_GENRES}),
+     * each mapping a value to its number of movies, in value order.
+     */
+    public Map<String, Map<String, Long>> getFacets() {
+        try {
+            addGenreCounts();
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+        Map<String, Map<String, Long>> facets = new TreeMap<>();
+        facets.put(FACET_DECADE, decades);
+        facets.put(FACET_GENRES, genres);
+        return facets;
+    }
+}
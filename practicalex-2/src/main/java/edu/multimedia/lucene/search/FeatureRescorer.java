@@ -0,0 +1,145 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Rescorer;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Second-stage rescorer that blends the first-stage (BM25) score with
+ * document features read from doc values: rating, recency and runtime.
+ * Only the top-N candidates of the first stage are rescored, so no stored
+ * fields are loaded and no function queries run over the full match set.
+ */
+public class FeatureRescorer extends Rescorer {
+    private static final int MIN_YEAR = 1900;
+    private static final int IDEAL_RUNTIME = 110; // minutes
+
+    private final double ratingWeight;
+    private final double recencyWeight;
+    private final double runtimeWeight;
+    private final int currentYear;
+
+    /**
+     * Creates a rescorer with default weights (rating 1.0, recency 0.5, runtime 0.0).
+     */
+    public FeatureRescorer() {
+        this(1.0, 0.5, 0.0);
+    }
+
+    /**
+     * Creates a rescorer with custom feature weights.
+     *
+     * @param ratingWeight Weight of the normalized rating (0-1)
+     * @param recencyWeight Weight of the normalized release year (0-1)
+     * @param runtimeWeight Weight of the runtime closeness to a typical feature length (0-1)
+     */
+    public FeatureRescorer(double ratingWeight, double recencyWeight, double runtimeWeight) {
+        this.ratingWeight = ratingWeight;
+        this.recencyWeight = recencyWeight;
+        this.runtimeWeight = runtimeWeight;
+        this.currentYear = Year.now().getValue();
+    }
+
+    @Override
+    public TopDocs rescore(IndexSearcher searcher, TopDocs firstPassTopDocs, int topN)
+            throws IOException {
+        ScoreDoc[] hits = firstPassTopDocs.scoreDocs.clone();
+        // Visit hits in doc id order so each segment's doc values are read forward only
+        Arrays.sort(hits, Comparator.comparingInt(hit -> hit.doc));
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        NumericDocValues ratings = null;
+        NumericDocValues years = null;
+        NumericDocValues runtimes = null;
+        int leafIndex = -1;
+
+        for (int i = 0; i < hits.length; i++) {
+            ScoreDoc hit = hits[i];
+            int newLeafIndex = ReaderUtil.subIndex(hit.doc, leaves);
+            if (newLeafIndex != leafIndex) {
+                leafIndex = newLeafIndex;
+                leaf = leaves.get(leafIndex);
+                ratings = DocValues.getNumeric(leaf.reader(), MovieIndexer.FIELD_RATING);
+                years = DocValues.getNumeric(leaf.reader(), MovieIndexer.FIELD_YEAR);
+                runtimes = DocValues.getNumeric(leaf.reader(), MovieIndexer.FIELD_RUNTIME);
+            }
+
+            int segmentDoc = hit.doc - leaf.docBase;
+            double rating = ratings.advanceExact(segmentDoc)
+                ? Double.longBitsToDouble(ratings.longValue()) : 0.0;
+            int year = years.advanceExact(segmentDoc) ? (int) years.longValue() : 0;
+            int runtime = runtimes.advanceExact(segmentDoc) ? (int) runtimes.longValue() : 0;
+
+            // Copy so the caller's first-pass TopDocs keeps its original scores
+            hits[i] = new ScoreDoc(hit.doc, (float) (hit.score + featureScore(rating, year, runtime)));
+        }
+
+        // Highest combined score first, ties broken by doc id
+        Arrays.sort(hits, (a, b) -> {
+            int cmp = Float.compare(b.score, a.score);
+            return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+        });
+
+        if (hits.length > topN) {
+            hits = Arrays.copyOf(hits, topN);
+        }
+        return new TopDocs(firstPassTopDocs.totalHits, hits);
+    }
+
+    @Override
+    public Explanation explain(IndexSearcher searcher, Explanation firstPassExplanation, int docID)
+            throws IOException {
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docID, leaves));
+        int segmentDoc = docID - leaf.docBase;
+
+        NumericDocValues ratings = DocValues.getNumeric(leaf.reader(), MovieIndexer.FIELD_RATING);
+        NumericDocValues years = DocValues.getNumeric(leaf.reader(), MovieIndexer.FIELD_YEAR);
+        NumericDocValues runtimes = DocValues.getNumeric(leaf.reader(), MovieIndexer.FIELD_RUNTIME);
+        double rating = ratings.advanceExact(segmentDoc)
+            ? Double.longBitsToDouble(ratings.longValue()) : 0.0;
+        int year = years.advanceExact(segmentDoc) ? (int) years.longValue() : 0;
+        int runtime = runtimes.advanceExact(segmentDoc) ? (int) runtimes.longValue() : 0;
+
+        double features = featureScore(rating, year, runtime);
+        return Explanation.match(
+            (float) (firstPassExplanation.getValue().doubleValue() + features),
+            "sum of:",
+            firstPassExplanation,
+            Explanation.match((float) features,
+                "features (rating=" + rating + ", year=" + year + ", runtime=" + runtime + ")"));
+    }
+
+    /**
+     * Computes the weighted feature boost added to the first-stage score.
+     */
+    private double featureScore(double rating, int year, int runtime) {
+        double ratingScore = clamp(rating / 10.0);
+        double recencyScore = year > 0
+            ? clamp((double) (year - MIN_YEAR) / (currentYear - MIN_YEAR)) : 0.0;
+        double runtimeScore = runtime > 0
+            ? clamp(1.0 - Math.abs(runtime - IDEAL_RUNTIME) / (double) IDEAL_RUNTIME) : 0.0;
+
+        return ratingWeight * ratingScore
+            + recencyWeight * recencyScore
+            + runtimeWeight * runtimeScore;
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0.0, Math.min(1.0, value));
+    }
+}
@@ -0,0 +1,197 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.OverviewStore;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.mlt.MoreLikeThis;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * "More like this" recommendations: finds movies similar to a seed movie
+ * given by its IMDB ID. The similarity query is built from the most
+ * interesting terms of the seed's overview, genres and cast, read from the
+ * term vectors stored at index time (no re-analysis of stored text).
+ * Generated queries are kept in a bounded LRU cache per seed document.
+ */
+public class MovieRecommender {
+    public static final int DEFAULT_MAX_QUERY_TERMS = 25;
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final String[] SIMILARITY_FIELDS = {
+        MovieIndexer.FIELD_OVERVIEW,
+        MovieIndexer.FIELD_GENRES,
+        MovieIndexer.FIELD_CAST
+    };
+
+    private final Path indexDirectory;
+    private final DirectoryConfig directoryConfig;
+    private final StandardAnalyzer analyzer;
+    private final int maxQueryTerms;
+    private final Map<String, Query> queryCache;
+    private Directory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+    private OverviewStore overviewStore;
+    private long cacheHits;
+    private long cacheMisses;
+
+    public MovieRecommender(Path indexDirectory) throws IOException {
+        this(indexDirectory, DirectoryConfig.fromSystemProperties(),
+            DEFAULT_MAX_QUERY_TERMS, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param indexDirectory Index location
+     * @param directoryConfig Directory implementation and preload settings
+     * @param maxQueryTerms Maximum number of terms in a generated similarity query
+     * @param cacheSize Maximum number of cached similarity queries
+     */
+    public MovieRecommender(Path indexDirectory, DirectoryConfig directoryConfig,
+                            int maxQueryTerms, int cacheSize) throws IOException {
+        this.indexDirectory = indexDirectory;
+        this.directoryConfig = directoryConfig;
+        this.analyzer = new StandardAnalyzer();
+        this.maxQueryTerms = maxQueryTerms;
+        this.queryCache = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        openIndex();
+    }
+
+    private void openIndex() throws IOException {
+        directory = directoryConfig.open(indexDirectory);
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        overviewStore = OverviewStore.open(indexDirectory, reader);
+    }
+
+    /**
+     * Finds movies similar to the given movie.
+     *
+     * @param imdbId IMDB ID of the seed movie
+     * @param maxResults Maximum number of recommendations
+     * @return Similar movies (the seed itself is excluded); empty if the ID is unknown
+     * @throws IOException If search fails
+     */
+    public List<SearchResult> recommend(String imdbId, int maxResults) throws IOException {
+        Query likeQuery = getSimilarityQuery(imdbId);
+        if (likeQuery == null) {
+            return new ArrayList<>();
+        }
+
+        // Exclude the seed movie from its own recommendations
+        Query query = new BooleanQuery.Builder()
+            .add(likeQuery, BooleanClause.Occur.MUST)
+            .add(new TermQuery(new Term(MovieIndexer.FIELD_IMDB_ID, imdbId)), BooleanClause.Occur.MUST_NOT)
+            .build();
+
+        TopDocs topDocs = searcher.search(query, maxResults);
+        List<SearchResult> results = new ArrayList<>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            Document doc = searcher.doc(scoreDoc.doc);
+            if (overviewStore != null) {
+                overviewStore.addTo(doc);
+            }
+            results.add(new SearchResult(doc, scoreDoc.score));
+        }
+        return results;
+    }
+
+    /**
+     * Gets the cached similarity query for a seed movie, generating it on a miss.
+     *
+     * @return The query, or null if no movie has this IMDB ID
+     */
+    private Query getSimilarityQuery(String imdbId) throws IOException {
+        synchronized (queryCache) {
+            Query cached = queryCache.get(imdbId);
+            if (cached != null) {
+                cacheHits++;
+                return cached;
+            }
+            cacheMisses++;
+        }
+
+        TopDocs seed = searcher.search(
+            new TermQuery(new Term(MovieIndexer.FIELD_IMDB_ID, imdbId)), 1);
+        if (seed.scoreDocs.length == 0) {
+            return null;
+        }
+
+        MoreLikeThis moreLikeThis = new MoreLikeThis(reader);
+        moreLikeThis.setAnalyzer(analyzer);
+        moreLikeThis.setFieldNames(SIMILARITY_FIELDS);
+        moreLikeThis.setMaxQueryTerms(maxQueryTerms);
+        moreLikeThis.setMinTermFreq(1);
+        moreLikeThis.setMinDocFreq(2);
+        moreLikeThis.setMaxDocFreqPct(50); // Skip terms in more than half the movies
+        moreLikeThis.setBoost(true);
+        Query query = moreLikeThis.like(seed.scoreDocs[0].doc);
+
+        synchronized (queryCache) {
+            queryCache.put(imdbId, query);
+        }
+        return query;
+    }
+
+    public long getCacheHits() {
+        synchronized (queryCache) {
+            return cacheHits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (queryCache) {
+            return cacheMisses;
+        }
+    }
+
+    /**
+     * Refreshes the index reader (call after re-indexing) and drops cached queries.
+     */
+    public void refresh() throws IOException {
+        if (reader != null) {
+            reader.close();
+            directory.close();
+        }
+        if (overviewStore != null) {
+            overviewStore.close();
+        }
+        synchronized (queryCache) {
+            queryCache.clear();
+        }
+        openIndex();
+    }
+
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            directory.close();
+        }
+        if (overviewStore != null) {
+            overviewStore.close();
+        }
+        analyzer.close();
+    }
+}
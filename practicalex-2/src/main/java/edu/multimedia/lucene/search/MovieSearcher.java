@@ -1,20 +1,30 @@
 package edu.multimedia.lucene.search;
 
+import edu.multimedia.lucene.index.DirectoryConfig;
 import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.OverviewStore;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,26 +32,173 @@ import java.util.Map;
 /**
  * Provides search functionality over the Lucene index.
  * Supports basic keyword search and enhanced search with filters.
+ * Prefix and two-word phrase queries use the subfields of the index
+ * when it has them ({@link SubfieldRouter}).
+ *
+ * Searchers are managed by a {@link SearcherManager}: every search acquires
+ * the current searcher (with the subfield router, overview store and snippet
+ * generator of its reader) and releases it when done, so {@link #refresh}
+ * switches to the latest commit atomically while running searches finish on
+ * the previous reader, which is closed after the last of them.
  */
 public class MovieSearcher {
+    public static final int DEFAULT_RESCORE_WINDOW = 100;
+    public static final List<String> DEFAULT_EXPORT_FIELDS = Arrays.asList(
+        MovieIndexer.FIELD_IMDB_ID, MovieIndexer.FIELD_TITLE, MovieIndexer.FIELD_YEAR,
+        MovieIndexer.FIELD_RATING, MovieIndexer.FIELD_GENRES);
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
     private final Path indexDirectory;
+    private final DirectoryConfig directoryConfig;
     private final StandardAnalyzer analyzer;
-    private DirectoryReader reader;
-    private IndexSearcher searcher;
+    private final Directory directory;
+    private final SearcherManager searcherManager;
+    private final QueryLog queryLog;
+    private final QueryLogWarmer warmer;
+    private boolean snippetsEnabled = true;
+    private volatile RescoreSettings rescoreSettings;
+    private final SearchMetrics metrics = new SearchMetrics("basic");
+    private volatile SlowQueryLog slowQueryLog;
+
+    /**
+     * Searcher of one reader with the state that is derived from that reader,
+     * so a refresh replaces all of it at once.
+     */
+    private final class IndexView extends IndexSearcher {
+        final SubfieldRouter subfieldRouter;
+        final OverviewStore overviewStore;
+        final SnippetGenerator snippetGenerator;
+
+        IndexView(DirectoryReader reader) throws IOException {
+            super(reader);
+            subfieldRouter = SubfieldRouter.forReader(reader);
+            overviewStore = OverviewStore.open(indexDirectory, reader);
+            if (overviewStore != null) {
+                // Closed with the reader, i.e. after the last search that acquired it
+                reader.getReaderCacheHelper().addClosedListener(key -> overviewStore.close());
+            }
+            snippetGenerator = new SnippetGenerator(reader, analyzer, overviewStore);
+        }
+    }
+
+    /**
+     * Creates the view of each newly opened reader and warms it up (if configured)
+     * before it is published.
+     */
+    private final class IndexViewFactory extends SearcherFactory {
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+            // SearcherManager only opens directory readers
+            IndexView view = new IndexView((DirectoryReader) reader);
+            if (warmer != null) {
+                warmer.warm(view);
+            }
+            return view;
+        }
+    }
+
+    /**
+     * Rescorer and window, replaced together so a search never sees a mix of two settings.
+     */
+    private static final class RescoreSettings {
+        final Rescorer rescorer;
+        final int window;
+
+        RescoreSettings(Rescorer rescorer, int window) {
+            this.rescorer = rescorer;
+            this.window = window;
+        }
+    }
 
     public MovieSearcher(Path indexDirectory) throws IOException {
+        this(indexDirectory, DirectoryConfig.fromSystemProperties());
+    }
+
+    /**
+     * @param indexDirectory Index location
+     * @param directoryConfig Directory implementation and preload settings
+     */
+    public MovieSearcher(Path indexDirectory, DirectoryConfig directoryConfig) throws IOException {
+        this(indexDirectory, directoryConfig, null);
+    }
+
+    /**
+     * @param indexDirectory Index location
+     * @param directoryConfig Directory implementation and preload settings
+     * @param queryLog Log that records queries and warms up each newly opened
+     *                 reader with the most frequent ones (null = no warm-up)
+     */
+    public MovieSearcher(Path indexDirectory, DirectoryConfig directoryConfig, QueryLog queryLog) 
+            throws IOException {
         this.indexDirectory = indexDirectory;
+        this.directoryConfig = directoryConfig;
         this.analyzer = new StandardAnalyzer();
-        openIndex();
+        this.queryLog = queryLog;
+        this.warmer = queryLog != null
+            ? new QueryLogWarmer(queryLog, (searcher, queryText) -> parseQuery((IndexView) searcher, queryText))
+            : null;
+        this.directory = directoryConfig.open(indexDirectory);
+        try {
+            this.searcherManager = new SearcherManager(directory, new IndexViewFactory());
+        } catch (IOException | RuntimeException e) {
+            directory.close();
+            throw e;
+        }
+        EnhancedSearcher.registerCacheGauges(metrics);
     }
 
     /**
-     * Opens the index for searching.
+     * Gets the per-stage timers and counters of this searcher.
      */
-    private void openIndex() throws IOException {
-        Directory directory = FSDirectory.open(indexDirectory);
-        reader = DirectoryReader.open(directory);
-        searcher = new IndexSearcher(reader);
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the log that records queries slower than its threshold (null = none).
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Gets the warm-up statistics, or null if warm-up is not configured.
+     */
+    public QueryLogWarmer getWarmer() {
+        return warmer;
+    }
+
+    /**
+     * Enables two-stage retrieval: the first stage collects the top
+     * {@code window} BM25 hits, which the rescorer then reorders before the
+     * requested number of results is returned.
+     *
+     * @param rescorer Second-stage rescorer (null = disable rescoring)
+     * @param window Number of first-stage candidates to rescore (N)
+     */
+    public void setRescorer(Rescorer rescorer, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Rescore window must be positive: " + window);
+        }
+        this.rescoreSettings = rescorer != null ? new RescoreSettings(rescorer, window) : null;
+    }
+
+    /**
+     * Enables or disables highlighted overview snippets in results (enabled by default).
+     */
+    public void setSnippetsEnabled(boolean snippetsEnabled) {
+        this.snippetsEnabled = snippetsEnabled;
+    }
+
+    /**
+     * Describes the directory in use: implementation, mapped and preloaded bytes.
+     */
+    public String getDirectoryReport() throws IOException {
+        return String.format("%s | %s | mapped: %.1f MB | preloaded: %.1f MB",
+            directoryConfig,
+            FilterDirectory.unwrap(directory).getClass().getSimpleName(),
+            DirectoryConfig.mappedBytes(directory) / (1024.0 * 1024.0),
+            directoryConfig.preloadedBytes(directory) / (1024.0 * 1024.0));
     }
 
     /**
@@ -55,11 +212,96 @@ public class MovieSearcher {
      */
     public List<SearchResult> basicSearch(String queryText, int maxResults) 
             throws ParseException, IOException {
-        // Check searcher state
-        if (searcher == null || reader == null) {
-            openIndex();
+        return basicSearch(queryText, maxResults, null);
+    }
+
+    /**
+     * Performs a basic keyword search and counts all matches by decade and by
+     * genre in the same pass over the index.
+     *
+     * @param queryText Search query
+     * @param maxResults Maximum number of results to return
+     * @param facets Collector that counts the facets of every match (null = none)
+     * @return List of search results
+     * @throws ParseException If query parsing fails
+     * @throws IOException If search fails
+     */
+    public List<SearchResult> basicSearch(String queryText, int maxResults, FacetCountCollector facets)
+            throws ParseException, IOException {
+        recordQuery(queryText);
+        SearchMetrics.Trace trace = metrics.trace();
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            Query query = parseQuery(view, queryText);
+            trace.stage("parse");
+
+            return executeSearch(view, queryText, query, null, maxResults, facets, trace);
+        } finally {
+            searcherManager.release(view);
         }
-        
+    }
+
+    /**
+     * Exports every movie matching a query as NDJSON (one JSON object per line),
+     * in index order. Results are streamed while the search runs through a
+     * fixed-size buffer, so memory use does not grow with the number of matches.
+     *
+     * @param queryText Search query ("*:*" = all movies)
+     * @param fields Stored fields to export (null = {@link #DEFAULT_EXPORT_FIELDS})
+     * @param out Destination; flushed but not closed
+     * @return Number of exported movies
+     * @throws ParseException If query parsing fails
+     * @throws IOException If the search or writing fails
+     */
+    public long export(String queryText, List<String> fields, OutputStream out) 
+            throws ParseException, IOException {
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            Query query = parseQuery(view, queryText);
+            Writer writer = new BufferedWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE);
+            NdjsonExportCollector collector = new NdjsonExportCollector(
+                fields != null ? fields : DEFAULT_EXPORT_FIELDS, writer, view.overviewStore);
+            view.search(query, collector);
+            writer.flush();
+            return collector.getCount();
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    /**
+     * Counts all movies matching a query by decade and by genre.
+     *
+     * @param queryText Search query
+     * @return The collector holding the match count and the facet counts
+     * @throws ParseException If query parsing fails
+     * @throws IOException If the search fails
+     */
+    public FacetCountCollector countFacets(String queryText) throws ParseException, IOException {
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            FacetCountCollector collector = new FacetCountCollector();
+            view.search(parseQuery(view, queryText), collector);
+            return collector;
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    /**
+     * Parses a query over title, cast, overview, tagline and genres with field boosts,
+     * routing prefix and phrase clauses to the subfields.
+     */
+    private Query parseQuery(IndexView view, String queryText) throws ParseException {
+        return view.subfieldRouter.route(createParser(analyzer).parse(queryText));
+    }
+
+    /**
+     * Creates the parser for queries over title, cast, overview, tagline and
+     * genres with field boosts (shared with {@link ShardedSearcher}).
+     */
+    static MultiFieldQueryParser createParser(Analyzer analyzer) {
         // Search in multiple fields with different boosts
         String[] fields = {
             MovieIndexer.FIELD_TITLE,
@@ -76,10 +318,26 @@ public class MovieSearcher {
         boosts.put(MovieIndexer.FIELD_TAGLINE, 1.0f);
         boosts.put(MovieIndexer.FIELD_GENRES, 1.0f);
         
-        MultiFieldQueryParser parser = new MultiFieldQueryParser(fields, analyzer, boosts);
-        Query query = parser.parse(queryText);
-        
-        return executeSearch(query, null, maxResults);
+        return new MultiFieldQueryParser(fields, analyzer, boosts);
+    }
+
+    /**
+     * Estimates the cost of a query before running it (for admission control).
+     */
+    public QueryCost estimateCost(String queryText) throws ParseException, IOException {
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            return QueryCost.estimate(view.getIndexReader(), parseQuery(view, queryText), queryText.length());
+        } finally {
+            searcherManager.release(view);
+        }
+    }
+
+    private void recordQuery(String queryText) {
+        metrics.increment("queries");
+        if (queryLog != null) {
+            queryLog.record(queryText);
+        }
     }
 
     /**
@@ -100,29 +358,23 @@ public class MovieSearcher {
                                            Integer minYear, Integer maxYear,
                                            int maxResults) 
             throws ParseException, IOException {
-        // Check searcher state
-        if (searcher == null || reader == null) {
-            openIndex();
+        IndexView view = (IndexView) searcherManager.acquire();
+        try {
+            return enhancedSearch(view, queryText, minRating, maxRating, minYear, maxYear, maxResults);
+        } finally {
+            searcherManager.release(view);
         }
-        
+    }
+
+    private List<SearchResult> enhancedSearch(IndexView view, String queryText,
+                                              Double minRating, Double maxRating,
+                                              Integer minYear, Integer maxYear,
+                                              int maxResults)
+            throws ParseException, IOException {
         // Build text query
-        String[] fields = {
-            MovieIndexer.FIELD_TITLE,
-            MovieIndexer.FIELD_CAST,
-            MovieIndexer.FIELD_OVERVIEW,
-            MovieIndexer.FIELD_TAGLINE,
-            MovieIndexer.FIELD_GENRES
-        };
-        
-        Map<String, Float> boosts = new HashMap<>();
-        boosts.put(MovieIndexer.FIELD_TITLE, 2.0f);
-        boosts.put(MovieIndexer.FIELD_CAST, 1.5f);
-        boosts.put(MovieIndexer.FIELD_OVERVIEW, 1.0f);
-        boosts.put(MovieIndexer.FIELD_TAGLINE, 1.0f);
-        boosts.put(MovieIndexer.FIELD_GENRES, 1.0f);
-        
-        MultiFieldQueryParser parser = new MultiFieldQueryParser(fields, analyzer, boosts);
-        Query textQuery = parser.parse(queryText);
+        recordQuery(queryText);
+        SearchMetrics.Trace trace = metrics.trace();
+        Query textQuery = parseQuery(view, queryText);
         
         // Build filter query
         List<Query> filterQueries = new ArrayList<>();
@@ -156,28 +408,30 @@ public class MovieSearcher {
             }
         }
         
-        return executeSearch(textQuery, filterQuery, maxResults);
+        trace.stage("parse");
+        
+        return executeSearch(view, queryText, textQuery, filterQuery, maxResults, null, trace);
     }
 
     /**
      * Executes a search query with optional filter.
      * 
+     * @param view Acquired searcher to run the query on
+     * @param queryText Query as entered (for the slow-query log)
      * @param query Main search query
      * @param filter Optional filter query
      * @param maxResults Maximum number of results
+     * @param extra Optional collector that sees every match as well
+     * @param trace Stage timings of this query so far
      * @return List of search results
      * @throws IOException If search fails
      */
-    private List<SearchResult> executeSearch(Query query, Query filter, int maxResults) 
+    private List<SearchResult> executeSearch(IndexView view, String queryText, Query query, Query filter,
+                                             int maxResults, Collector extra,
+                                             SearchMetrics.Trace trace)
             throws IOException {
         List<SearchResult> results = new ArrayList<>();
         
-        // Check if reader is open
-        if (reader == null || searcher == null) {
-            System.err.println("Warning: Index reader not initialized, reopening...");
-            openIndex();
-        }
-        
         // Apply filter if provided
         Query finalQuery = query;
         if (filter != null) {
@@ -187,37 +441,79 @@ public class MovieSearcher {
                 .build();
         }
         
-        // Execute search
-        TopDocs topDocs = searcher.search(finalQuery, maxResults);
+        // Execute search (first stage); stage times are recorded per query in the metrics
+        RescoreSettings rescore = rescoreSettings;
+        int firstStageSize = rescore != null ? Math.max(rescore.window, maxResults) : maxResults;
+        TopDocs topDocs;
+        if (extra != null) {
+            // Every match has to be collected, so no early termination
+            TopScoreDocCollector top = TopScoreDocCollector.create(firstStageSize, Integer.MAX_VALUE);
+            view.search(finalQuery, MultiCollector.wrap(top, extra));
+            topDocs = top.topDocs();
+        } else {
+            topDocs = view.search(finalQuery, firstStageSize);
+        }
+        trace.stage("search");
+        
+        // Rescore the top-N candidates (second stage)
+        if (rescore != null) {
+            topDocs = rescore.rescorer.rescore(view, topDocs, maxResults);
+            trace.stage("rescore");
+        }
+        
+        // Highlight matched passages of the overview
+        String[] snippets = snippetsEnabled
+            ? view.snippetGenerator.generate(query, topDocs.scoreDocs)
+            : new String[topDocs.scoreDocs.length];
+        if (snippetsEnabled) {
+            trace.stage("snippets");
+        }
         
         // Extract results
-        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-            Document doc = searcher.doc(scoreDoc.doc);
-            SearchResult result = new SearchResult(doc, scoreDoc.score);
+        for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+            Document doc = view.doc(scoreDoc.doc);
+            metrics.recordStoredFields(doc);
+            if (view.overviewStore != null) {
+                view.overviewStore.addTo(doc);
+            }
+            SearchResult result = new SearchResult(doc, scoreDoc.score, snippets[i]);
             results.add(result);
         }
+        trace.stage("extraction");
+        long totalNanos = trace.finish();
+        if (slowQueryLog != null && slowQueryLog.isSlow(totalNanos)) {
+            slowQueryLog.record(metrics.getName(), queryText, finalQuery, topDocs.totalHits.value, trace,
+                view.getIndexReader());
+        }
         
         return results;
     }
 
     /**
-     * Refreshes the index reader (call after re-indexing).
+     * Switches to the latest commit of the index, if there is a newer one
+     * (call after re-indexing, or periodically on a replica). The new reader
+     * is warmed up before searches see it; searches still running on the
+     * previous reader are not affected. In heap mode ({@link DirectoryConfig#heap})
+     * the directory is a copy of the commit the searcher was opened on, so
+     * this never finds a newer commit; open a new searcher instead.
+     *
+     * @return Whether the searcher was switched to a new commit
      */
-    public void refresh() throws IOException {
-        if (reader != null) {
-            reader.close();
+    public boolean refresh() throws IOException {
+        if (searcherManager.isSearcherCurrent()) {
+            return false;
         }
-        // Reopen the index
-        openIndex();
+        searcherManager.maybeRefreshBlocking();
+        return true;
     }
 
     /**
      * Closes the searcher and releases resources.
      */
     public void close() throws IOException {
-        if (reader != null) {
-            reader.close();
-        }
+        searcherManager.close();
+        directory.close();
         analyzer.close();
     }
 }
@@ -0,0 +1,107 @@
+package edu.multimedia.lucene.search;
+
+import com.google.gson.stream.JsonWriter;
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.OverviewStore;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Collector that writes every matching document as one JSON object per line
+ * (NDJSON) while the search runs. Documents are visited in index order
+ * without scoring, and only the projected stored fields are loaded, so
+ * nothing is accumulated: memory use is independent of the number of matches.
+ * An overview kept outside the index is read from its {@link OverviewStore}.
+ */
+public class NdjsonExportCollector extends SimpleCollector {
+    private final List<String> fields;
+    private final HashSet<String> fieldSet;
+    private final Writer writer;
+    private final JsonWriter json;
+    private final OverviewStore overviewStore;
+    private StoredFields storedFields;
+    private long count;
+
+    /**
+     * @param fields Stored fields to write, in output order
+     * @param writer Destination (should be buffered; it is not flushed per document)
+     */
+    public NdjsonExportCollector(List<String> fields, Writer writer) {
+        this(fields, writer, null);
+    }
+
+    /**
+     * @param fields Stored fields to write, in output order
+     * @param writer Destination (should be buffered; it is not flushed per document)
+     * @param overviewStore Store holding the overview text (null = stored in the index)
+     */
+    public NdjsonExportCollector(List<String> fields, Writer writer, OverviewStore overviewStore) {
+        this.fields = fields;
+        this.fieldSet = new HashSet<>(fields);
+        this.writer = writer;
+        // The overview is looked up in the store by IMDB ID
+        this.overviewStore = overviewStore != null && fieldSet.contains(MovieIndexer.FIELD_OVERVIEW)
+            ? overviewStore
+            : null;
+        if (this.overviewStore != null) {
+            fieldSet.add(MovieIndexer.FIELD_IMDB_ID);
+        }
+        // Lenient: allows one top-level object per line
+        this.json = new JsonWriter(writer);
+        this.json.setLenient(true);
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        storedFields = context.reader().storedFields();
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(fieldSet);
+        storedFields.document(doc, visitor);
+        Document document = visitor.getDocument();
+        if (overviewStore != null) {
+            overviewStore.addTo(document);
+        }
+
+        json.beginObject();
+        for (String field : fields) {
+            IndexableField value = document.getField(field);
+            if (value == null) {
+                continue;
+            }
+            json.name(field);
+            if (value.numericValue() != null) {
+                json.value(value.numericValue());
+            } else {
+                json.value(value.stringValue());
+            }
+        }
+        json.endObject();
+        writer.write('\n');
+        count++;
+    }
+
+    /**
+     * Gets the number of documents written.
+     */
+    public long getCount() {
+        return count;
+    }
+}
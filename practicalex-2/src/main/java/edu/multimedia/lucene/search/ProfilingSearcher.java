@@ -0,0 +1,337 @@
+package edu.multimedia.lucene.search;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Searcher that runs a query with timing instrumentation, to find out why it
+ * is slow: how long rewriting took (fuzzy and wildcard expansion), how long
+ * each segment took, and for every top-level clause the time spent creating
+ * its weight and scorers, iterating its postings and scoring, and how many
+ * of its matches were visited (top-hits search skips blocks of documents
+ * that cannot compete).
+ *
+ * Every postings call is timed, so profiled queries run noticeably slower;
+ * it is meant for re-running queries already known to be slow. The query
+ * cache is disabled so that every clause is really executed.
+ */
+public class ProfilingSearcher extends IndexSearcher {
+    private static final int MAX_DESCRIPTION_CHARS = 200;
+
+    private final List<long[]> segments = new ArrayList<>();
+
+    public ProfilingSearcher(IndexReader reader) {
+        super(reader);
+        setQueryCache(null);
+    }
+
+    /**
+     * Runs a query with profiling.
+     *
+     * @param query Query as executed (not yet rewritten)
+     * @param maxResults Number of top hits to collect
+     */
+    public QueryProfile profile(Query query, int maxResults) throws IOException {
+        long start = System.nanoTime();
+        Query rewritten = rewrite(query);
+        long rewriteNanos = System.nanoTime() - start;
+
+        List<ClauseProfile> clauses = new ArrayList<>();
+        Query instrumented;
+        if (rewritten instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) rewritten;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                ClauseProfile profile = new ClauseProfile(clause.getQuery(), clause.getOccur());
+                clauses.add(profile);
+                builder.add(new ProfiledQuery(clause.getQuery(), profile), clause.getOccur());
+            }
+            instrumented = builder.build();
+        } else {
+            ClauseProfile profile = new ClauseProfile(rewritten, BooleanClause.Occur.MUST);
+            clauses.add(profile);
+            instrumented = new ProfiledQuery(rewritten, profile);
+        }
+
+        segments.clear();
+        start = System.nanoTime();
+        TopDocs topDocs = search(instrumented, maxResults);
+        long searchNanos = System.nanoTime() - start;
+        return new QueryProfile(rewritten, rewriteNanos, searchNanos, topDocs.totalHits.value,
+            clauses, new ArrayList<>(segments));
+    }
+
+    /**
+     * Searches the segments one by one, timing each.
+     */
+    @Override
+    protected void search(List<LeafReaderContext> leaves, Weight weight, Collector collector)
+            throws IOException {
+        for (LeafReaderContext leaf : leaves) {
+            long start = System.nanoTime();
+            super.search(Collections.singletonList(leaf), weight, collector);
+            segments.add(new long[] {leaf.ord, leaf.reader().maxDoc(), System.nanoTime() - start});
+        }
+    }
+
+    private static String describe(Query query) {
+        String description = query.toString();
+        return description.length() > MAX_DESCRIPTION_CHARS
+            ? description.substring(0, MAX_DESCRIPTION_CHARS) + "..."
+            : description;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    /**
+     * Profile of one query execution.
+     */
+    public static class QueryProfile {
+        private final Query rewritten;
+        private final long rewriteNanos;
+        private final long searchNanos;
+        private final long totalHits;
+        private final List<ClauseProfile> clauses;
+        /** Segment ordinal, documents and nanoseconds per segment. */
+        private final List<long[]> segments;
+
+        QueryProfile(Query rewritten, long rewriteNanos, long searchNanos, long totalHits,
+                     List<ClauseProfile> clauses, List<long[]> segments) {
+            this.rewritten = rewritten;
+            this.rewriteNanos = rewriteNanos;
+            this.searchNanos = searchNanos;
+            this.totalHits = totalHits;
+            this.clauses = clauses;
+            this.segments = segments;
+        }
+
+        public Query getRewritten() {
+            return rewritten;
+        }
+
+        public List<ClauseProfile> getClauses() {
+            return clauses;
+        }
+
+        public void writeTo(JsonWriter json) throws IOException {
+            json.beginObject();
+            json.name("rewriteMillis").value(millis(rewriteNanos));
+            json.name("searchMillis").value(millis(searchNanos));
+            json.name("totalHits").value(totalHits);
+            json.name("segments").beginArray();
+            for (long[] segment : segments) {
+                json.beginObject();
+                json.name("ord").value(segment[0]);
+                json.name("docs").value(segment[1]);
+                json.name("millis").value(millis(segment[2]));
+                json.endObject();
+            }
+            json.endArray();
+            json.name("clauses").beginArray();
+            for (ClauseProfile clause : clauses) {
+                clause.writeTo(json);
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    /**
+     * Time and matches of one top-level clause, summed over all segments.
+     */
+    public static class ClauseProfile {
+        private final String description;
+        private final BooleanClause.Occur occur;
+        private long weightNanos;
+        private long scorerNanos;
+        private long iterateNanos;
+        private long scoreNanos;
+        private long matches;
+
+        ClauseProfile(Query query, BooleanClause.Occur occur) {
+            this.description = describe(query);
+            this.occur = occur;
+        }
+
+        /**
+         * Gets the total time spent in the clause.
+         */
+        public long getTotalNanos() {
+            return weightNanos + scorerNanos + iterateNanos + scoreNanos;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        void writeTo(JsonWriter json) throws IOException {
+            json.beginObject();
+            json.name("clause").value(description);
+            json.name("occur").value(occur.name());
+            json.name("matches").value(matches);
+            json.name("weightMillis").value(millis(weightNanos));
+            json.name("scorerMillis").value(millis(scorerNanos));
+            json.name("iterateMillis").value(millis(iterateNanos));
+            json.name("scoreMillis").value(millis(scoreNanos));
+            json.endObject();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %d matches, %.3f ms", occur, description, matches,
+                getTotalNanos() / 1_000_000.0);
+        }
+    }
+
+    /**
+     * Wraps a clause so that its weight, scorers and iterators are timed.
+     */
+    private static class ProfiledQuery extends Query {
+        private final Query in;
+        private final ClauseProfile profile;
+
+        ProfiledQuery(Query in, ClauseProfile profile) {
+            this.in = in;
+            this.profile = profile;
+        }
+
+        @Override
+        public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+                throws IOException {
+            long start = System.nanoTime();
+            Weight weight = searcher.createWeight(in, scoreMode, boost);
+            profile.weightNanos += System.nanoTime() - start;
+
+            return new FilterWeight(this, weight) {
+                @Override
+                public Scorer scorer(LeafReaderContext context) throws IOException {
+                    long start = System.nanoTime();
+                    Scorer scorer = in.scorer(context);
+                    profile.scorerNanos += System.nanoTime() - start;
+                    return scorer != null ? new ProfiledScorer(this, scorer, profile) : null;
+                }
+            };
+        }
+
+        @Override
+        public void visit(QueryVisitor visitor) {
+            in.visit(visitor);
+        }
+
+        @Override
+        public String toString(String field) {
+            return in.toString(field);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+
+    private static class ProfiledScorer extends Scorer {
+        private final Scorer in;
+        private final ClauseProfile profile;
+        private final DocIdSetIterator iterator;
+
+        ProfiledScorer(Weight weight, Scorer in, ClauseProfile profile) {
+            super(weight);
+            this.in = in;
+            this.profile = profile;
+            DocIdSetIterator inIterator = in.iterator();
+            this.iterator = new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return inIterator.docID();
+                }
+
+                @Override
+                public int nextDoc() throws IOException {
+                    long start = System.nanoTime();
+                    int doc = inIterator.nextDoc();
+                    count(doc, start);
+                    return doc;
+                }
+
+                @Override
+                public int advance(int target) throws IOException {
+                    long start = System.nanoTime();
+                    int doc = inIterator.advance(target);
+                    count(doc, start);
+                    return doc;
+                }
+
+                @Override
+                public long cost() {
+                    return inIterator.cost();
+                }
+            };
+        }
+
+        private void count(int doc, long start) {
+            profile.iterateNanos += System.nanoTime() - start;
+            if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                profile.matches++;
+            }
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return iterator;
+        }
+
+        @Override
+        public float score() throws IOException {
+            long start = System.nanoTime();
+            float score = in.score();
+            profile.scoreNanos += System.nanoTime() - start;
+            return score;
+        }
+
+        @Override
+        public int docID() {
+            return in.docID();
+        }
+
+        @Override
+        public float getMaxScore(int upTo) throws IOException {
+            return in.getMaxScore(upTo);
+        }
+
+        @Override
+        public int advanceShallow(int target) throws IOException {
+            return in.advanceShallow(target);
+        }
+
+        @Override
+        public void setMinCompetitiveScore(float minScore) throws IOException {
+            in.setMinCompetitiveScore(minScore);
+        }
+    }
+}
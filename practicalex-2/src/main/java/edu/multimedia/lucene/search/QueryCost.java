@@ -0,0 +1,142 @@
+package edu.multimedia.lucene.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Supplier;
+
+/**
+ * Estimated execution cost of a query, computed before it runs from its
+ * structure and the index statistics:
+ * <ul>
+ *   <li>every term clause costs its document frequency (postings to iterate)</li>
+ *   <li>every multi-term clause (fuzzy, wildcard, prefix, regexp) costs a term
+ *       dictionary walk plus potentially many postings, estimated as a fixed
+ *       fraction of the index</li>
+ *   <li>many clauses or very long query strings are expensive regardless</li>
+ * </ul>
+ * The cost is summarized as a {@link CostClass} for admission control.
+ */
+public final class QueryCost {
+    /** Estimated postings per multi-term clause, as a fraction of the documents. */
+    private static final double MULTI_TERM_FRACTION = 0.5;
+    private static final int MODERATE_CLAUSES = 20;
+    private static final int EXPENSIVE_CLAUSES = 50;
+    private static final int EXPENSIVE_QUERY_LENGTH = 256;
+
+    public enum CostClass { CHEAP, MODERATE, EXPENSIVE }
+
+    private final int clauses;
+    private final int multiTermClauses;
+    private final long postings;
+    private final CostClass costClass;
+
+    private QueryCost(int clauses, int multiTermClauses, long postings, CostClass costClass) {
+        this.clauses = clauses;
+        this.multiTermClauses = multiTermClauses;
+        this.postings = postings;
+        this.costClass = costClass;
+    }
+
+    /**
+     * Estimates the cost of a query against an index.
+     *
+     * @param reader Index the query will run against
+     * @param query Parsed query
+     * @param queryLength Length of the query string
+     */
+    public static QueryCost estimate(IndexReader reader, Query query, int queryLength) throws IOException {
+        int maxDoc = Math.max(1, reader.maxDoc());
+        long[] counts = new long[3]; // clauses, multi-term clauses, postings
+        try {
+            query.visit(new QueryVisitor() {
+                @Override
+                public void consumeTerms(Query leaf, Term... terms) {
+                    for (Term term : terms) {
+                        counts[0]++;
+                        try {
+                            counts[2] += reader.docFreq(term);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+
+                @Override
+                public void consumeTermsMatching(Query leaf, String field,
+                                                 Supplier<ByteRunAutomaton> automaton) {
+                    counts[0]++;
+                    counts[1]++;
+                    counts[2] += (long) (maxDoc * MULTI_TERM_FRACTION);
+                }
+
+                @Override
+                public void visitLeaf(Query leaf) {
+                    counts[0]++;
+                }
+
+                @Override
+                public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+                    // Prohibited clauses are evaluated too, so they count as well
+                    return this;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int clauses = (int) counts[0];
+        int multiTermClauses = (int) counts[1];
+        long postings = counts[2];
+
+        CostClass costClass;
+        if (multiTermClauses > 0 || clauses > EXPENSIVE_CLAUSES
+                || queryLength > EXPENSIVE_QUERY_LENGTH || postings > 4L * maxDoc) {
+            costClass = CostClass.EXPENSIVE;
+        } else if (clauses > MODERATE_CLAUSES || postings > maxDoc) {
+            costClass = CostClass.MODERATE;
+        } else {
+            costClass = CostClass.CHEAP;
+        }
+        return new QueryCost(clauses, multiTermClauses, postings, costClass);
+    }
+
+    /**
+     * Simplifies a query string for degraded execution: fuzzy ("word?", "word~")
+     * and wildcard ("wor*") markers are removed so only exact terms remain.
+     */
+    public static String simplify(String queryText) {
+        return queryText.replaceAll("[?*~]+\\d*(\\.\\d+)?", "").trim();
+    }
+
+    public int getClauses() {
+        return clauses;
+    }
+
+    public int getMultiTermClauses() {
+        return multiTermClauses;
+    }
+
+    /**
+     * Gets the estimated number of postings the query iterates.
+     */
+    public long getPostings() {
+        return postings;
+    }
+
+    public CostClass getCostClass() {
+        return costClass;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d clauses, %d multi-term, ~%d postings)",
+            costClass, clauses, multiTermClauses, postings);
+    }
+}
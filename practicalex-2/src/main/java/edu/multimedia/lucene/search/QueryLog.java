@@ -0,0 +1,230 @@
+package edu.multimedia.lucene.search;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a sample of recent queries to a local log file, so a newly opened
+ * index can be warmed up with the queries users actually run.
+ * Only the most recent {@code maxEntries} queries are kept; the file is
+ * compacted when it grows beyond twice that size.
+ *
+ * As in {@link SlowQueryLog}, the query thread only hands the query to a
+ * bounded queue; a background thread appends it to the file and compacts
+ * the file. When the queue is full the query is dropped (and counted)
+ * instead of blocking the search.
+ */
+public class QueryLog {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+
+    private static final int QUEUE_CAPACITY = 1000;
+    /** Marks the end of the queue (compared by identity). */
+    private static final String POISON = new String("");
+
+    private final Path logFile;
+    private final int maxEntries;
+    private final double sampleRate;
+    private final Deque<String> recent = new ArrayDeque<>();
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private BufferedWriter writer;
+    private int linesInFile;
+    private volatile boolean closed;
+
+    /**
+     * Opens the query log that belongs to an index directory
+     * (a file named "&lt;index&gt;-queries.log" next to it).
+     */
+    public static QueryLog forIndex(Path indexDirectory) throws IOException {
+        Path absolute = indexDirectory.toAbsolutePath();
+        return new QueryLog(absolute.resolveSibling(absolute.getFileName() + "-queries.log"),
+            DEFAULT_MAX_ENTRIES, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @param logFile Log file (created if missing)
+     * @param maxEntries Number of recent queries to keep
+     * @param sampleRate Fraction of queries to record (0.0-1.0)
+     */
+    public QueryLog(Path logFile, int maxEntries, double sampleRate) throws IOException {
+        this.logFile = logFile;
+        this.maxEntries = maxEntries;
+        this.sampleRate = sampleRate;
+        load();
+
+        writerThread = new Thread(this::writeEntries, "query-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Loads the most recent entries and compacts the file if needed.
+     */
+    private void load() throws IOException {
+        if (Files.exists(logFile)) {
+            List<String> lines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+            linesInFile = lines.size();
+            for (String line : lines.subList(Math.max(0, lines.size() - maxEntries), lines.size())) {
+                if (!line.isEmpty()) {
+                    recent.addLast(line);
+                }
+            }
+            if (linesInFile > 2 * maxEntries) {
+                compact();
+            }
+        }
+        openWriter();
+    }
+
+    private void openWriter() throws IOException {
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void compact() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        List<String> lines;
+        synchronized (recent) {
+            lines = new ArrayList<>(recent);
+        }
+        Files.write(logFile, lines, StandardCharsets.UTF_8);
+        linesInFile = lines.size();
+        openWriter();
+    }
+
+    /**
+     * Records a query (subject to sampling); never blocks.
+     */
+    public void record(String queryText) {
+        if (queryText == null) {
+            return;
+        }
+        String normalized = queryText.trim().replaceAll("\\s+", " ");
+        if (normalized.isEmpty() || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        if (closed || !queue.offer(normalized)) {
+            dropped.incrementAndGet();
+        } else if (closed && queue.remove(normalized)) {
+            // Closed between the check and the offer, and close() has not drained the query
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of sampled queries dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void writeEntries() {
+        try {
+            while (true) {
+                String query = queue.take();
+                if (query == POISON) {
+                    break;
+                }
+                write(query);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(String query) {
+        synchronized (recent) {
+            recent.addLast(query);
+            if (recent.size() > maxEntries) {
+                recent.removeFirst();
+            }
+        }
+        try {
+            writer.write(query);
+            writer.newLine();
+            if (queue.isEmpty()) {
+                writer.flush();
+            }
+            if (++linesInFile > 2 * maxEntries) {
+                compact();
+            }
+        } catch (IOException e) {
+            // Logging must never fail a search
+            System.err.println("Warning: could not write query log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the most frequent recent queries, most frequent first.
+     *
+     * @param n Maximum number of queries
+     */
+    public List<String> topQueries(int n) {
+        Map<String, Integer> counts = new HashMap<>();
+        synchronized (recent) {
+            for (String query : recent) {
+                counts.merge(query, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> {
+            int cmp = Integer.compare(b.getValue(), a.getValue());
+            return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+        });
+
+        List<String> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, entries.size()); i++) {
+            top.add(entries.get(i).getKey());
+        }
+        return top;
+    }
+
+    public int size() {
+        synchronized (recent) {
+            return recent.size();
+        }
+    }
+
+    /**
+     * Writes the queued queries and closes the file.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(POISON);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Queries offered after the poison (record() raced with close())
+        List<String> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (String query : left) {
+            if (query != POISON) {
+                write(query);
+            }
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,124 @@
+package edu.multimedia.lucene.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Searcher factory that warms up every newly opened reader before it is
+ * published: the most frequent queries from the query log are replayed
+ * (within a time budget), which pages in the term dictionary, postings and
+ * stored fields, fills the query cache and gives the JIT something to compile.
+ */
+public class QueryLogWarmer extends SearcherFactory {
+    public static final int DEFAULT_TOP_N = 50;
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 2000;
+    private static final int HITS_PER_QUERY = 10;
+
+    /**
+     * Turns logged query text into a query, the same way the searcher does.
+     */
+    public interface QueryBuilder {
+        /**
+         * @param searcher Searcher being warmed up (queries may depend on its reader)
+         * @param queryText Logged query text
+         */
+        Query build(IndexSearcher searcher, String queryText) throws ParseException;
+    }
+
+    private final QueryLog queryLog;
+    private final QueryBuilder queryBuilder;
+    private final int topN;
+    private final long timeBudgetNanos;
+
+    private volatile int warmups;
+    private volatile int lastQueriesReplayed;
+    private volatile long lastWarmupNanos;
+    private volatile long totalWarmupNanos;
+
+    public QueryLogWarmer(QueryLog queryLog, QueryBuilder queryBuilder) {
+        this(queryLog, queryBuilder, DEFAULT_TOP_N, DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param queryLog Source of recent queries
+     * @param queryBuilder Parses logged query text
+     * @param topN Number of most frequent queries to replay
+     * @param timeBudgetMillis Maximum warm-up time per reader
+     */
+    public QueryLogWarmer(QueryLog queryLog, QueryBuilder queryBuilder, int topN, long timeBudgetMillis) {
+        this.queryLog = queryLog;
+        this.queryBuilder = queryBuilder;
+        this.topN = topN;
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000L;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        IndexSearcher searcher = super.newSearcher(reader, previousReader);
+        warm(searcher);
+        return searcher;
+    }
+
+    /**
+     * Warms up a searcher created elsewhere (e.g. by a searcher factory that
+     * attaches more per-reader state) before it is published.
+     */
+    public void warm(IndexSearcher searcher) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + timeBudgetNanos;
+        int replayed = 0;
+        List<String> queries = queryLog.topQueries(topN);
+        for (String queryText : queries) {
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+            try {
+                TopDocs topDocs = searcher.search(queryBuilder.build(searcher, queryText), HITS_PER_QUERY);
+                // Touch the stored fields of the hits as a results page would
+                StoredFields storedFields = searcher.storedFields();
+                for (ScoreDoc hit : topDocs.scoreDocs) {
+                    storedFields.document(hit.doc);
+                }
+                replayed++;
+            } catch (ParseException | RuntimeException e) {
+                // Skip queries that no longer parse or run against this index
+            }
+        }
+
+        lastWarmupNanos = System.nanoTime() - start;
+        totalWarmupNanos += lastWarmupNanos;
+        lastQueriesReplayed = replayed;
+        warmups++;
+    }
+
+    public int getWarmupCount() {
+        return warmups;
+    }
+
+    public int getLastQueriesReplayed() {
+        return lastQueriesReplayed;
+    }
+
+    public double getLastWarmupMillis() {
+        return lastWarmupNanos / 1_000_000.0;
+    }
+
+    public double getTotalWarmupMillis() {
+        return totalWarmupNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Warm-up: replayed %d queries in %.1f ms (%d warm-ups, %.1f ms total)",
+            lastQueriesReplayed, getLastWarmupMillis(), warmups, getTotalWarmupMillis());
+    }
+}
@@ -0,0 +1,13 @@
+package edu.multimedia.lucene.search;
+
+/**
+ * Thrown when a query is not admitted because too many queries of its cost
+ * class are already running.
+ */
+public class QueryRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public QueryRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,56 @@
+package edu.multimedia.lucene.search;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fuses several ranked result lists into one.
+ */
+public final class RankFusion {
+    public static final int DEFAULT_RRF_K = 60;
+
+    private RankFusion() {
+    }
+
+    /**
+     * Reciprocal rank fusion: each document scores the sum of 1 / (k + rank)
+     * over the lists it appears in. Only ranks are used, so lists with
+     * incomparable scores (BM25 and cosine) can be combined.
+     *
+     * @param k Rank constant (60 is the usual choice)
+     * @param topN Maximum number of fused results
+     * @param rankings Ranked lists over the same index
+     * @return Fused ranking
+     */
+    public static TopDocs reciprocalRankFusion(int k, int topN, TopDocs... rankings) {
+        Map<Integer, Float> scores = new LinkedHashMap<>();
+        long totalHits = 0;
+        for (TopDocs ranking : rankings) {
+            totalHits = Math.max(totalHits, ranking.totalHits.value);
+            for (int rank = 0; rank < ranking.scoreDocs.length; rank++) {
+                float contribution = 1.0f / (k + rank + 1);
+                scores.merge(ranking.scoreDocs[rank].doc, contribution, Float::sum);
+            }
+        }
+
+        List<ScoreDoc> fused = new ArrayList<>(scores.size());
+        for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+            fused.add(new ScoreDoc(entry.getKey(), entry.getValue()));
+        }
+        fused.sort((a, b) -> {
+            int cmp = Float.compare(b.score, a.score);
+            return cmp != 0 ? cmp : Integer.compare(a.doc, b.doc);
+        });
+
+        List<ScoreDoc> top = fused.subList(0, Math.min(topN, fused.size()));
+        totalHits = Math.max(totalHits, fused.size());
+        return new TopDocs(new TotalHits(totalHits, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO),
+            top.toArray(new ScoreDoc[0]));
+    }
+}
@@ -0,0 +1,462 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.util.LatencyHistogram;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of one searcher: a latency timer per search stage, counters
+ * (queries, expansions, stored-field bytes, ...) and gauges read on demand
+ * (e.g. query cache hits). Recording is lock-free (striped adders and an
+ * atomic bucket array), so it can stay on in production.
+ *
+ * The metrics are exposed through JMX ({@link #registerMBean()}) as
+ * {@code edu.multimedia.lucene:type=SearchMetrics,name=<name>}, and as text
+ * in the Prometheus exposition format ({@link #writeText}).
+ */
+public class SearchMetrics {
+    public static final String JMX_DOMAIN = "edu.multimedia.lucene";
+    private static final String PREFIX = "movie_search_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final String name;
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private ObjectName objectName;
+
+    /**
+     * @param name Name of the searcher, used as label and JMX name
+     */
+    public SearchMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the timer of a stage, creating it on first use.
+     */
+    public Timer timer(String stage) {
+        return timers.computeIfAbsent(stage, s -> new Timer());
+    }
+
+    /**
+     * Records the time since the start of a stage and returns the current time,
+     * which is the start of the next stage.
+     */
+    public long time(String stage, long startNanos) {
+        long now = System.nanoTime();
+        timer(stage).record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Starts timing the stages of one query.
+     */
+    public Trace trace() {
+        return new Trace();
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        counters.computeIfAbsent(counter, c -> new LongAdder()).add(delta);
+    }
+
+    public long getCount(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    /**
+     * Adds a value that is read whenever the metrics are read.
+     */
+    public void gauge(String gauge, LongSupplier value) {
+        gauges.put(gauge, value);
+    }
+
+    /**
+     * Counts the documents and (approximate) bytes of loaded stored fields.
+     */
+    public void recordStoredFields(Document document) {
+        long bytes = 0;
+        for (IndexableField field : document.getFields()) {
+            if (field.binaryValue() != null) {
+                bytes += field.binaryValue().length;
+            } else if (field.stringValue() != null) {
+                bytes += field.stringValue().length();
+            } else if (field.numericValue() != null) {
+                bytes += Long.BYTES;
+            }
+        }
+        increment("stored_documents");
+        add("stored_field_bytes", bytes);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing metrics
+     * registered earlier under the same name.
+     */
+    public synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=SearchMetrics,name=" + name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricsMBean(), objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            System.err.println("Could not register metrics " + name + " with JMX: " + e.getMessage());
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Already gone
+        }
+        objectName = null;
+    }
+
+    /**
+     * Writes the metrics of several searchers in the Prometheus text format,
+     * each metric once with one sample per searcher.
+     */
+    public static void writeText(Appendable out, SearchMetrics... registries) throws IOException {
+        out.append("# TYPE " + PREFIX + "stage_seconds summary\n");
+        for (SearchMetrics metrics : registries) {
+            for (Map.Entry<String, Timer> entry : metrics.timers.entrySet()) {
+                String labels = "searcher=\"" + metrics.name + "\",stage=\"" + entry.getKey() + "\"";
+                Timer timer = entry.getValue();
+                for (double quantile : QUANTILES) {
+                    out.append(PREFIX + "stage_seconds{" + labels + ",quantile=\"" + quantile + "\"} "
+                        + seconds(timer.percentile(quantile)) + "\n");
+                }
+                out.append(PREFIX + "stage_seconds_sum{" + labels + "} " + seconds(timer.getSumNanos()) + "\n");
+                out.append(PREFIX + "stage_seconds_count{" + labels + "} " + timer.getCount() + "\n");
+            }
+        }
+
+        Set<String> counterNames = new TreeSet<>();
+        Set<String> gaugeNames = new TreeSet<>();
+        for (SearchMetrics metrics : registries) {
+            counterNames.addAll(metrics.counters.keySet());
+            gaugeNames.addAll(metrics.gauges.keySet());
+        }
+        for (String counter : counterNames) {
+            out.append("# TYPE " + PREFIX + counter + "_total counter\n");
+            for (SearchMetrics metrics : registries) {
+                if (metrics.counters.containsKey(counter)) {
+                    out.append(PREFIX + counter + "_total{searcher=\"" + metrics.name + "\"} "
+                        + metrics.getCount(counter) + "\n");
+                }
+            }
+        }
+        for (String gauge : gaugeNames) {
+            out.append("# TYPE " + PREFIX + gauge + " gauge\n");
+            for (SearchMetrics metrics : registries) {
+                LongSupplier value = metrics.gauges.get(gauge);
+                if (value != null) {
+                    out.append(PREFIX + gauge + "{searcher=\"" + metrics.name + "\"} "
+                        + value.getAsLong() + "\n");
+                }
+            }
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Metrics of " + name + ":");
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            text.append(String.format("%n  %-12s %s", entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            text.append(String.format("%n  %-20s %d", entry.getKey(), entry.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            text.append(String.format("%n  %-20s %d", entry.getKey(), entry.getValue().getAsLong()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Stage timings of one query. Every stage is recorded in its timer and also
+     * kept here, so a slow query can be logged with its own breakdown.
+     */
+    public class Trace {
+        private final long startNanos = System.nanoTime();
+        private long stageStartNanos = startNanos;
+        private String[] stages = new String[8];
+        private long[] durations = new long[8];
+        private int size;
+        private long totalNanos = -1;
+
+        /**
+         * Ends a stage: records the time since the previous stage ended (or the
+         * trace started), starts the next one and returns the stage time.
+         */
+        public long stage(String stage) {
+            long now = System.nanoTime();
+            long nanos = now - stageStartNanos;
+            timer(stage).record(nanos);
+            if (size == stages.length) {
+                stages = Arrays.copyOf(stages, size * 2);
+                durations = Arrays.copyOf(durations, size * 2);
+            }
+            stages[size] = stage;
+            durations[size] = nanos;
+            size++;
+            stageStartNanos = now;
+            return nanos;
+        }
+
+        /**
+         * Ends the query: records the total time (as stage "total") and returns it.
+         */
+        public long finish() {
+            totalNanos = System.nanoTime() - startNanos;
+            timer("total").record(totalNanos);
+            return totalNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos >= 0 ? totalNanos : System.nanoTime() - startNanos;
+        }
+
+        /**
+         * Gets the stage durations in nanoseconds, in order.
+         */
+        public Map<String, Long> getStages() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                result.merge(stages[i], durations[i], Long::sum);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Latencies of one stage. The count and sum cover all calls since the
+     * start; the percentiles and the maximum only cover the last minute, so
+     * they follow changes in latency instead of being dominated by history.
+     * The window is made of {@value #WINDOW_SLOTS} histograms of 10 seconds
+     * each; a call is recorded in the current one, the oldest one is cleared
+     * and reused when the current one is full.
+     */
+    public static class Timer {
+        static final int WINDOW_SLOTS = 6;
+        private static final long SLOT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+        private final LatencyHistogram[] window = new LatencyHistogram[WINDOW_SLOTS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final AtomicLong slotEnd = new AtomicLong(System.nanoTime() + SLOT_NANOS);
+        private volatile int slot;
+
+        public Timer() {
+            for (int i = 0; i < window.length; i++) {
+                window[i] = new LatencyHistogram();
+            }
+        }
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            window[currentSlot()].record(value);
+            count.increment();
+            sumNanos.add(value);
+        }
+
+        /**
+         * Moves on to the next slot (clearing it) if the current one is over.
+         */
+        private int currentSlot() {
+            long now = System.nanoTime();
+            long end = slotEnd.get();
+            if (now - end >= 0) {
+                long next = now + SLOT_NANOS;
+                if (slotEnd.compareAndSet(end, next)) {
+                    // Clear every slot that ended meanwhile (all of them after an idle minute)
+                    int passed = (int) Math.min(WINDOW_SLOTS, (now - end) / SLOT_NANOS + 1);
+                    int current = slot;
+                    for (int i = 0; i < passed; i++) {
+                        current = (current + 1) % WINDOW_SLOTS;
+                        window[current].reset();
+                    }
+                    slot = current;
+                }
+            }
+            return slot;
+        }
+
+        /**
+         * Gets the latencies of the last minute.
+         */
+        private LatencyHistogram recent() {
+            currentSlot();
+            LatencyHistogram recent = new LatencyHistogram();
+            for (LatencyHistogram histogram : window) {
+                recent.add(histogram);
+            }
+            return recent;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSumNanos() {
+            return sumNanos.sum();
+        }
+
+        /**
+         * Gets the highest latency of the last minute, in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return recent().getMax();
+        }
+
+        /**
+         * Gets the latency at a percentile (0 to 1) over the last minute, in nanoseconds.
+         */
+        public long percentile(double p) {
+            return recent().percentile(p);
+        }
+
+        @Override
+        public String toString() {
+            long n = getCount();
+            LatencyHistogram recent = recent();
+            return String.format("%d calls | mean %.3f ms | last minute: p50 %.3f ms | p99 %.3f ms | max %.3f ms",
+                n, n > 0 ? getSumNanos() / 1e6 / n : 0.0, recent.percentile(0.5) / 1e6,
+                recent.percentile(0.99) / 1e6, recent.getMax() / 1e6);
+        }
+    }
+
+    /**
+     * JMX view: one attribute per counter and gauge, and count, mean, p50,
+     * p99 and max (milliseconds) per stage, e.g. "search.p99Millis".
+     */
+    private class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) {
+            LongAdder counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            LongSupplier gauge = gauges.get(attribute);
+            if (gauge != null) {
+                return gauge.getAsLong();
+            }
+            int dot = attribute.lastIndexOf('.');
+            Timer timer = dot > 0 ? timers.get(attribute.substring(0, dot)) : null;
+            if (timer == null) {
+                throw new IllegalArgumentException("No attribute " + attribute);
+            }
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return timer.getCount();
+                case "meanMillis":
+                    long n = timer.getCount();
+                    return n > 0 ? timer.getSumNanos() / 1e6 / n : 0.0;
+                case "p50Millis":
+                    return timer.percentile(0.5) / 1e6;
+                case "p99Millis":
+                    return timer.percentile(0.99) / 1e6;
+                case "maxMillis":
+                    return timer.getMaxNanos() / 1e6;
+                default:
+                    throw new IllegalArgumentException("No attribute " + attribute);
+            }
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (IllegalArgumentException e) {
+                    // Unknown attributes are left out
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // Built on every call: stages and counters appear as they are first used
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String counter : counters.keySet()) {
+                attributes.add(attribute(counter, "long", "Counter"));
+            }
+            for (String gauge : gauges.keySet()) {
+                attributes.add(attribute(gauge, "long", "Gauge"));
+            }
+            for (String stage : timers.keySet()) {
+                attributes.add(attribute(stage + ".count", "long", "Calls of stage " + stage));
+                for (String statistic : new String[] {"meanMillis", "p50Millis", "p99Millis", "maxMillis"}) {
+                    attributes.add(attribute(stage + "." + statistic, "double", "Latency of stage " + stage));
+                }
+            }
+            return new MBeanInfo(SearchMetrics.class.getName(), "Metrics of " + name,
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private MBeanAttributeInfo attribute(String attribute, String type, String description) {
+            return new MBeanAttributeInfo(attribute, type, description, true, false, false);
+        }
+    }
+}
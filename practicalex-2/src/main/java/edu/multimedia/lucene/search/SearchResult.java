@@ -1,18 +1,43 @@
 package edu.multimedia.lucene.search;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 import edu.multimedia.lucene.index.MovieIndexer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexableField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a single search result with the document and its relevance score.
  */
 public class SearchResult {
+    private static final int FALLBACK_OVERVIEW_LENGTH = 100;
+
     private final Document document;
     private final float score;
+    private final String snippet;
 
     public SearchResult(Document document, float score) {
+        this(document, score, null);
+    }
+
+    /**
+     * @param document Stored fields of the hit
+     * @param score Relevance score
+     * @param snippet Highlighted overview passage (null = use the overview prefix)
+     */
+    public SearchResult(Document document, float score, String snippet) {
         this.document = document;
         this.score = score;
+        this.snippet = snippet;
     }
 
     public Document getDocument() {
@@ -38,17 +63,19 @@ public class SearchResult {
     }
 
     /**
-     * Gets the year from the document.
+     * Gets the year from the document (0 if it has none).
      */
     public int getYear() {
-        return Integer.parseInt(document.get(MovieIndexer.FIELD_YEAR));
+        String year = document.get(MovieIndexer.FIELD_YEAR);
+        return year != null ? Integer.parseInt(year) : 0;
     }
 
     /**
-     * Gets the rating from the document.
+     * Gets the rating from the document (0 if it has none).
      */
     public double getRating() {
-        return Double.parseDouble(document.get(MovieIndexer.FIELD_RATING));
+        String rating = document.get(MovieIndexer.FIELD_RATING);
+        return rating != null ? Double.parseDouble(rating) : 0.0;
     }
 
     /**
@@ -65,8 +92,94 @@ public class SearchResult {
         return document.get(MovieIndexer.FIELD_CAST);
     }
 
+    /**
+     * Gets the query-dependent snippet, or null if none was generated.
+     * Matched terms are marked with [brackets].
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    /**
+     * Writes the result as a JSON object (imdbId, title, year, rating, score, snippet).
+     */
+    public void writeTo(JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("imdbId").value(getImdbId());
+        json.name("title").value(getTitle());
+        json.name("year").value(getYear());
+        json.name("rating").value(getRating());
+        json.name("score").value(score);
+        json.name("snippet").value(snippet);
+        json.endObject();
+    }
+
+    /**
+     * Writes the result with every stored field of its document, so it can be
+     * restored in another process with {@link #readFrom}:
+     * {@code {"score":1.5,"snippet":"...","fields":{"title":["..."],"year":[1999],...}}}.
+     */
+    public void writeAllTo(JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("score").value(score);
+        json.name("snippet").value(snippet);
+        json.name("fields").beginObject();
+        Map<String, List<IndexableField>> fields = new LinkedHashMap<>();
+        for (IndexableField field : document.getFields()) {
+            fields.computeIfAbsent(field.name(), name -> new ArrayList<>()).add(field);
+        }
+        for (Map.Entry<String, List<IndexableField>> field : fields.entrySet()) {
+            json.name(field.getKey()).beginArray();
+            for (IndexableField value : field.getValue()) {
+                if (value.numericValue() != null) {
+                    json.value(value.numericValue());
+                } else {
+                    json.value(value.stringValue());
+                }
+            }
+            json.endArray();
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    /**
+     * Restores a result written by {@link #writeAllTo}. Numbers come back as
+     * int or long if they are integers and as double otherwise.
+     */
+    public static SearchResult readFrom(JsonObject result) {
+        Document document = new Document();
+        JsonObject fields = result.getAsJsonObject("fields");
+        if (fields != null) {
+            for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+                for (JsonElement value : field.getValue().getAsJsonArray()) {
+                    if (value.isJsonNull()) {
+                        continue;
+                    }
+                    JsonPrimitive primitive = value.getAsJsonPrimitive();
+                    document.add(primitive.isNumber()
+                        ? numericField(field.getKey(), primitive.getAsString())
+                        : new StoredField(field.getKey(), primitive.getAsString()));
+                }
+            }
+        }
+        JsonElement score = result.get("score");
+        JsonElement snippet = result.get("snippet");
+        return new SearchResult(document, score == null || score.isJsonNull() ? 0f : score.getAsFloat(),
+            snippet == null || snippet.isJsonNull() ? null : snippet.getAsString());
+    }
+
+    private static StoredField numericField(String name, String number) {
+        if (number.contains(".") || number.contains("e") || number.contains("E")) {
+            return new StoredField(name, Double.parseDouble(number));
+        }
+        long value = Long.parseLong(number);
+        return value == (int) value ? new StoredField(name, (int) value) : new StoredField(name, value);
+    }
+
     /**
      * Formats the result as a string for display.
+     * Shows the highlighted snippet if available, otherwise the start of the overview.
      */
     @Override
     public String toString() {
@@ -76,10 +189,15 @@ public class SearchResult {
             getTitle(),
             getYear(),
             getRating(),
-            getOverview() != null && getOverview().length() > 100 
-                ? getOverview().substring(0, 100) + "..." 
-                : getOverview()
+            snippet != null ? snippet : overviewPrefix()
         );
     }
+
+    private String overviewPrefix() {
+        String overview = getOverview();
+        return overview != null && overview.length() > FALLBACK_OVERVIEW_LENGTH
+            ? overview.substring(0, FALLBACK_OVERVIEW_LENGTH) + "..."
+            : overview;
+    }
 }
 
@@ -0,0 +1,514 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.index.OverviewStore;
+import edu.multimedia.lucene.index.ShardedIndexer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches an index partitioned by {@link ShardedIndexer}: the query is sent
+ * to every shard in parallel (one thread per shard), each shard collects its
+ * own top hits, and the shard results are merged with {@link TopDocs#merge}.
+ *
+ * Each shard alone would score with its own document frequencies and field
+ * lengths, so the same movie would get a different BM25 score depending on
+ * its shard. The shard searchers therefore report global statistics (sums
+ * over all shards) for terms and fields, which makes the scores identical to
+ * those of a single index with all movies and the merge order meaningful.
+ * The statistics of the query terms are summed once per query, before the
+ * query is sent to the shards; only terms that a shard's rewrite adds
+ * (e.g. the expansions of a prefix query) are looked up while scoring.
+ *
+ * Queries are parsed like {@link MovieSearcher#basicSearch}.
+ *
+ * The shards, their router and the search threads (one per shard) of one
+ * opening of the index form a reference-counted snapshot. A search holds the
+ * snapshot from parsing to the last stored field it loads; {@link #refresh}
+ * swaps in a new snapshot in one step, and the previous one is closed when
+ * its last search releases it.
+ */
+public class ShardedSearcher {
+    private final Path indexDirectory;
+    private final DirectoryConfig directoryConfig;
+    private final StandardAnalyzer analyzer;
+    private final SearchMetrics metrics = new SearchMetrics("sharded");
+    private volatile Snapshot snapshot;
+    private volatile boolean closed;
+    private boolean snippetsEnabled = true;
+
+    /**
+     * One shard: its directory, reader, searcher and result decoration.
+     */
+    private static class Shard {
+        final Directory directory;
+        final DirectoryReader reader;
+        final ShardIndexSearcher searcher;
+        final OverviewStore overviewStore;
+        final SnippetGenerator snippetGenerator;
+
+        Shard(Directory directory, DirectoryReader reader, ShardIndexSearcher searcher,
+              OverviewStore overviewStore, SnippetGenerator snippetGenerator) {
+            this.directory = directory;
+            this.reader = reader;
+            this.searcher = searcher;
+            this.overviewStore = overviewStore;
+            this.snippetGenerator = snippetGenerator;
+        }
+
+        void close() throws IOException {
+            reader.close();
+            directory.close();
+            if (overviewStore != null) {
+                overviewStore.close();
+            }
+        }
+    }
+
+    public ShardedSearcher(Path indexDirectory) throws IOException {
+        this(indexDirectory, DirectoryConfig.fromSystemProperties());
+    }
+
+    /**
+     * @param indexDirectory Index location (containing the shard directories)
+     * @param directoryConfig Directory implementation and preload settings of every shard
+     * @throws IOException If the index is not sharded or a shard cannot be opened
+     */
+    public ShardedSearcher(Path indexDirectory, DirectoryConfig directoryConfig) throws IOException {
+        this.indexDirectory = indexDirectory;
+        this.directoryConfig = directoryConfig;
+        this.analyzer = new StandardAnalyzer();
+        this.snapshot = openIndex();
+        EnhancedSearcher.registerCacheGauges(metrics);
+    }
+
+    private Snapshot openIndex() throws IOException {
+        List<Path> shardPaths = ShardedIndexer.listShards(indexDirectory);
+        if (shardPaths.isEmpty()) {
+            throw new IOException("No sharded index found at " + indexDirectory);
+        }
+        List<Shard> opened = new ArrayList<>();
+        try {
+            List<IndexReader> readers = new ArrayList<>();
+            for (Path shardPath : shardPaths) {
+                Directory directory = directoryConfig.open(shardPath);
+                DirectoryReader reader;
+                try {
+                    reader = DirectoryReader.open(directory);
+                } catch (IOException | RuntimeException e) {
+                    directory.close();
+                    throw e;
+                }
+                readers.add(reader);
+                opened.add(new Shard(directory, reader, null, null, null));
+            }
+
+            GlobalStatistics statistics = new GlobalStatistics(readers);
+            for (int i = 0; i < opened.size(); i++) {
+                Shard shard = opened.get(i);
+                OverviewStore overviewStore = OverviewStore.open(shardPaths.get(i), shard.reader);
+                opened.set(i, new Shard(shard.directory, shard.reader,
+                    new ShardIndexSearcher(shard.reader, statistics, Collections.emptyMap()), overviewStore,
+                    new SnippetGenerator(shard.reader, analyzer, overviewStore)));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Shard shard : opened) {
+                shard.close();
+            }
+            throw e;
+        }
+        return new Snapshot(opened);
+    }
+
+    /**
+     * Gets the current snapshot with a reference held; release it with {@link Snapshot#decRef}.
+     */
+    private Snapshot acquire() {
+        while (true) {
+            if (closed) {
+                throw new AlreadyClosedException("this ShardedSearcher is closed");
+            }
+            Snapshot current = snapshot;
+            if (current.tryIncRef()) {
+                return current;
+            }
+            // Replaced and released meanwhile: the next read sees its successor
+        }
+    }
+
+    /**
+     * Gets the per-stage timers and counters of this searcher (including one
+     * timer per shard, to spot slow shards).
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of shards.
+     */
+    public int getShardCount() {
+        return snapshot.shards.size();
+    }
+
+    /**
+     * Enables or disables highlighted overview snippets in results (enabled by default).
+     */
+    public void setSnippetsEnabled(boolean snippetsEnabled) {
+        this.snippetsEnabled = snippetsEnabled;
+    }
+
+    /**
+     * Performs a basic keyword search across all shards.
+     *
+     * @param queryText Search query
+     * @param maxResults Maximum number of results to return
+     * @return Merged search results
+     * @throws ParseException If query parsing fails
+     * @throws IOException If a shard search fails
+     */
+    public List<SearchResult> basicSearch(String queryText, int maxResults)
+            throws ParseException, IOException {
+        Snapshot current = acquire();
+        try {
+            return basicSearch(current, queryText, maxResults);
+        } finally {
+            current.decRef();
+        }
+    }
+
+    private List<SearchResult> basicSearch(Snapshot current, String queryText, int maxResults)
+            throws ParseException, IOException {
+        metrics.increment("queries");
+        SearchMetrics.Trace trace = metrics.trace();
+        Query query = current.subfieldRouter.route(MovieSearcher.createParser(analyzer).parse(queryText));
+        trace.stage("parse");
+
+        TopDocs topDocs = search(current, query, maxResults);
+        trace.stage("search");
+
+        // Highlight matched passages of the overview, each hit on its own shard
+        String[] snippets = new String[topDocs.scoreDocs.length];
+        if (snippetsEnabled) {
+            for (int i = 0; i < snippets.length; i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                snippets[i] = current.shards.get(scoreDoc.shardIndex).snippetGenerator
+                    .generate(query, new ScoreDoc[] {scoreDoc})[0];
+            }
+            trace.stage("snippets");
+        }
+
+        List<SearchResult> results = new ArrayList<>();
+        for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+            Shard shard = current.shards.get(scoreDoc.shardIndex);
+            Document doc = shard.searcher.doc(scoreDoc.doc);
+            metrics.recordStoredFields(doc);
+            if (shard.overviewStore != null) {
+                shard.overviewStore.addTo(doc);
+            }
+            results.add(new SearchResult(doc, scoreDoc.score, snippets[i]));
+        }
+        trace.stage("extraction");
+        trace.finish();
+        return results;
+    }
+
+    /**
+     * Runs a query on all shards in parallel and merges the top hits.
+     *
+     * @return The merged top hits; {@link ScoreDoc#shardIndex} is the shard of each hit
+     */
+    public TopDocs search(Query query, int maxResults) throws IOException {
+        Snapshot current = acquire();
+        try {
+            return search(current, query, maxResults);
+        } finally {
+            current.decRef();
+        }
+    }
+
+    private TopDocs search(Snapshot current, Query query, int maxResults) throws IOException {
+        List<Shard> shards = current.shards;
+        // All shards share the statistics, so they are summed once for the query
+        Map<Term, TermStatistics> termStatistics = shards.get(0).searcher.statistics.termStatistics(query);
+        List<Future<TopDocs>> pending = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            IndexSearcher searcher = shards.get(i).searcher.forQuery(termStatistics);
+            String timer = "shard" + i;
+            pending.add(current.executor.submit(() -> {
+                long start = System.nanoTime();
+                TopDocs hits = searcher.search(query, maxResults);
+                metrics.time(timer, start);
+                return hits;
+            }));
+        }
+
+        TopDocs[] shardHits = new TopDocs[shards.size()];
+        try {
+            for (int i = 0; i < shardHits.length; i++) {
+                shardHits[i] = pending.get(i).get();
+                for (ScoreDoc scoreDoc : shardHits[i].scoreDocs) {
+                    scoreDoc.shardIndex = i;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Shard search failed", e.getCause());
+        } finally {
+            // When one shard failed, the others still finish: interrupting them could close the
+            // file channels of an NIOFSDirectory, and the snapshot must outlive their reads
+            awaitAll(pending);
+        }
+        return TopDocs.merge(maxResults, shardHits);
+    }
+
+    private static void awaitAll(List<Future<TopDocs>> pending) {
+        boolean interrupted = false;
+        for (Future<TopDocs> future : pending) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reopens all shards (call after re-indexing). Searches that are running
+     * finish on the previous shards, which are closed after the last of them.
+     */
+    public synchronized void refresh() throws IOException {
+        if (closed) {
+            throw new AlreadyClosedException("this ShardedSearcher is closed");
+        }
+        Snapshot previous = snapshot;
+        snapshot = openIndex();
+        previous.decRef();
+    }
+
+    /**
+     * Closes all shards and stops the search threads, once the running searches are done.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        snapshot.decRef();
+        analyzer.close();
+    }
+
+    /**
+     * The shards of one opening of the index, with their router and search
+     * threads. Reference counted like an {@link IndexReader}: it starts with
+     * the reference of the searcher and is closed when the count drops to zero.
+     */
+    private static class Snapshot {
+        final List<Shard> shards;
+        final SubfieldRouter subfieldRouter;
+        final ExecutorService executor;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        Snapshot(List<Shard> shards) {
+            this.shards = Collections.unmodifiableList(shards);
+            // All shards are built with the same settings
+            this.subfieldRouter = SubfieldRouter.forReader(shards.get(0).reader);
+            AtomicInteger threads = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+                Thread thread = new Thread(runnable, "shard-search-" + threads.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        boolean tryIncRef() {
+            int count;
+            while ((count = refCount.get()) > 0) {
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void decRef() throws IOException {
+            if (refCount.decrementAndGet() == 0) {
+                // Every search has released the snapshot, so no search thread is busy
+                executor.shutdown();
+                IOException failure = null;
+                for (Shard shard : shards) {
+                    try {
+                        shard.close();
+                    } catch (IOException e) {
+                        failure = failure == null ? e : failure;
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * Term and field statistics summed over all shards. Field statistics are
+     * computed once per field; term statistics once per query term
+     * (one terms dictionary seek per shard).
+     */
+    private static class GlobalStatistics {
+        private final List<IndexReader> readers;
+        private final int maxDoc;
+        private final Map<String, Optional<CollectionStatistics>> fields = new ConcurrentHashMap<>();
+
+        GlobalStatistics(List<IndexReader> readers) {
+            this.readers = readers;
+            int total = 0;
+            for (IndexReader reader : readers) {
+                total += reader.maxDoc();
+            }
+            this.maxDoc = total;
+        }
+
+        /**
+         * Sums the statistics of every term of a query.
+         *
+         * @return The statistics by term (null for terms no shard contains)
+         */
+        Map<Term, TermStatistics> termStatistics(Query query) throws IOException {
+            Set<Term> terms = new HashSet<>();
+            query.visit(QueryVisitor.termCollector(terms));
+            Map<Term, TermStatistics> statistics = new HashMap<>();
+            for (Term term : terms) {
+                statistics.put(term, termStatistics(term));
+            }
+            return statistics;
+        }
+
+        TermStatistics termStatistics(Term term) throws IOException {
+            long docFreq = 0;
+            long totalTermFreq = 0;
+            for (IndexReader reader : readers) {
+                docFreq += reader.docFreq(term);
+                totalTermFreq += reader.totalTermFreq(term);
+            }
+            return docFreq > 0 ? new TermStatistics(term.bytes(), docFreq, totalTermFreq) : null;
+        }
+
+        CollectionStatistics collectionStatistics(String field) throws IOException {
+            Optional<CollectionStatistics> statistics = fields.get(field);
+            if (statistics == null) {
+                statistics = Optional.ofNullable(computeCollectionStatistics(field));
+                fields.put(field, statistics);
+            }
+            return statistics.orElse(null);
+        }
+
+        private CollectionStatistics computeCollectionStatistics(String field) throws IOException {
+            long docCount = 0;
+            long sumTotalTermFreq = 0;
+            long sumDocFreq = 0;
+            for (IndexReader reader : readers) {
+                for (LeafReaderContext leaf : reader.leaves()) {
+                    Terms terms = leaf.reader().terms(field);
+                    if (terms == null) {
+                        continue;
+                    }
+                    docCount += terms.getDocCount();
+                    sumTotalTermFreq += terms.getSumTotalTermFreq();
+                    sumDocFreq += terms.getSumDocFreq();
+                }
+            }
+            if (docCount == 0) {
+                return null;
+            }
+            return new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+        }
+    }
+
+    /**
+     * Searcher of one shard that scores with the global statistics.
+     */
+    private static class ShardIndexSearcher extends IndexSearcher {
+        final GlobalStatistics statistics;
+        private final Map<Term, TermStatistics> queryStatistics;
+
+        /**
+         * @param queryStatistics Global statistics of the query terms, computed beforehand
+         */
+        ShardIndexSearcher(IndexReader reader, GlobalStatistics statistics,
+                           Map<Term, TermStatistics> queryStatistics) {
+            super(reader);
+            this.statistics = statistics;
+            this.queryStatistics = queryStatistics;
+        }
+
+        /**
+         * Gets a searcher of the same shard for one query (searchers are cheap to create).
+         */
+        ShardIndexSearcher forQuery(Map<Term, TermStatistics> queryStatistics) {
+            return new ShardIndexSearcher(getIndexReader(), statistics, queryStatistics);
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq)
+                throws IOException {
+            if (queryStatistics.containsKey(term)) {
+                return queryStatistics.get(term);
+            }
+            // A term the shard's rewrite added (e.g. a prefix expansion)
+            return statistics.termStatistics(term);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            return statistics.collectionStatistics(field);
+        }
+    }
+}
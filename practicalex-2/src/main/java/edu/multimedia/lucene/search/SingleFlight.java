@@ -0,0 +1,85 @@
+package edu.multimedia.lucene.search;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent requests: while a request for a key is in
+ * flight, further requests for the same key wait for it and receive its
+ * result (or exception) instead of running the same parsing, search and
+ * stored-field loading again. Nothing is cached; once the execution
+ * completes, the next request for the key runs again.
+ *
+ * @param <K> Request key (must implement equals/hashCode)
+ * @param <V> Result type (shared between all waiting callers, so it should not be mutated)
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs the loader for the key, or joins an execution that is already in flight.
+     *
+     * @param key Request key
+     * @param loader Computes the result
+     * @return The result of this or the in-flight execution
+     * @throws Exception The exception thrown by the loader
+     */
+    public V execute(K key, Callable<V> loader) throws Exception {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        executions.incrementAndGet();
+        try {
+            V result = loader.call();
+            future.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Gets the number of loader executions.
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * Gets the number of requests that were served by another request's execution.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    @Override
+    public String toString() {
+        long total = executions.get() + coalesced.get();
+        return String.format("Coalescing: %d requests, %d executions, %d coalesced (%.1f%%)",
+            total, executions.get(), coalesced.get(), total > 0 ? 100.0 * coalesced.get() / total : 0.0);
+    }
+}
@@ -0,0 +1,317 @@
+package edu.multimedia.lucene.search;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs queries slower than a threshold, one JSON object per line: the text as
+ * entered, the rewritten query, the number of hits, the time of each stage
+ * and optionally a per-clause profile ({@link ProfilingSearcher}).
+ *
+ * The query thread only hands the query to a bounded queue; rewriting,
+ * profiling and writing happen on a background thread. When the queue is
+ * full the entry is dropped (and counted) instead of blocking the search.
+ * The file is rotated when it grows beyond a size limit
+ * ("&lt;file&gt;.1" is the most recent old one).
+ *
+ * Enabled with the system property {@code movies.slowlog.threshold}
+ * (milliseconds); {@code movies.slowlog.profile=true} adds the profile.
+ */
+public class SlowQueryLog implements AutoCloseable {
+    public static final String PROPERTY_THRESHOLD = "movies.slowlog.threshold";
+    public static final String PROPERTY_PROFILE = "movies.slowlog.profile";
+    public static final long DEFAULT_MAX_FILE_BYTES = 10L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 5;
+
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int MAX_QUERY_CHARS = 4096;
+    private static final int PROFILE_HITS = 10;
+    private static final Entry POISON = new Entry(null, null, null, 0, null, null);
+
+    private final Path logFile;
+    private final long thresholdNanos;
+    private final boolean profile;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private Writer writer;
+    private long fileBytes;
+    private volatile boolean closed;
+
+    /**
+     * Opens the slow-query log of an index directory (a file named
+     * "&lt;index&gt;-slow.log" next to it), configured from the system properties.
+     *
+     * @return The log, or null if no threshold is set
+     */
+    public static SlowQueryLog forIndex(Path indexDirectory) throws IOException {
+        String threshold = System.getProperty(PROPERTY_THRESHOLD);
+        if (threshold == null || threshold.isEmpty()) {
+            return null;
+        }
+        Path absolute = indexDirectory.toAbsolutePath();
+        return new SlowQueryLog(absolute.resolveSibling(absolute.getFileName() + "-slow.log"),
+            Long.parseLong(threshold), Boolean.getBoolean(PROPERTY_PROFILE),
+            DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param logFile Log file (appended to, created if missing)
+     * @param thresholdMillis Queries taking at least this long are logged
+     * @param profile Whether to re-run logged queries with a per-clause profile
+     * @param maxFileBytes Size at which the file is rotated
+     * @param maxFiles Number of rotated files to keep
+     */
+    public SlowQueryLog(Path logFile, long thresholdMillis, boolean profile,
+                        long maxFileBytes, int maxFiles) throws IOException {
+        this.logFile = logFile;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.profile = profile;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        openWriter();
+
+        writerThread = new Thread(this::writeEntries, "slow-query-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Checks whether a query that took this long is logged.
+     */
+    public boolean isSlow(long totalNanos) {
+        return !closed && totalNanos >= thresholdNanos;
+    }
+
+    /**
+     * Queues a slow query for logging; never blocks. The reader is kept open
+     * until the entry is written, so the query can be rewritten and profiled
+     * against the index it ran on.
+     *
+     * @param searcher Name of the searcher that ran the query
+     * @param queryText Query as entered
+     * @param query Query as executed
+     * @param totalHits Number of hits
+     * @param trace Stage timings (finished)
+     * @param reader Reader the query ran on
+     */
+    public void record(String searcher, String queryText, Query query, long totalHits,
+                       SearchMetrics.Trace trace, IndexReader reader) {
+        IndexReader heldReader = reader != null && reader.tryIncRef() ? reader : null;
+        Entry entry = new Entry(searcher, queryText, query, totalHits, trace, heldReader);
+        if (closed || !queue.offer(entry)) {
+            release(heldReader);
+            dropped.incrementAndGet();
+        } else if (closed && queue.remove(entry)) {
+            // Closed between the check and the offer, and close() has not drained the entry
+            release(heldReader);
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getLogged() {
+        return logged.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void writeEntries() {
+        try {
+            while (true) {
+                Entry entry = queue.take();
+                if (entry == POISON) {
+                    break;
+                }
+                try {
+                    write(entry);
+                    logged.incrementAndGet();
+                    if (queue.isEmpty()) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Could not write slow query log: " + e.getMessage());
+                } finally {
+                    release(entry.reader);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        StringWriter line = new StringWriter();
+        JsonWriter json = new JsonWriter(line);
+        json.setHtmlSafe(false);
+        json.beginObject();
+        json.name("time").value(Instant.ofEpochMilli(entry.timeMillis).toString());
+        json.name("searcher").value(entry.searcher);
+        json.name("query").value(entry.queryText);
+        json.name("executed").value(truncate(entry.query.toString()));
+        ProfilingSearcher.QueryProfile queryProfile = null;
+        if (entry.reader != null) {
+            try {
+                if (profile) {
+                    queryProfile = new ProfilingSearcher(entry.reader).profile(entry.query, PROFILE_HITS);
+                    json.name("rewritten").value(truncate(queryProfile.getRewritten().toString()));
+                } else {
+                    IndexSearcher searcher = new IndexSearcher(entry.reader);
+                    searcher.setQueryCache(null);
+                    json.name("rewritten").value(truncate(searcher.rewrite(entry.query).toString()));
+                }
+            } catch (IOException | RuntimeException e) {
+                json.name("rewriteError").value(String.valueOf(e.getMessage()));
+            }
+        }
+        json.name("hits").value(entry.totalHits);
+        json.name("totalMillis").value(entry.trace.getTotalNanos() / 1_000_000.0);
+        json.name("stages").beginObject();
+        for (Map.Entry<String, Long> stage : entry.trace.getStages().entrySet()) {
+            json.name(stage.getKey()).value(stage.getValue() / 1_000_000.0);
+        }
+        json.endObject();
+        if (queryProfile != null) {
+            json.name("profile");
+            queryProfile.writeTo(json);
+        }
+        json.endObject();
+        json.flush();
+        line.write('\n');
+
+        String text = line.toString();
+        writer.write(text);
+        fileBytes += text.getBytes(StandardCharsets.UTF_8).length;
+        if (fileBytes >= maxFileBytes) {
+            rotate();
+        }
+    }
+
+    /**
+     * Renames log to log.1, log.1 to log.2, ... (dropping the oldest) and starts a new file.
+     */
+    private void rotate() throws IOException {
+        writer.close();
+        Files.deleteIfExists(rotated(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            if (Files.exists(rotated(i))) {
+                Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(logFile, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(logFile);
+        }
+        openWriter();
+    }
+
+    private Path rotated(int number) {
+        return logFile.resolveSibling(logFile.getFileName() + "." + number);
+    }
+
+    private void openWriter() throws IOException {
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = Files.size(logFile);
+    }
+
+    private static String truncate(String text) {
+        return text.length() > MAX_QUERY_CHARS ? text.substring(0, MAX_QUERY_CHARS) + "..." : text;
+    }
+
+    private static void release(IndexReader reader) {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.decRef();
+        } catch (IOException e) {
+            System.err.println("Could not release reader: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the queued entries and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(POISON);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Entries offered after the poison (record() raced with close()) still hold their readers
+        List<Entry> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Entry entry : left) {
+            if (entry == POISON) {
+                continue;
+            }
+            try {
+                write(entry);
+                logged.incrementAndGet();
+            } catch (IOException e) {
+                System.err.println("Could not write slow query log: " + e.getMessage());
+            } finally {
+                release(entry.reader);
+            }
+        }
+        writer.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Slow query log %s (threshold %d ms%s): %d logged, %d dropped",
+            logFile, TimeUnit.NANOSECONDS.toMillis(thresholdNanos), profile ? ", profiled" : "",
+            logged.get(), dropped.get());
+    }
+
+    private static class Entry {
+        final long timeMillis = System.currentTimeMillis();
+        final String searcher;
+        final String queryText;
+        final Query query;
+        final long totalHits;
+        final SearchMetrics.Trace trace;
+        final IndexReader reader;
+
+        Entry(String searcher, String queryText, Query query, long totalHits,
+              SearchMetrics.Trace trace, IndexReader reader) {
+            this.searcher = searcher;
+            this.queryText = queryText;
+            this.query = query;
+            this.totalHits = totalHits;
+            this.trace = trace;
+            this.reader = reader;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+import edu.multimedia.lucene.index.OverviewStore;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader.ExitingReaderException;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Generates query-dependent overview snippets with the UnifiedHighlighter.
+ * The overview is indexed with offsets in the postings, so matching passages
+ * are located without re-analyzing the stored text. Snippets are bounded in
+ * passage count and length, and each result gets a time budget: highlighting
+ * is abandoned once the budget is used up and the caller falls back to a
+ * plain overview prefix.
+ *
+ * If the index keeps the overview in an {@link OverviewStore} instead of its
+ * stored fields, the text to highlight is read from the store.
+ */
+public class SnippetGenerator {
+    public static final int DEFAULT_MAX_PASSAGES = 2;
+    public static final int DEFAULT_PASSAGE_LENGTH = 120;
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 25;
+
+    private static final String[] SNIPPET_FIELDS = {MovieIndexer.FIELD_OVERVIEW};
+    private static final int MAX_ANALYZED_CHARS = 10_000;
+    private static final Set<String> ID_FIELD = Collections.singleton(MovieIndexer.FIELD_IMDB_ID);
+
+    private final IndexSearcher searcher;
+    private final UnifiedHighlighter highlighter;
+    private final int maxPassages;
+    private final int maxSnippetLength;
+    private final long timeBudgetNanos;
+    private final ThreadLocal<Long> deadline = ThreadLocal.withInitial(() -> Long.MAX_VALUE);
+
+    public SnippetGenerator(DirectoryReader reader, Analyzer analyzer) throws IOException {
+        this(reader, analyzer, null);
+    }
+
+    /**
+     * @param reader Reader of the index being searched
+     * @param analyzer Analyzer used at index time
+     * @param overviewStore Store holding the overview text (null = stored in the index)
+     */
+    public SnippetGenerator(DirectoryReader reader, Analyzer analyzer, OverviewStore overviewStore)
+            throws IOException {
+        this(reader, analyzer, overviewStore,
+            DEFAULT_MAX_PASSAGES, DEFAULT_PASSAGE_LENGTH, DEFAULT_TIME_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param reader Reader of the index being searched
+     * @param analyzer Analyzer used at index time
+     * @param overviewStore Store holding the overview text (null = stored in the index)
+     * @param maxPassages Maximum number of passages per snippet
+     * @param passageLength Target length of a passage in characters
+     * @param timeBudgetMillis Time budget per result in milliseconds
+     */
+    public SnippetGenerator(DirectoryReader reader, Analyzer analyzer, OverviewStore overviewStore,
+                            int maxPassages, int passageLength, long timeBudgetMillis)
+            throws IOException {
+        this.maxPassages = maxPassages;
+        this.maxSnippetLength = maxPassages * passageLength;
+        this.timeBudgetNanos = timeBudgetMillis * 1_000_000L;
+        this.searcher = new IndexSearcher(reader);
+
+        // Term enumeration while highlighting aborts once the current result's deadline has passed
+        DirectoryReader exitableReader = ExitableDirectoryReader.wrap(
+            reader, () -> System.nanoTime() > deadline.get());
+        UnifiedHighlighter.Builder builder = UnifiedHighlighter
+            .builder(new IndexSearcher(exitableReader), analyzer)
+            .withMaxLength(MAX_ANALYZED_CHARS)
+            .withBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(
+                BreakIterator.getSentenceInstance(Locale.ROOT), passageLength, 0.5f))
+            .withFormatter(new DefaultPassageFormatter("[", "]", " ... ", false));
+        this.highlighter = overviewStore != null
+            ? new ExternalOverviewHighlighter(builder, overviewStore)
+            : builder.build();
+    }
+
+    /**
+     * Generates a snippet for each hit.
+     *
+     * @param query Query whose matches should be highlighted
+     * @param hits Hits to generate snippets for
+     * @return Snippets in hit order (the leading passage if the overview has no
+     *         match); an entry is null if the time budget was exceeded
+     */
+    public String[] generate(Query query, ScoreDoc[] hits) throws IOException {
+        String[] snippets = new String[hits.length];
+        int[] maxPassagesPerField = {maxPassages};
+
+        // Rewrite multi-term queries (fuzzy, wildcard) once instead of once per result
+        Query rewritten = searcher.rewrite(query);
+
+        for (int i = 0; i < hits.length; i++) {
+            deadline.set(System.nanoTime() + timeBudgetNanos);
+            try {
+                String snippet = highlighter.highlightFields(
+                    SNIPPET_FIELDS, rewritten, new int[] {hits[i].doc}, maxPassagesPerField)
+                    .get(MovieIndexer.FIELD_OVERVIEW)[0];
+                snippets[i] = truncate(snippet);
+            } catch (ExitingReaderException e) {
+                snippets[i] = null;
+            } finally {
+                deadline.remove();
+            }
+        }
+        return snippets;
+    }
+
+    private String truncate(String snippet) {
+        if (snippet == null) {
+            return null;
+        }
+        snippet = snippet.trim();
+        if (snippet.length() <= maxSnippetLength) {
+            return snippet;
+        }
+        return snippet.substring(0, maxSnippetLength) + "...";
+    }
+
+    /**
+     * Highlighter that loads the overview from the external store (by the
+     * document's IMDB ID) instead of the stored fields.
+     */
+    private static class ExternalOverviewHighlighter extends UnifiedHighlighter {
+        private final OverviewStore overviewStore;
+
+        ExternalOverviewHighlighter(Builder builder, OverviewStore overviewStore) {
+            super(builder);
+            this.overviewStore = overviewStore;
+        }
+
+        @Override
+        protected List<CharSequence[]> loadFieldValues(String[] fields, DocIdSetIterator docIter,
+                                                       int cacheCharsThreshold) throws IOException {
+            List<CharSequence[]> values = new ArrayList<>();
+            StoredFields storedFields = getIndexSearcher().storedFields();
+            int chars = 0;
+            for (int doc = docIter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docIter.nextDoc()) {
+                Document document = storedFields.document(doc, ID_FIELD);
+                String imdbId = document.get(MovieIndexer.FIELD_IMDB_ID);
+                String overview = imdbId != null ? overviewStore.get(imdbId) : null;
+                if (overview == null) {
+                    overview = "";
+                } else if (overview.length() > getMaxLength()) {
+                    overview = overview.substring(0, getMaxLength());
+                }
+                CharSequence[] docValues = new CharSequence[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    docValues[i] = fields[i].equals(MovieIndexer.FIELD_OVERVIEW) ? overview : "";
+                }
+                values.add(docValues);
+                // Like the default implementation: stop once the batch holds enough text
+                chars += overview.length();
+                if (chars > cacheCharsThreshold) {
+                    break;
+                }
+            }
+            return values;
+        }
+    }
+}
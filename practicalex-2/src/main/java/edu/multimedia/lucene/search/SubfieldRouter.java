@@ -0,0 +1,114 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.MovieIndexer;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rewrites parsed queries to use the prefix and shingle subfields of the
+ * index (see {@link MovieIndexer}), where the index has them:
+ * <ul>
+ *   <li>{@code title:star*} becomes the single term {@code title.prefix:star}
+ *       (constant score, like the prefix query), instead of expanding to every
+ *       term starting with "star"</li>
+ *   <li>{@code title:"star wars"} becomes the single term
+ *       {@code title.shingle:"star wars"}, instead of intersecting two postings
+ *       lists and checking positions</li>
+ * </ul>
+ * Both match exactly the same documents. Prefixes longer than the indexed
+ * n-grams and phrases with slop or more than two words are left unchanged.
+ */
+public class SubfieldRouter {
+    private final Map<String, String> prefixFields = new HashMap<>();
+    private final Map<String, String> shingleFields = new HashMap<>();
+
+    /**
+     * Creates a router for the subfields present in an index.
+     */
+    public static SubfieldRouter forReader(IndexReader reader) {
+        FieldInfos fieldInfos = FieldInfos.getMergedFieldInfos(reader);
+        SubfieldRouter router = new SubfieldRouter();
+        for (String field : MovieIndexer.SUBFIELD_SOURCES) {
+            if (fieldInfos.fieldInfo(field + MovieIndexer.PREFIX_SUFFIX) != null) {
+                router.prefixFields.put(field, field + MovieIndexer.PREFIX_SUFFIX);
+            }
+            if (fieldInfos.fieldInfo(field + MovieIndexer.SHINGLE_SUFFIX) != null) {
+                router.shingleFields.put(field, field + MovieIndexer.SHINGLE_SUFFIX);
+            }
+        }
+        return router;
+    }
+
+    /**
+     * Checks whether the index has any subfield (otherwise queries are never changed).
+     */
+    public boolean isEnabled() {
+        return !prefixFields.isEmpty() || !shingleFields.isEmpty();
+    }
+
+    /**
+     * Rewrites the prefix and phrase queries within a query.
+     */
+    public Query route(Query query) {
+        if (!isEnabled()) {
+            return query;
+        }
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                builder.add(route(clause.getQuery()), clause.getOccur());
+            }
+            return builder.build();
+        }
+        if (query instanceof BoostQuery) {
+            BoostQuery boostQuery = (BoostQuery) query;
+            return new BoostQuery(route(boostQuery.getQuery()), boostQuery.getBoost());
+        }
+        if (query instanceof PrefixQuery) {
+            return routePrefix((PrefixQuery) query);
+        }
+        if (query instanceof PhraseQuery) {
+            return routePhrase((PhraseQuery) query);
+        }
+        return query;
+    }
+
+    private Query routePrefix(PrefixQuery query) {
+        Term prefix = query.getPrefix();
+        String subfield = prefixFields.get(prefix.field());
+        String text = prefix.text();
+        int length = text.codePointCount(0, text.length());
+        if (subfield == null || length < MovieIndexer.PREFIX_MIN_GRAM
+                || length > MovieIndexer.PREFIX_MAX_GRAM) {
+            return query;
+        }
+        return new ConstantScoreQuery(new TermQuery(new Term(subfield, text)));
+    }
+
+    private Query routePhrase(PhraseQuery query) {
+        Term[] terms = query.getTerms();
+        int[] positions = query.getPositions();
+        if (query.getSlop() != 0 || terms.length != 2 || positions[1] != positions[0] + 1) {
+            return query;
+        }
+        String subfield = shingleFields.get(terms[0].field());
+        if (subfield == null) {
+            return query;
+        }
+        return new TermQuery(new Term(subfield, terms[0].text() + " " + terms[1].text()));
+    }
+}
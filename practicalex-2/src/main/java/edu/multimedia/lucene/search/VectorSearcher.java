@@ -0,0 +1,231 @@
+package edu.multimedia.lucene.search;
+
+import edu.multimedia.lucene.index.HashingEmbedder;
+import edu.multimedia.lucene.index.MovieIndexer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Dense-vector (kNN) search over the HNSW graph built by the indexer.
+ * Queries are embedded locally with the same hashed TF-IDF embedder that
+ * was used at index time. The HNSW candidate list size (efSearch) is tunable,
+ * and recall can be measured against an exact brute-force scan.
+ */
+public class VectorSearcher {
+    public static final int DEFAULT_EF_SEARCH = 100;
+
+    private final IndexSearcher searcher;
+    private final HashingEmbedder embedder;
+    private volatile int efSearch = DEFAULT_EF_SEARCH;
+
+    /**
+     * Creates a vector searcher over an open index.
+     *
+     * @param reader Reader of the index (used to restore the embedder statistics)
+     * @param searcher Searcher over the same reader
+     * @throws IOException If the commit data cannot be read
+     */
+    public VectorSearcher(DirectoryReader reader, IndexSearcher searcher) throws IOException {
+        this.searcher = searcher;
+        this.embedder = HashingEmbedder.fromCommitData(reader.getIndexCommit().getUserData());
+    }
+
+    /**
+     * Checks whether the index contains embeddings (older indexes do not).
+     */
+    public boolean isAvailable() {
+        return embedder != null;
+    }
+
+    /**
+     * Sets the number of HNSW candidates explored per query (efSearch).
+     * Higher values improve recall at the cost of latency.
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch <= 0) {
+            throw new IllegalArgumentException("efSearch must be positive: " + efSearch);
+        }
+        this.efSearch = efSearch;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Performs an approximate kNN search through the HNSW graph.
+     *
+     * @param queryText Natural-language query
+     * @param k Number of nearest neighbours to return
+     * @return Top-k documents by cosine similarity (empty if the query cannot be embedded)
+     * @throws IOException If search fails
+     */
+    public TopDocs search(String queryText, int k) throws IOException {
+        float[] vector = embed(queryText);
+        if (vector == null) {
+            return emptyTopDocs();
+        }
+
+        // Lucene explores max(k, efSearch) candidates; keep only the top-k
+        KnnFloatVectorQuery query = new KnnFloatVectorQuery(
+            MovieIndexer.FIELD_VECTOR, vector, Math.max(k, efSearch));
+        return searcher.search(query, k);
+    }
+
+    /**
+     * Performs an exact kNN search by scanning every vector (ground truth for recall).
+     */
+    public TopDocs exactSearch(String queryText, int k) throws IOException {
+        float[] vector = embed(queryText);
+        if (vector == null) {
+            return emptyTopDocs();
+        }
+
+        PriorityQueue<ScoreDoc> queue = new PriorityQueue<>(k + 1,
+            (a, b) -> Float.compare(a.score, b.score));
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            FloatVectorValues values = leaf.reader().getFloatVectorValues(MovieIndexer.FIELD_VECTOR);
+            if (values == null) {
+                continue;
+            }
+            for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+                float score = VectorSimilarityFunction.COSINE.compare(vector, values.vectorValue());
+                queue.add(new ScoreDoc(leaf.docBase + doc, score));
+                if (queue.size() > k) {
+                    queue.poll();
+                }
+            }
+        }
+
+        ScoreDoc[] hits = new ScoreDoc[queue.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            hits[i] = queue.poll();
+        }
+        return new TopDocs(new TotalHits(hits.length, TotalHits.Relation.EQUAL_TO), hits);
+    }
+
+    /**
+     * Measures latency and recall@k of the HNSW search against exact search.
+     *
+     * @param queries Queries to evaluate
+     * @param k Number of neighbours per query
+     * @return Recall and latency report
+     * @throws IOException If search fails
+     */
+    public RecallReport evaluate(List<String> queries, int k) throws IOException {
+        List<Long> latencies = new ArrayList<>();
+        double recallSum = 0.0;
+        int evaluated = 0;
+
+        for (String queryText : queries) {
+            long start = System.nanoTime();
+            TopDocs approximate = search(queryText, k);
+            latencies.add(System.nanoTime() - start);
+
+            TopDocs exact = exactSearch(queryText, k);
+            if (exact.scoreDocs.length == 0) {
+                continue;
+            }
+            Set<Integer> expected = new HashSet<>();
+            for (ScoreDoc hit : exact.scoreDocs) {
+                expected.add(hit.doc);
+            }
+            int found = 0;
+            for (ScoreDoc hit : approximate.scoreDocs) {
+                if (expected.contains(hit.doc)) {
+                    found++;
+                }
+            }
+            recallSum += (double) found / expected.size();
+            evaluated++;
+        }
+
+        Collections.sort(latencies);
+        return new RecallReport(efSearch, k, evaluated,
+            evaluated > 0 ? recallSum / evaluated : 0.0, latencies);
+    }
+
+    private float[] embed(String queryText) throws IOException {
+        if (embedder == null) {
+            throw new IllegalStateException(
+                "Index has no embeddings. Please rebuild the index (option 1).");
+        }
+        return embedder.embed(queryText);
+    }
+
+    private static TopDocs emptyTopDocs() {
+        return new TopDocs(new TotalHits(0, TotalHits.Relation.EQUAL_TO), new ScoreDoc[0]);
+    }
+
+    public void close() {
+        if (embedder != null) {
+            embedder.close();
+        }
+    }
+
+    /**
+     * Recall and latency summary of an HNSW evaluation run.
+     */
+    public static class RecallReport {
+        private final int efSearch;
+        private final int k;
+        private final int queryCount;
+        private final double recall;
+        private final long[] sortedLatencies;
+
+        RecallReport(int efSearch, int k, int queryCount, double recall, List<Long> sortedLatencies) {
+            this.efSearch = efSearch;
+            this.k = k;
+            this.queryCount = queryCount;
+            this.recall = recall;
+            this.sortedLatencies = sortedLatencies.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        public double getRecall() {
+            return recall;
+        }
+
+        /**
+         * Gets a latency percentile in milliseconds (e.g. 0.5, 0.99).
+         */
+        public double getLatencyPercentileMillis(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+            index = Math.max(0, Math.min(sortedLatencies.length - 1, index));
+            return sortedLatencies[index] / 1_000_000.0;
+        }
+
+        public double getMeanLatencyMillis() {
+            return Arrays.stream(sortedLatencies).average().orElse(0.0) / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "efSearch=%d k=%d queries=%d | recall@%d: %.3f | latency mean %.3f ms, p50 %.3f ms, p99 %.3f ms",
+                efSearch, k, queryCount, k, recall,
+                getMeanLatencyMillis(),
+                getLatencyPercentileMillis(0.5),
+                getLatencyPercentileMillis(0.99));
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package edu.multimedia.lucene.server;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.search.AdmissionController;
+import edu.multimedia.lucene.search.EnhancedSearcher;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.QueryCost;
+import edu.multimedia.lucene.search.QueryLog;
+import edu.multimedia.lucene.search.QueryRejectedException;
+import edu.multimedia.lucene.search.SearchResult;
+import edu.multimedia.lucene.search.SearchMetrics;
+import edu.multimedia.lucene.search.SearchResults;
+import edu.multimedia.lucene.search.SingleFlight;
+import edu.multimedia.lucene.search.SlowQueryLog;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/JSON search server built on the JDK's {@code com.sun.net.httpserver}.
+ * All requests share one MovieSearcher and one EnhancedSearcher, each opened
+ * once at startup, so no reader is opened per request. Requests run on a
+ * bounded thread pool; when its queue is full the request is rejected: a
+ * separate thread answers it with 503 and a Retry-After header without
+ * searching, so the accepting thread never blocks (load shedding).
+ * Identical concurrent requests (same endpoint and parameters) are coalesced
+ * into one execution whose response is sent to all of them. Queries are
+ * admitted per cost class (see {@link AdmissionController}): under overload
+ * expensive queries are degraded to exact terms or rejected with 503.
+ *
+ * With the system property {@code movies.server.refresh} (milliseconds,
+ * default 0 = never) the searchers check the index for a newer commit at
+ * that interval and switch to it atomically, e.g. on the directory of an
+ * {@code IndexReplica}: running requests finish on the previous reader.
+ *
+ * Endpoints (GET, parameters in the query string):
+ * <ul>
+ *   <li>/search?q=&amp;n= - basic keyword search</li>
+ *   <li>/search/filtered?q=&amp;minRating=&amp;maxRating=&amp;minYear=&amp;maxYear=&amp;n= - search with filters</li>
+ *   <li>/search/advanced?q=&amp;n= - fuzzy search with spell checking and expansion</li>
+ *   <li>/facets?q=&amp;n= - decade and genre facets of the top results</li>
+ *   <li>/suggest?prefix=&amp;n= - title suggestions</li>
+ *   <li>/health - liveness check</li>
+ *   <li>/stats - request coalescing and admission counters</li>
+ *   <li>/metrics - per-stage latencies and counters of the searchers (Prometheus text format)</li>
+ * </ul>
+ *
+ * Usage: SearchServer [indexPath] [port] [threads]
+ */
+public class SearchServer {
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    public static final String PROPERTY_REFRESH = "movies.server.refresh";
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_MAX_RESULTS = 10;
+    private static final int MAX_RESULTS_LIMIT = 1000;
+    /** Set while a request rejected by the request pool is being answered. */
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    /**
+     * Computes the response for the parameters of a request.
+     */
+    interface Endpoint {
+        JsonBody handle(Map<String, String> params) throws Exception;
+    }
+
+    /**
+     * Response body, written straight to the response stream.
+     */
+    interface JsonBody {
+        void writeTo(JsonWriter json) throws IOException;
+    }
+
+    private final MovieSearcher searcher;
+    private final EnhancedSearcher enhancedSearcher;
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor rejectedExecutor;
+    private final SingleFlight<String, JsonBody> singleFlight = new SingleFlight<>();
+    private final AdmissionController admission;
+    private ScheduledExecutorService refresher;
+
+    /**
+     * @param searcher Shared searcher for basic and filtered search
+     * @param enhancedSearcher Shared searcher for advanced search, facets and suggestions
+     * @param port Port to listen on (0 = any free port)
+     * @param threads Number of request threads
+     */
+    public SearchServer(MovieSearcher searcher, EnhancedSearcher enhancedSearcher, int port, int threads)
+            throws IOException {
+        this.searcher = searcher;
+        this.enhancedSearcher = enhancedSearcher;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        // Requests rejected by the pool are only read and answered with 503; if even
+        // that queue is full, the server closes the connection
+        this.rejectedExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), namedThreads("search-http-rejected-"),
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), namedThreads("search-http-"),
+            (exchange, pool) -> rejectedExecutor.execute(() -> {
+                REJECTED.set(Boolean.TRUE);
+                try {
+                    exchange.run();
+                } finally {
+                    REJECTED.remove();
+                }
+            }));
+        server.setExecutor(executor);
+        this.admission = new AdmissionController(threads);
+
+        register("/search", this::basicSearch, true);
+        register("/search/filtered", this::filteredSearch, true);
+        register("/search/advanced", this::advancedSearch, true);
+        register("/facets", this::facets, true);
+        register("/suggest", this::suggest, true);
+        register("/health", params -> json -> json.beginObject().name("status").value("ok").endObject(), false);
+        register("/stats", this::stats, false);
+        server.createContext("/metrics", exchange -> {
+            try {
+                StringBuilder text = new StringBuilder();
+                SearchMetrics.writeText(text, searcher.getMetrics(), enhancedSearcher.getMetrics());
+                sendText(exchange, text.toString());
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/", exchange -> {
+            try {
+                sendError(exchange, 404, "Not found: " + exchange.getRequestURI().getPath());
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path indexPath = Paths.get(args.length > 0 ? args[0] : "index");
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+
+        DirectoryConfig directoryConfig = DirectoryConfig.fromSystemProperties();
+        QueryLog queryLog = QueryLog.forIndex(indexPath);
+        MovieSearcher searcher = new MovieSearcher(indexPath, directoryConfig, queryLog);
+        EnhancedSearcher enhancedSearcher = new EnhancedSearcher(indexPath, directoryConfig, queryLog);
+        SlowQueryLog slowQueryLog = SlowQueryLog.forIndex(indexPath);
+        if (slowQueryLog != null) {
+            searcher.setSlowQueryLog(slowQueryLog);
+            enhancedSearcher.setSlowQueryLog(slowQueryLog);
+            System.out.println(slowQueryLog);
+        }
+        System.out.println(searcher.getWarmer());
+        searcher.getMetrics().registerMBean();
+        enhancedSearcher.getMetrics().registerMBean();
+
+        SearchServer server = new SearchServer(searcher, enhancedSearcher, port, threads);
+        long refreshInterval = Long.getLong(PROPERTY_REFRESH, 0);
+        if (refreshInterval > 0) {
+            server.startRefresh(refreshInterval);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            System.out.println(server.getSingleFlight());
+            System.out.println(server.getAdmission());
+            System.out.println(searcher.getMetrics());
+            System.out.println(enhancedSearcher.getMetrics());
+            try {
+                // Queued slow queries are rewritten against the searchers' readers
+                if (slowQueryLog != null) {
+                    slowQueryLog.close();
+                    System.out.println(slowQueryLog);
+                }
+                searcher.close();
+                enhancedSearcher.close();
+                queryLog.close();
+            } catch (IOException e) {
+                System.err.println("Error closing index: " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Search server listening on port " + server.getPort()
+            + " with " + threads + " threads"
+            + (refreshInterval > 0 ? ", checking for new commits every " + refreshInterval + " ms." : "."));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Checks the index for a newer commit in the background and switches the
+     * searchers to it.
+     *
+     * @param intervalMillis Time between checks
+     */
+    public synchronized void startRefresh(long intervalMillis) {
+        if (refresher != null) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(namedThreads("search-refresh-"));
+        refresher.scheduleWithFixedDelay(this::refresh, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Switches the searchers to the latest commit, logging instead of throwing
+     * failures (they are retried on the next check).
+     */
+    private void refresh() {
+        try {
+            boolean basic = searcher.refresh();
+            boolean enhanced = enhancedSearcher.refresh();
+            if (basic || enhanced) {
+                System.out.println("Switched the searchers to a new commit of the index.");
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not refresh the searchers: " + e);
+        }
+    }
+
+    /**
+     * Stops accepting requests and waits (briefly) for running requests to finish.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (refresher != null) {
+                refresher.shutdownNow();
+            }
+        }
+        server.stop(1);
+        executor.shutdown();
+        rejectedExecutor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            rejectedExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the request coalescing counters.
+     */
+    public SingleFlight<String, ?> getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Gets the admission control counters.
+     */
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    private JsonBody basicSearch(Map<String, String> params) throws Exception {
+        String query = required(params, "q");
+        int maxResults = maxResults(params);
+        return admission.execute(query, searcher::estimateCost, executed -> {
+            long start = System.nanoTime();
+            List<SearchResult> results = searcher.basicSearch(executed, maxResults);
+            return resultsBody(query, executed, results, -1, start);
+        });
+    }
+
+    private JsonBody filteredSearch(Map<String, String> params) throws Exception {
+        String query = required(params, "q");
+        Double minRating = doubleParam(params, "minRating");
+        Double maxRating = doubleParam(params, "maxRating");
+        Integer minYear = intParam(params, "minYear");
+        Integer maxYear = intParam(params, "maxYear");
+        int maxResults = maxResults(params);
+        return admission.execute(query, searcher::estimateCost, executed -> {
+            long start = System.nanoTime();
+            List<SearchResult> results = searcher.enhancedSearch(executed,
+                minRating, maxRating, minYear, maxYear, maxResults);
+            return resultsBody(query, executed, results, -1, start);
+        });
+    }
+
+    private JsonBody advancedSearch(Map<String, String> params) throws Exception {
+        String query = required(params, "q");
+        int maxResults = maxResults(params);
+        return admission.execute(query, enhancedSearcher::estimateCost, executed -> {
+            long start = System.nanoTime();
+            SearchResults results = enhancedSearcher.performSearch(executed, maxResults);
+            return resultsBody(query, executed, results.getResults(), results.getTotalHits(), start);
+        });
+    }
+
+    private JsonBody facets(Map<String, String> params) throws Exception {
+        String query = required(params, "q");
+        int maxResults = maxResults(params);
+        Map<String, List<String>> facets = admission.execute(query, enhancedSearcher::estimateCost,
+            executed -> enhancedSearcher.getFacets(
+                enhancedSearcher.performSearch(executed, maxResults).getResults()));
+        return json -> {
+            json.beginObject();
+            json.name("query").value(query);
+            for (Map.Entry<String, List<String>> facet : facets.entrySet()) {
+                writeStrings(json.name(facet.getKey()), facet.getValue());
+            }
+            json.endObject();
+        };
+    }
+
+    private JsonBody suggest(Map<String, String> params) throws Exception {
+        String prefix = required(params, "prefix");
+        List<String> suggestions = enhancedSearcher.suggest(prefix, maxResults(params));
+        return json -> {
+            json.beginObject();
+            json.name("prefix").value(prefix);
+            writeStrings(json.name("suggestions"), suggestions);
+            json.endObject();
+        };
+    }
+
+    private JsonBody stats(Map<String, String> params) {
+        long executions = singleFlight.getExecutions();
+        long coalesced = singleFlight.getCoalesced();
+        return json -> {
+            json.beginObject();
+            json.name("executions").value(executions);
+            json.name("coalesced").value(coalesced);
+            json.name("admission").beginObject();
+            for (QueryCost.CostClass costClass : QueryCost.CostClass.values()) {
+                json.name(costClass.name().toLowerCase(Locale.ROOT)).beginObject()
+                    .name("admitted").value(admission.getAdmitted(costClass))
+                    .name("rejected").value(admission.getRejected(costClass))
+                    .endObject();
+            }
+            json.name("degraded").value(admission.getDegraded());
+            json.endObject();
+            json.endObject();
+        };
+    }
+
+    /**
+     * @param query Requested query
+     * @param executedQuery Query that actually ran (simplified if the request was degraded)
+     * @param totalHits Total number of matches, or -1 if not known
+     */
+    private static JsonBody resultsBody(String query, String executedQuery, List<SearchResult> results,
+                                        long totalHits, long startNanos) {
+        double tookMillis = (System.nanoTime() - startNanos) / 1_000_000.0;
+        return json -> {
+            json.beginObject();
+            json.name("query").value(query);
+            if (!executedQuery.equals(query)) {
+                json.name("degradedQuery").value(executedQuery);
+            }
+            json.name("count").value(results.size());
+            if (totalHits >= 0) {
+                json.name("totalHits").value(totalHits);
+            }
+            json.name("tookMillis").value(tookMillis);
+            json.name("results").beginArray();
+            for (SearchResult result : results) {
+                result.writeTo(json);
+            }
+            json.endArray();
+            json.endObject();
+        };
+    }
+
+    private static void writeStrings(JsonWriter json, List<String> values) throws IOException {
+        json.beginArray();
+        for (String value : values) {
+            json.value(value);
+        }
+        json.endArray();
+    }
+
+    /**
+     * @param coalesce Whether identical concurrent requests share one execution
+     */
+    private void register(String path, Endpoint endpoint, boolean coalesce) {
+        server.createContext(path, exchange -> {
+            try {
+                handle(exchange, path, endpoint, coalesce);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    private void handle(HttpExchange exchange, String path, Endpoint endpoint, boolean coalesce) 
+            throws IOException {
+        if (REJECTED.get() != null) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "Server overloaded");
+            return;
+        }
+        if (!exchange.getRequestURI().getPath().equals(path)) {
+            sendError(exchange, 404, "Not found: " + exchange.getRequestURI().getPath());
+            return;
+        }
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Only GET is supported");
+            return;
+        }
+
+        JsonBody body;
+        try {
+            Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+            if (coalesce) {
+                // Identical requests in flight share one execution
+                String key = path + new TreeMap<>(params);
+                body = singleFlight.execute(key, () -> endpoint.handle(params));
+            } else {
+                body = endpoint.handle(params);
+            }
+        } catch (ParseException | IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        } catch (QueryRejectedException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, e.getMessage());
+            return;
+        } catch (Exception e) {
+            System.err.println("Error handling " + exchange.getRequestURI() + ": " + e.getMessage());
+            sendError(exchange, 500, "Internal error");
+            return;
+        }
+        send(exchange, 200, body);
+    }
+
+    static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, json -> json.beginObject().name("error").value(message).endObject());
+    }
+
+    /**
+     * Streams the body as chunked JSON; the connection stays open for keep-alive.
+     */
+    static void send(HttpExchange exchange, int status, JsonBody body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)))) {
+            body.writeTo(json);
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    static Map<String, String> parseParams(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator >= 0 ? pair.substring(0, separator) : pair;
+            String value = separator >= 0 ? pair.substring(separator + 1) : "";
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    static int maxResults(Map<String, String> params) {
+        Integer n = intParam(params, "n");
+        if (n == null) {
+            return DEFAULT_MAX_RESULTS;
+        }
+        if (n <= 0 || n > MAX_RESULTS_LIMIT) {
+            throw new IllegalArgumentException("n must be between 1 and " + MAX_RESULTS_LIMIT);
+        }
+        return n;
+    }
+
+    private static Integer intParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static Double doubleParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + counter.incrementAndGet());
+    }
+}
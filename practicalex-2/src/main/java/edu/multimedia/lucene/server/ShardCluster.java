@@ -0,0 +1,253 @@
+package edu.multimedia.lucene.server;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.multimedia.lucene.index.ShardedIndexer;
+import edu.multimedia.lucene.search.SearchMetrics;
+import edu.multimedia.lucene.search.SearchResult;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a sharded index as a cluster of local processes: one {@link ShardServer}
+ * JVM per shard on consecutive loopback ports, and a {@link ShardCoordinator}
+ * in this process that serves the merged results over HTTP. System properties
+ * starting with "movies." are passed on to the shard processes. The shard
+ * processes are stopped when this process exits.
+ *
+ * Endpoints of the coordinator (GET, parameters in the query string):
+ * <ul>
+ *   <li>/search?q=&amp;n= - search over all shards; "partial" is true and
+ *       "failures" gives the reason per shard if some shards were left out</li>
+ *   <li>/health - liveness check</li>
+ *   <li>/metrics - latency per shard and timeout/failure counters (Prometheus text format)</li>
+ * </ul>
+ *
+ * Usage: ShardCluster shardedIndexPath [port] [firstShardPort]
+ */
+public class ShardCluster {
+    public static final int DEFAULT_FIRST_SHARD_PORT = 9201;
+    private static final long STARTUP_TIMEOUT_MILLIS = 60_000;
+
+    private final ShardCoordinator coordinator;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param coordinator Coordinator of the shard servers
+     * @param port Port to listen on (0 = any free port)
+     * @param threads Number of request threads
+     */
+    public ShardCluster(ShardCoordinator coordinator, int port, int threads) throws IOException {
+        this.coordinator = coordinator;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newFixedThreadPool(threads, SearchServer.namedThreads("coordinator-http-"));
+        server.setExecutor(executor);
+
+        server.createContext("/search", exchange -> {
+            try {
+                SearchServer.JsonBody body;
+                try {
+                    Map<String, String> params = SearchServer.parseParams(exchange.getRequestURI().getRawQuery());
+                    body = search(SearchServer.required(params, "q"), SearchServer.maxResults(params));
+                } catch (IllegalArgumentException e) {
+                    SearchServer.sendError(exchange, 400, e.getMessage());
+                    return;
+                } catch (Exception e) {
+                    System.err.println("Error handling " + exchange.getRequestURI() + ": " + e.getMessage());
+                    SearchServer.sendError(exchange, 500, "Internal error");
+                    return;
+                }
+                SearchServer.send(exchange, 200, body);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/health", exchange -> {
+            try {
+                SearchServer.send(exchange, 200, json -> json.beginObject()
+                    .name("status").value("ok").name("shards").value(coordinator.getShardCount()).endObject());
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/metrics", exchange -> {
+            try {
+                StringBuilder text = new StringBuilder();
+                SearchMetrics.writeText(text, coordinator.getMetrics());
+                byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ShardCluster shardedIndexPath [port] [firstShardPort]");
+            System.exit(2);
+        }
+        Path indexPath = Paths.get(args[0]);
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : SearchServer.DEFAULT_PORT;
+        int firstShardPort = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FIRST_SHARD_PORT;
+
+        List<Path> shardPaths = ShardedIndexer.listShards(indexPath);
+        if (shardPaths.isEmpty()) {
+            System.err.println("Not a sharded index: " + indexPath);
+            System.exit(1);
+        }
+
+        List<Process> processes = new ArrayList<>();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stopShards(processes)));
+        List<URI> shardUris = startShards(shardPaths, firstShardPort, processes);
+
+        ShardCoordinator coordinator = new ShardCoordinator(shardUris);
+        ShardCluster cluster = new ShardCluster(coordinator, port, SearchServer.DEFAULT_THREADS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            cluster.stop();
+            System.out.println(coordinator.getMetrics());
+        }));
+        cluster.start();
+        System.out.println("Coordinator of " + shardUris.size() + " shards listening on port "
+            + cluster.getPort() + " (shard timeout " + coordinator.getTimeoutMillis() + " ms).");
+    }
+
+    /**
+     * Starts one shard server process per shard and waits until all of them answer.
+     */
+    private static List<URI> startShards(List<Path> shardPaths, int firstPort, List<Process> processes)
+            throws IOException, InterruptedException {
+        String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classpath = System.getProperty("java.class.path");
+        List<URI> shardUris = new ArrayList<>();
+        for (int shard = 0; shard < shardPaths.size(); shard++) {
+            int port = firstPort + shard;
+            List<String> command = new ArrayList<>();
+            command.add(javaBin);
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (name.startsWith("movies.")) {
+                    command.add("-D" + name + "=" + System.getProperty(name));
+                }
+            }
+            command.add("-cp");
+            command.add(classpath);
+            command.add(ShardServer.class.getName());
+            command.add(shardPaths.get(shard).toString());
+            command.add(String.valueOf(port));
+            command.add(String.valueOf(shard));
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+            shardUris.add(URI.create("http://127.0.0.1:" + port + "/"));
+        }
+
+        HttpClient client = HttpClient.newHttpClient();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STARTUP_TIMEOUT_MILLIS);
+        for (int shard = 0; shard < shardUris.size(); shard++) {
+            HttpRequest health = HttpRequest.newBuilder(shardUris.get(shard).resolve("/health"))
+                .timeout(Duration.ofSeconds(1))
+                .build();
+            while (true) {
+                if (!processes.get(shard).isAlive()) {
+                    throw new IOException("Shard " + shard + " exited with code "
+                        + processes.get(shard).exitValue());
+                }
+                try {
+                    if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        break;
+                    }
+                } catch (ConnectException e) {
+                    // Not listening yet
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("Shard " + shard + " did not start within "
+                        + STARTUP_TIMEOUT_MILLIS + " ms");
+                }
+                Thread.sleep(200);
+            }
+        }
+        return shardUris;
+    }
+
+    private static void stopShards(List<Process> processes) {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private SearchServer.JsonBody search(String query, int maxResults) {
+        long start = System.nanoTime();
+        ShardCoordinator.ShardedResults results = coordinator.basicSearch(query, maxResults);
+        double tookMillis = (System.nanoTime() - start) / 1_000_000.0;
+        return json -> {
+            json.beginObject();
+            json.name("query").value(query);
+            json.name("tookMillis").value(tookMillis);
+            json.name("totalHits").value(results.getTotalHits());
+            json.name("partial").value(results.isPartial());
+            json.name("shards").beginObject()
+                .name("total").value(results.getShardCount())
+                .name("successful").value(results.getSuccessfulShards())
+                .endObject();
+            json.name("failures").beginObject();
+            for (Map.Entry<Integer, String> failure : results.getFailures().entrySet()) {
+                json.name(String.valueOf(failure.getKey())).value(failure.getValue());
+            }
+            json.endObject();
+            ShardServer.writeFacets(json.name("facets"), results.getFacets());
+            json.name("results").beginArray();
+            for (SearchResult result : results.getResults()) {
+                result.writeTo(json);
+            }
+            json.endArray();
+            json.endObject();
+        };
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits (briefly) for running requests to finish.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,340 @@
+package edu.multimedia.lucene.server;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import edu.multimedia.lucene.search.SearchMetrics;
+import edu.multimedia.lucene.search.SearchResult;
+import edu.multimedia.lucene.search.SearchResults;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Scatter-gather search over shards served by separate processes
+ * ({@link ShardServer}). A query is sent to all shards at once; the top hits
+ * of the shards are merged by score ({@link TopDocs#merge}) and their match
+ * and facet counts are added up.
+ *
+ * Shards that fail or do not answer within the timeout are left out and the
+ * results are marked as partial, with the reason per shard. A shard that
+ * failed or timed out is not queried again for {@value #RETRY_AFTER_MILLIS} ms,
+ * so a dead or overloaded process does not cost every query the timeout.
+ * A shard that rejects the query (HTTP 400) fails the whole search, as all
+ * shards parse the same query; the other requests are then cancelled.
+ *
+ * Each shard scores with its own term statistics, so scores differ slightly
+ * from a single index (the in-process {@code ShardedSearcher} uses global
+ * statistics instead); with the hash partitioning of {@code ShardedIndexer}
+ * the shards have nearly the same statistics.
+ *
+ * The timeout can be configured with the system property
+ * {@code movies.shards.timeout} (milliseconds, default 1000).
+ */
+public class ShardCoordinator {
+    public static final String PROPERTY_TIMEOUT = "movies.shards.timeout";
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+    public static final long RETRY_AFTER_MILLIS = 5000;
+
+    /**
+     * Merged results of all shards that answered in time.
+     */
+    public static class ShardedResults extends SearchResults {
+        private final Map<String, Map<String, Long>> facets;
+        private final int shardCount;
+        private final Map<Integer, String> failures;
+
+        ShardedResults(List<SearchResult> results, long totalHits, Map<String, Map<String, Long>> facets,
+                int shardCount, Map<Integer, String> failures) {
+            super(results, totalHits);
+            this.facets = facets;
+            this.shardCount = shardCount;
+            this.failures = failures;
+        }
+
+        /**
+         * Gets the decade and genre counts over all matches of the answering shards.
+         */
+        public Map<String, Map<String, Long>> getFacets() {
+            return facets;
+        }
+
+        public int getShardCount() {
+            return shardCount;
+        }
+
+        public int getSuccessfulShards() {
+            return shardCount - failures.size();
+        }
+
+        /**
+         * Gets the reason per shard number of the shards that were left out.
+         */
+        public Map<Integer, String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Whether some shards were left out, i.e. hits and counts may be missing.
+         */
+        public boolean isPartial() {
+            return !failures.isEmpty();
+        }
+    }
+
+    private static class ShardClient {
+        final URI searchUri;
+        volatile long downUntilNanos;
+
+        ShardClient(URI baseUri) {
+            this.searchUri = baseUri.resolve("/shard/search");
+        }
+    }
+
+    private final List<ShardClient> shards = new ArrayList<>();
+    private final long timeoutMillis;
+    private final HttpClient client;
+    private final SearchMetrics metrics = new SearchMetrics("coordinator");
+
+    public ShardCoordinator(List<URI> shardUris) {
+        this(shardUris, Long.getLong(PROPERTY_TIMEOUT, DEFAULT_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * @param shardUris Base URIs of the shard servers, in shard order (e.g. http://localhost:9201/)
+     * @param timeoutMillis Time to wait for the shards of a query
+     */
+    public ShardCoordinator(List<URI> shardUris, long timeoutMillis) {
+        for (URI uri : shardUris) {
+            shards.add(new ShardClient(uri));
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(timeoutMillis))
+            .build();
+    }
+
+    /**
+     * Searches all shards with a query and merges their results.
+     *
+     * @param queryText Search query
+     * @param maxResults Maximum number of results
+     * @return The merged results; partial if some shards were left out
+     * @throws IllegalArgumentException If the shards reject the query (e.g. a syntax error)
+     */
+    public ShardedResults basicSearch(String queryText, int maxResults) {
+        SearchMetrics.Trace trace = metrics.trace();
+        String query = "?q=" + URLEncoder.encode(queryText, StandardCharsets.UTF_8) + "&n=" + maxResults;
+
+        // Scatter
+        long now = System.nanoTime();
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<CompletableFuture<HttpResponse<String>>> requests = new ArrayList<>();
+        Map<Integer, String> failures = new TreeMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            ShardClient client = shards.get(shard);
+            if (now - client.downUntilNanos < 0) {
+                requests.add(null);
+                failures.put(shard, "unavailable");
+                metrics.increment("shard" + shard + ".skipped");
+                continue;
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create(client.searchUri + query))
+                .timeout(Duration.ofMillis(timeoutMillis))
+                .GET()
+                .build();
+            CompletableFuture<HttpResponse<String>> response =
+                this.client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            // Timed when the shard answers, not when the gather loop gets to it
+            String timer = "shard" + shard;
+            response.whenComplete((result, error) -> metrics.time(timer, now));
+            requests.add(response);
+        }
+        trace.stage("scatter");
+
+        // Gather
+        List<List<SearchResult>> shardResults = new ArrayList<>();
+        List<TopDocs> shardHits = new ArrayList<>();
+        Map<String, Map<String, Long>> facets = new TreeMap<>();
+        long totalHits = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            CompletableFuture<HttpResponse<String>> request = requests.get(shard);
+            if (request == null) {
+                continue;
+            }
+            ShardResponse response;
+            try {
+                response = receive(shard, request, deadline);
+            } catch (TimeoutException e) {
+                request.cancel(true);
+                markDown(shard);
+                failures.put(shard, "timeout");
+                metrics.increment("shard" + shard + ".timeouts");
+                continue;
+            } catch (IllegalArgumentException e) {
+                for (CompletableFuture<HttpResponse<String>> other : requests) {
+                    if (other != null) {
+                        other.cancel(true);
+                    }
+                }
+                throw e;
+            } catch (Exception e) {
+                markDown(shard);
+                failures.put(shard, e.getMessage());
+                metrics.increment("shard" + shard + ".failures");
+                continue;
+            }
+
+            List<SearchResult> results = response.results;
+            ScoreDoc[] scoreDocs = new ScoreDoc[results.size()];
+            for (int rank = 0; rank < scoreDocs.length; rank++) {
+                scoreDocs[rank] = new ScoreDoc(rank, results.get(rank).getScore(), shardResults.size());
+            }
+            shardResults.add(results);
+            shardHits.add(new TopDocs(
+                new TotalHits(response.totalHits, TotalHits.Relation.EQUAL_TO), scoreDocs));
+            totalHits += response.totalHits;
+            response.facets.forEach((facet, counts) -> {
+                Map<String, Long> merged = facets.computeIfAbsent(facet, key -> new TreeMap<>());
+                counts.forEach((value, count) -> merged.merge(value, count, Long::sum));
+            });
+        }
+        trace.stage("gather");
+
+        TopDocs merged = TopDocs.merge(maxResults, shardHits.toArray(new TopDocs[0]));
+        List<SearchResult> results = new ArrayList<>();
+        for (ScoreDoc scoreDoc : merged.scoreDocs) {
+            results.add(shardResults.get(scoreDoc.shardIndex).get(scoreDoc.doc));
+        }
+        trace.stage("merge");
+        if (!failures.isEmpty()) {
+            metrics.increment("partial");
+        }
+        trace.finish();
+        return new ShardedResults(results, totalHits, facets, shards.size(),
+            Collections.unmodifiableMap(failures));
+    }
+
+    private void markDown(int shard) {
+        shards.get(shard).downUntilNanos = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(RETRY_AFTER_MILLIS);
+    }
+
+    /**
+     * Waits for the response of a shard until the deadline and reads it.
+     *
+     * @throws TimeoutException If the shard did not answer in time
+     * @throws IllegalArgumentException If the shard rejected the query
+     * @throws Exception If the shard could not be reached, failed or sent an invalid response
+     */
+    private ShardResponse receive(int shard, CompletableFuture<HttpResponse<String>> request, long deadline)
+            throws Exception {
+        HttpResponse<String> response;
+        try {
+            response = request.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HttpTimeoutException) {
+                throw new TimeoutException();
+            }
+            throw new Exception("shard " + shard + " unreachable: " + e.getCause(), e.getCause());
+        }
+        if (response.statusCode() == 400) {
+            // Every shard parses the same query, so the query itself is invalid
+            throw new IllegalArgumentException(errorMessage(response));
+        }
+        if (response.statusCode() != 200) {
+            throw new Exception("shard " + shard + " returned " + response.statusCode()
+                + ": " + errorMessage(response));
+        }
+        try {
+            return new ShardResponse(JsonParser.parseString(response.body()).getAsJsonObject());
+        } catch (RuntimeException e) {
+            // Not JSON, or results, facets or totalHits missing or of the wrong type
+            throw new Exception("shard " + shard + " returned an invalid response: " + e, e);
+        }
+    }
+
+    /**
+     * Gets the error of a failed response: the "error" of a JSON body, else
+     * the body itself (e.g. a proxy's HTML page), else the status code.
+     */
+    private static String errorMessage(HttpResponse<String> response) {
+        String body = response.body();
+        try {
+            JsonElement error = JsonParser.parseString(body).getAsJsonObject().get("error");
+            if (error != null && !error.isJsonNull()) {
+                return error.getAsString();
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            // Not a JSON object
+        }
+        return body == null || body.isBlank() ? "HTTP " + response.statusCode() : body.trim();
+    }
+
+    /**
+     * The results, hit count and facet counts of one shard, read completely
+     * before they are merged, so an invalid response only fails its shard.
+     */
+    private static class ShardResponse {
+        final List<SearchResult> results = new ArrayList<>();
+        final long totalHits;
+        final Map<String, Map<String, Long>> facets = new TreeMap<>();
+
+        ShardResponse(JsonObject response) {
+            for (JsonElement element : required(response, "results").getAsJsonArray()) {
+                results.add(SearchResult.readFrom(element.getAsJsonObject()));
+            }
+            totalHits = required(response, "totalHits").getAsLong();
+            JsonObject shardFacets = required(response, "facets").getAsJsonObject();
+            for (Map.Entry<String, JsonElement> facet : shardFacets.entrySet()) {
+                Map<String, Long> counts = new TreeMap<>();
+                for (Map.Entry<String, JsonElement> value : facet.getValue().getAsJsonObject().entrySet()) {
+                    counts.put(value.getKey(), value.getValue().getAsLong());
+                }
+                facets.put(facet.getKey(), counts);
+            }
+        }
+
+        private static JsonElement required(JsonObject response, String name) {
+            JsonElement element = response.get(name);
+            if (element == null || element.isJsonNull()) {
+                throw new IllegalStateException("no \"" + name + "\"");
+            }
+            return element;
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Gets the latencies per shard and the timeout, failure and partial result counters.
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,166 @@
+package edu.multimedia.lucene.server;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpServer;
+import edu.multimedia.lucene.index.DirectoryConfig;
+import edu.multimedia.lucene.search.FacetCountCollector;
+import edu.multimedia.lucene.search.MovieSearcher;
+import edu.multimedia.lucene.search.SearchResult;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves one shard of a sharded index (see {@code ShardedIndexer}) to a
+ * {@link ShardCoordinator}, as a separate process on the loopback interface.
+ * The shard is searched with its own {@link MovieSearcher}, so queries are
+ * parsed, routed and highlighted exactly as on a single index; scores use
+ * the statistics of this shard only (the coordinator merges them as they
+ * are, like a query-then-fetch search without a statistics round trip).
+ *
+ * The protocol is the JSON-over-HTTP of {@link SearchServer}:
+ * <ul>
+ *   <li>/shard/search?q=&amp;n= - top hits of the shard, the number of
+ *       matches and the decade and genre counts over all matches:
+ *       {@code {"shard":0,"totalHits":12,"tookMillis":1.5,"facets":{...},"results":[...]}}</li>
+ *   <li>/health - liveness check</li>
+ * </ul>
+ *
+ * Usage: ShardServer shardPath port [shardNumber] [threads]
+ */
+public class ShardServer {
+    public static final int DEFAULT_THREADS = 4;
+
+    private final int shard;
+    private final MovieSearcher searcher;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param shard Shard number (reported in responses)
+     * @param searcher Searcher of the shard
+     * @param port Loopback port to listen on (0 = any free port)
+     * @param threads Number of request threads
+     */
+    public ShardServer(int shard, MovieSearcher searcher, int port, int threads) throws IOException {
+        this.shard = shard;
+        this.searcher = searcher;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newFixedThreadPool(threads, SearchServer.namedThreads("shard-http-"));
+        server.setExecutor(executor);
+
+        server.createContext("/shard/search", exchange -> {
+            try {
+                SearchServer.JsonBody body;
+                try {
+                    Map<String, String> params = SearchServer.parseParams(exchange.getRequestURI().getRawQuery());
+                    body = search(SearchServer.required(params, "q"), SearchServer.maxResults(params));
+                } catch (ParseException | IllegalArgumentException e) {
+                    SearchServer.sendError(exchange, 400, e.getMessage());
+                    return;
+                } catch (Exception e) {
+                    System.err.println("Error handling " + exchange.getRequestURI() + ": " + e.getMessage());
+                    SearchServer.sendError(exchange, 500, "Internal error");
+                    return;
+                }
+                SearchServer.send(exchange, 200, body);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/health", exchange -> {
+            try {
+                SearchServer.send(exchange, 200, json -> json.beginObject()
+                    .name("status").value("ok").name("shard").value(shard).endObject());
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ShardServer shardPath port [shardNumber] [threads]");
+            System.exit(2);
+        }
+        Path shardPath = Paths.get(args[0]);
+        int port = Integer.parseInt(args[1]);
+        int shard = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_THREADS;
+
+        MovieSearcher searcher = new MovieSearcher(shardPath, DirectoryConfig.fromSystemProperties());
+        ShardServer server = new ShardServer(shard, searcher, port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                searcher.close();
+            } catch (IOException e) {
+                System.err.println("Error closing shard " + shard + ": " + e.getMessage());
+            }
+        }));
+        server.start();
+        System.out.println("Shard " + shard + " (" + shardPath + ") listening on port " + server.getPort() + ".");
+    }
+
+    private SearchServer.JsonBody search(String query, int maxResults) throws ParseException, IOException {
+        long start = System.nanoTime();
+        FacetCountCollector counts = new FacetCountCollector();
+        List<SearchResult> results = searcher.basicSearch(query, maxResults, counts);
+        double tookMillis = (System.nanoTime() - start) / 1_000_000.0;
+        return json -> {
+            json.beginObject();
+            json.name("shard").value(shard);
+            json.name("totalHits").value(counts.getCount());
+            json.name("tookMillis").value(tookMillis);
+            writeFacets(json.name("facets"), counts.getFacets());
+            json.name("results").beginArray();
+            for (SearchResult result : results) {
+                result.writeAllTo(json);
+            }
+            json.endArray();
+            json.endObject();
+        };
+    }
+
+    static void writeFacets(JsonWriter json, Map<String, Map<String, Long>> facets) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, Map<String, Long>> facet : facets.entrySet()) {
+            json.name(facet.getKey()).beginObject();
+            for (Map.Entry<String, Long> value : facet.getValue().entrySet()) {
+                json.name(value.getKey()).value(value.getValue());
+            }
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits (briefly) for running requests to finish.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+}
@@ -5,11 +5,15 @@ import com.google.gson.GsonBuilder;
 import edu.multimedia.lucene.model.Movie;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Utility class for reading JSONL (JSON Lines) files containing movie data.
@@ -32,31 +36,13 @@ public class JsonlReader {
      */
     public List<Movie> readMovies(Path filePath, int maxRecords) throws IOException {
         List<Movie> movies = new ArrayList<>();
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath.toFile()))) {
-            String line;
-            int count = 0;
-            
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) {
-                    continue;
-                }
-                
-                try {
-                    Movie movie = gson.fromJson(line, Movie.class);
-                    movies.add(movie);
-                    count++;
-                    
-                    if (maxRecords > 0 && count >= maxRecords) {
-                        break;
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error parsing line: " + line);
-                    System.err.println("Error: " + e.getMessage());
-                }
+        try {
+            for (Movie movie : streamMovies(filePath, maxRecords)) {
+                movies.add(movie);
             }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        
         return movies;
     }
 
@@ -70,5 +56,94 @@ public class JsonlReader {
     public List<Movie> readMovies(Path filePath) throws IOException {
         return readMovies(filePath, 0);
     }
-}
 
+    /**
+     * Streams movies from a JSONL file, one line at a time, so files of any
+     * size can be indexed. Every iteration reads the file again from the start;
+     * the file is closed when the iteration reaches the end, or when the
+     * iterator (which is {@link Closeable}) is closed.
+     *
+     * @param filePath Path to the JSONL file
+     * @param maxRecords Maximum number of records to read (0 = read all)
+     * @return The movies; the iterators throw {@link UncheckedIOException} if
+     *         the file cannot be read
+     */
+    public Iterable<Movie> streamMovies(Path filePath, int maxRecords) {
+        return () -> new MovieIterator(filePath, maxRecords);
+    }
+
+    private class MovieIterator implements Iterator<Movie>, Closeable {
+        private final BufferedReader reader;
+        private final int maxRecords;
+        private int count;
+        private Movie next;
+        private boolean closed;
+
+        MovieIterator(Path filePath, int maxRecords) {
+            try {
+                this.reader = new BufferedReader(new FileReader(filePath.toFile()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.maxRecords = maxRecords;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed || (maxRecords > 0 && count >= maxRecords)) {
+                close();
+                return false;
+            }
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+
+                    try {
+                        next = gson.fromJson(line, Movie.class);
+                        if (next != null) {
+                            count++;
+                            return true;
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Error parsing line: " + line);
+                        System.err.println("Error: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public Movie next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Movie movie = next;
+            next = null;
+            return movie;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.multimedia.lucene.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed relative precision (in the style of HdrHistogram):
+ * values below 128 ns are counted exactly, larger ones in 64 linear sub-buckets
+ * per power of two, so every recorded value is within 1.6% of the value it
+ * is reported as, from nanoseconds up to hours, in a fixed 30 KB array.
+ *
+ * Recording is lock-free (an atomic bucket array and striped adders), so one
+ * histogram can be shared by all threads, e.g. by the search metrics. Load
+ * generators may still use one histogram per thread and {@link #add} them.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts =
+        new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one latency.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        totalCount.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records one latency and corrects for coordinated omission: when a request
+     * took longer than the interval at which requests were meant to be sent, the
+     * requests that would have been sent (and waited) meanwhile are recorded too,
+     * with linearly decreasing latencies.
+     *
+     * @param nanos Measured latency
+     * @param expectedIntervalNanos Intended time between requests (0 = no correction)
+     */
+    public void recordCorrected(long nanos, long expectedIntervalNanos) {
+        record(nanos);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missing = nanos - expectedIntervalNanos; missing >= expectedIntervalNanos;
+                missing -= expectedIntervalNanos) {
+            record(missing);
+        }
+    }
+
+    /**
+     * Adds all values of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.add(other.totalCount.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * Removes all values. Values recorded concurrently may be kept in part.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the sum of all values, in nanoseconds.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) getSum() / count : 0.0;
+    }
+
+    /**
+     * Gets the value at a percentile (0 to 1), in nanoseconds.
+     */
+    public long percentile(double p) {
+        // Counted from the buckets, which may be ahead of totalCount under concurrent recording
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(getMax(), valueOf(i));
+            }
+        }
+        return getMax();
+    }
+
+    private static int index(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the highest value counted in a bucket.
+     */
+    private static long valueOf(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}